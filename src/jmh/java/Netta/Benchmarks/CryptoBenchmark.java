@@ -0,0 +1,90 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Benchmarks;
+
+import Netta.Connection.ConnectionKript;
+import Netta.Connection.SessionCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-packet encryption: Kript's RSA, used when a peer does not negotiate a
+ * session key, against the AES-GCM SessionCipher.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int payloadBytes;
+
+    private byte[] plain;
+    private ConnectionKript kript;
+    private byte[] kriptEncrypted;
+    private SessionCipher sessionCipher;
+    private byte[] sessionEncrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        plain = Payloads.bytes(payloadBytes);
+
+        kript = new ConnectionKript(ConnectionKript.generateKeyPairNow());
+        kript.setRemotePublicKey(kript.getPublicKey());
+        kriptEncrypted = kript.encrypt(plain);
+
+        sessionCipher = new SessionCipher(SessionCipher.generateKey());
+        sessionEncrypted = sessionCipher.encrypt(plain);
+    }
+
+    @Benchmark
+    public byte[] kriptEncrypt() throws Exception {
+        return kript.encrypt(plain);
+    }
+
+    @Benchmark
+    public byte[] kriptDecrypt() throws Exception {
+        return kript.decrypt(kriptEncrypted);
+    }
+
+    @Benchmark
+    public byte[] sessionEncrypt() throws Exception {
+        return sessionCipher.encrypt(plain);
+    }
+
+    @Benchmark
+    public byte[] sessionDecrypt() throws Exception {
+        return sessionCipher.decrypt(sessionEncrypted);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Benchmarks;
+
+import Netta.Connection.Client.ClientTemplate;
+import Netta.Connection.Server.MultiClientServer;
+import Netta.Connection.WireFormat;
+import Netta.Exceptions.ConnectionException;
+import Netta.Exceptions.ConnectionInitializationException;
+import Netta.Exceptions.HandShakeException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for a client to connect to a MultiClientServer over loopback and
+ * complete the HandShake, including the RSA key exchange and the session key.
+ * Run with several threads (-t) to measure the server's accept rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandShakeBenchmark {
+
+    @Param({"SERIALIZED", "BINARY"})
+    public WireFormat wireFormat;
+
+    private MultiClientServer server;
+    private int port;
+
+    @Setup
+    public void setUp() throws Exception {
+        ServerSocket probe = new ServerSocket(0);
+        port = probe.getLocalPort();
+        probe.close();
+
+        server = new MultiClientServer(port) {
+        };
+        server.setWireFormat(wireFormat);
+        server.useVirtualThreads();
+        new Thread(server, "Netta-Benchmark-Server").start();
+        while (!server.isServerActive())
+            Thread.sleep(10);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.closeServer();
+    }
+
+    @State(Scope.Thread)
+    public static class ClientState {
+
+        HandShakeClient client;
+
+        @Setup
+        public void setUp(HandShakeBenchmark benchmark) throws NoSuchAlgorithmException {
+            client = new HandShakeClient(benchmark.port, benchmark.wireFormat);
+        }
+    }
+
+    @Benchmark
+    public void connectAndHandShake(ClientState state)
+            throws IOException, ConnectionInitializationException, HandShakeException, ConnectionException {
+        state.client.connectAndHandShake();
+    }
+
+    static final class HandShakeClient extends ClientTemplate {
+
+        private final int port;
+
+        HandShakeClient(int port, WireFormat wireFormat) throws NoSuchAlgorithmException {
+            super("localhost", port);
+            this.port = port;
+            setWireFormat(wireFormat);
+        }
+
+        void connectAndHandShake()
+                throws IOException, ConnectionInitializationException, HandShakeException, ConnectionException {
+            connectedSocket = new Socket(InetAddress.getLoopbackAddress(), port);
+            try {
+                openIOStreams();
+            } catch (ConnectionInitializationException e) {
+                connectedSocket.close();
+                throw e;
+            }
+            try {
+                HandShake();
+            } finally {
+                closeIOStreams();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Benchmarks;
+
+import Netta.Connection.Connection;
+import Netta.Connection.ConnectionKript;
+import Netta.Connection.Packet;
+import Netta.Connection.SessionCipher;
+import Netta.Connection.WireFormat;
+import Netta.Exceptions.ConnectionException;
+import Netta.Exceptions.ConnectionInitializationException;
+import Netta.Exceptions.ReadPacketException;
+import Netta.Exceptions.SendPacketException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection.sendPacket and receivePacket over loopback. Every operation is a
+ * round trip: the packet is sent, echoed back by a thread on the other end of
+ * the socket, and received. Encrypted packets use the AES-GCM session cipher
+ * a HandShake negotiates between current peers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    @Param({"64", "1024", "16384", "262144"})
+    public int payloadBytes;
+
+    @Param({"false", "true"})
+    public boolean encrypted;
+
+    @Param({"SERIALIZED", "BINARY"})
+    public WireFormat wireFormat;
+
+    private Packet packet;
+    private LoopbackConnection client;
+    private LoopbackConnection server;
+    private Thread echo;
+
+    @Setup
+    public void setUp() throws Exception {
+        packet = Payloads.packet(payloadBytes);
+        byte[] sessionKey = SessionCipher.generateKey();
+        client = new LoopbackConnection(wireFormat, sessionKey);
+        server = new LoopbackConnection(wireFormat, sessionKey);
+
+        final ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final Exception[] acceptError = new Exception[1];
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.open(listener.accept());
+                } catch (Exception e) {
+                    acceptError[0] = e;
+                }
+            }
+        });
+        acceptor.start();
+        // Both ends must open their streams at once, the SERIALIZED format
+        // waits for the other end's stream header
+        client.open(new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort()));
+        acceptor.join();
+        listener.close();
+        if (acceptError[0] != null)
+            throw acceptError[0];
+
+        echo = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (server.isConnectionActive())
+                        server.sendPacket(server.receivePacket(encrypted), encrypted);
+                } catch (ReadPacketException e) {
+                } catch (SendPacketException e) {
+                }
+            }
+        }, "Netta-Benchmark-Echo");
+        echo.setDaemon(true);
+        echo.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        try {
+            client.closeIOStreams();
+        } catch (ConnectionException e) {
+        }
+        echo.join(5000);
+        try {
+            server.closeIOStreams();
+        } catch (ConnectionException e) {
+        }
+    }
+
+    @Benchmark
+    public Packet roundTrip() throws SendPacketException, ReadPacketException {
+        client.sendPacket(packet, encrypted);
+        return client.receivePacket(encrypted);
+    }
+
+    private static final class LoopbackConnection extends Connection {
+
+        private final byte[] sessionKey;
+
+        LoopbackConnection(WireFormat wireFormat, byte[] sessionKey) throws NoSuchAlgorithmException {
+            super(new ConnectionKript(ConnectionKript.generateKeyPairNow()));
+            this.sessionKey = sessionKey;
+            setWireFormat(wireFormat);
+        }
+
+        void open(Socket socket) throws IOException, ConnectionInitializationException, GeneralSecurityException {
+            socket.setTcpNoDelay(true);
+            connectedSocket = socket;
+            openIOStreams();
+            setSessionKey(sessionKey);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Benchmarks;
+
+import Netta.Connection.Server.MediaCache;
+import Netta.Connection.Server.MediaStreamer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to stream a whole media file to a client over loopback, the way the
+ * media servers send it: FileChannel.transferTo to a socket accepted from a
+ * channel, a pooled buffer copy to a plain socket, and a mapping held by
+ * MediaCache. The client end discards what it reads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MediaStreamBenchmark {
+
+    @Param({"1048576", "33554432"})
+    public int fileBytes;
+
+    @Param({"TRANSFER_TO", "COPY", "CACHED"})
+    public Path path;
+
+    private File mediaFile;
+    private FileChannel file;
+    private MediaCache cache;
+    private ByteBuffer cached;
+    private Socket socket;
+    private Thread drain;
+
+    @Setup
+    public void setUp() throws Exception {
+        mediaFile = File.createTempFile("netta-media", ".bin");
+        FileOutputStream out = new FileOutputStream(mediaFile);
+        try {
+            byte[] chunk = Payloads.bytes(64 * 1024);
+            for (int written = 0; written < fileBytes; written += chunk.length)
+                out.write(chunk, 0, Math.min(chunk.length, fileBytes - written));
+        } finally {
+            out.close();
+        }
+        file = new FileInputStream(mediaFile).getChannel();
+        cache = new MediaCache();
+        cached = cache.get(mediaFile);
+
+        final ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        if (path == Path.TRANSFER_TO)
+            socket = SocketChannel.open(address).socket();
+        else
+            socket = new Socket(address.getAddress(), address.getPort());
+        final Socket client = listener.accept();
+        listener.close();
+
+        drain = new Thread(new Runnable() {
+            public void run() {
+                byte[] buffer = new byte[64 * 1024];
+                try {
+                    InputStream in = client.getInputStream();
+                    while (in.read(buffer) >= 0) {
+                    }
+                } catch (IOException e) {
+                }
+                try {
+                    client.close();
+                } catch (IOException e) {
+                }
+            }
+        }, "Netta-Benchmark-Drain");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        socket.close();
+        drain.join(5000);
+        file.close();
+        cache.clear();
+        mediaFile.delete();
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        if (path == Path.CACHED)
+            return MediaStreamer.stream(cached, 0, fileBytes, socket);
+        return MediaStreamer.stream(file, 0, fileBytes, socket);
+    }
+
+    public enum Path {
+        TRANSFER_TO, COPY, CACHED
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Benchmarks;
+
+import Netta.Connection.Packet;
+import Netta.Connection.PacketCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packet encoding and decoding, with Java serialization (Packet.ToBytes and
+ * new Packet(byte[])) and with PacketCodec. Run with the gc profiler to see
+ * the bytes allocated per packet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark {
+
+    @Param({"64", "1024", "16384", "262144"})
+    public int payloadBytes;
+
+    private Packet packet;
+    private byte[] serialized;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        packet = Payloads.packet(payloadBytes);
+        serialized = packet.ToBytes();
+        encoded = PacketCodec.encode(packet);
+    }
+
+    @Benchmark
+    public byte[] toBytes() throws IOException {
+        return packet.ToBytes();
+    }
+
+    @Benchmark
+    public Packet fromBytes() throws IOException, ClassNotFoundException {
+        return new Packet(serialized);
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return PacketCodec.encode(packet);
+    }
+
+    @Benchmark
+    public Packet codecDecode() throws IOException {
+        return PacketCodec.decode(encoded);
+    }
+}
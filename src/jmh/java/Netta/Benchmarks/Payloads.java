@@ -0,0 +1,61 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Benchmarks;
+
+import Netta.Connection.Packet;
+
+import java.util.Random;
+
+/**
+ * Test data shared by the benchmarks.
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * Random bytes. Random data does not compress, so compression never
+     * hides the cost being measured.
+     *
+     * @param length number of bytes
+     * @return byte[] random bytes, the same for every call with this length
+     */
+    static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * A Message packet carrying a payload of the given size, with the other
+     * fields set the way an application typically sets them
+     *
+     * @param payloadBytes size of packetByteArray
+     * @return Packet for the benchmarks
+     */
+    static Packet packet(int payloadBytes) {
+        Packet p = new Packet(Packet.PACKET_TYPE.Message, "Benchmark");
+        p.packetString = "payload";
+        p.packetInt = payloadBytes;
+        p.packetByteArray = bytes(payloadBytes);
+        return p;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+/**
+ * What sendPacketAsync does when a connection's send queue is full.
+ */
+public enum BackPressure {
+    /**
+     * Wait for room in the queue. The calling thread stalls until the writer
+     * catches up.
+     */
+    BLOCK,
+    /**
+     * Drop the oldest queued packet to make room. Its future fails with a
+     * SendPacketException.
+     */
+    DROP_OLDEST,
+    /**
+     * Refuse the new packet. The returned future fails with a
+     * SendPacketException right away.
+     */
+    FAIL_FAST
+}
@@ -0,0 +1,116 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of heap byte arrays used to encode, encrypt, read and decode
+ * packets without allocating a new array for every packet.
+ * <p>
+ * Buffers come in power of two size classes from MIN_BUFFER_BYTES to
+ * MAX_POOLED_BYTES, so a buffer is usually longer than requested. Larger
+ * requests are allocated exactly and never pooled. A buffer must not be used
+ * after it is released, and must be released at most once.
+ */
+public final class BufferPool {
+
+    public static final int MIN_BUFFER_BYTES = 1024;
+    public static final int MAX_POOLED_BYTES = 256 * 1024;
+    private static final int MIN_SHIFT = 10;
+    private static final int POOLED_PER_CLASS = 16;
+
+    private static final ArrayBlockingQueue<byte[]>[] classes = newClasses();
+    private static final AtomicLong allocations = new AtomicLong();
+    private static final AtomicLong reuses = new AtomicLong();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Take a buffer from the pool
+     *
+     * @param minBytes smallest length the buffer may have
+     * @return byte[] of at least minBytes. Its contents are undefined.
+     */
+    public static byte[] acquire(int minBytes) {
+        if (minBytes > MAX_POOLED_BYTES) {
+            allocations.incrementAndGet();
+            return new byte[minBytes];
+        }
+
+        int sizeClass = sizeClass(minBytes);
+        byte[] buffer = classes[sizeClass].poll();
+        if (buffer != null) {
+            reuses.incrementAndGet();
+            return buffer;
+        }
+        allocations.incrementAndGet();
+        return new byte[MIN_BUFFER_BYTES << sizeClass];
+    }
+
+    /**
+     * Hand a buffer back to the pool. Buffers that did not come from
+     * acquire(int), or that do not fit in the pool, are left to the garbage
+     * collector.
+     *
+     * @param buffer buffer returned by acquire(int), or null
+     */
+    public static void release(byte[] buffer) {
+        if (buffer == null || buffer.length < MIN_BUFFER_BYTES || buffer.length > MAX_POOLED_BYTES
+                || Integer.bitCount(buffer.length) != 1)
+            return;
+        classes[sizeClass(buffer.length)].offer(buffer);
+    }
+
+    /**
+     * Get the number of buffers allocated because the pool had none of the
+     * right size
+     *
+     * @return long buffers allocated
+     */
+    public static long getAllocations() {
+        return allocations.get();
+    }
+
+    /**
+     * Get the number of buffers handed out from the pool
+     *
+     * @return long buffers reused
+     */
+    public static long getReuses() {
+        return reuses.get();
+    }
+
+    private static int sizeClass(int bytes) {
+        if (bytes <= MIN_BUFFER_BYTES)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1) - MIN_SHIFT;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayBlockingQueue<byte[]>[] newClasses() {
+        ArrayBlockingQueue<byte[]>[] queues = new ArrayBlockingQueue[sizeClass(MAX_POOLED_BYTES) + 1];
+        for (int i = 0; i < queues.length; i++)
+            queues[i] = new ArrayBlockingQueue<byte[]>(POOLED_PER_CLASS);
+        return queues;
+    }
+}
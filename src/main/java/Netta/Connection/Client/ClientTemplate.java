@@ -19,17 +19,24 @@
 
 package Netta.Connection.Client;
 
-import Kript.Kript;
 import Netta.Connection.Connection;
+import Netta.Connection.ConnectionKript;
+import Netta.Connection.KeyPairPool;
+import Netta.Connection.KeyProvider;
 import Netta.Connection.Packet;
 import Netta.Exceptions.*;
+import Netta.Logging.Log;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
 
 public abstract class ClientTemplate extends Connection implements Runnable {
 
+    private static final Log log = Log.get(ClientTemplate.class);
+
     protected String serverIP;
     protected int port;
     private boolean encryptedPacket = true;
@@ -49,37 +56,51 @@ public abstract class ClientTemplate extends Connection implements Runnable {
      * @throws NoSuchAlgorithmException when there is an issue creating the RSA keys.
      */
     public ClientTemplate(String serverIP, int port) throws NoSuchAlgorithmException {
-        super(new Kript());
+        this(serverIP, port, KeyPairPool.getDefault());
+    }
+
+    /**
+     * Basic client setup using a specific source for the client's RSA keypair.
+     * By default clients draw from KeyPairPool.getDefault(), which generates
+     * keypairs ahead of time in the background.
+     *
+     * @param serverIP    The IP address of the server to connect to
+     * @param port        the port of the server to connect to
+     * @param keyProvider source of the client's RSA keypair
+     * @throws NoSuchAlgorithmException when there is an issue creating the RSA keys.
+     */
+    public ClientTemplate(String serverIP, int port, KeyProvider keyProvider) throws NoSuchAlgorithmException {
+        super(new ConnectionKript(keyProvider.nextKeyPair()));
         this.serverIP = serverIP;
         this.port = port;
     }
 
     public void run() {
-        System.out.println("Initializing client...");
+        log.info("Initializing client...");
 
         try {
             connectedSocket = new Socket(serverIP, port);
             openIOStreams();
-            System.out.println("Client connected to server. Server: " + connectedSocket);
+            log.info("Client connected to server. Server: {}", connectedSocket);
         } catch (IOException e) {
-            System.err.println(
+            log.warn(
                     "Unable to connect to server. Check your network connection and try again. Closing client.");
             return;
         } catch (ConnectionInitializationException e) {
-            System.err.println(e.getMessage() + " Closing client.");
+            log.warn("{} Closing client.", e.getMessage());
             return;
         }
 
-        System.out.println("Listening for packets from the server.");
+        log.debug("Listening for packets from the server.");
 
         try {
             HandShake();
         } catch (HandShakeException e) {
-            System.err.println(e.getMessage());
+            log.warn(e.getMessage());
             try {
                 closeIOStreams();
             } catch (ConnectionException e1) {
-                System.err.println(e1.getMessage());
+                log.warn(e1.getMessage());
             }
             return;
         }
@@ -87,9 +108,10 @@ public abstract class ClientTemplate extends Connection implements Runnable {
         while (isConnectionActive()) {
             try {
                 Packet p = receivePacket(encryptedPacket);
-                packetReceived(p);
+                if (!handleInternalPacket(p) && !dispatchPacket(p))
+                    packetReceived(p);
             } catch (ReadPacketException e) {
-                System.err.println(e.getMessage() + " Closing connection.");
+                log.debug("{} Closing connection.", e.getMessage());
                 try {
                     closeIOStreams();
                 } catch (ConnectionException e1) {
@@ -97,7 +119,7 @@ public abstract class ClientTemplate extends Connection implements Runnable {
             }
         }
 
-        System.out.println("Closing down client.");
+        log.info("Closing down client.");
         try {
             closeIOStreams();
         } catch (ConnectionException e) {
@@ -114,6 +136,73 @@ public abstract class ClientTemplate extends Connection implements Runnable {
 
     }
 
+    /**
+     * Send a request using the EncryptedPacket setting, and get a future for
+     * its response. See Connection.request(Packet, boolean).
+     *
+     * @param p request packet. Its requestID is overwritten.
+     * @return CompletableFuture of the response
+     */
+    public CompletableFuture<Packet> request(Packet p) {
+        return request(p, encryptedPacket);
+    }
+
+    /**
+     * Answer a request using the EncryptedPacket setting
+     *
+     * @param request  packet received from the other side
+     * @param response packet to answer with. Its requestID is overwritten.
+     * @return boolean value based on the success of the send
+     * @throws SendPacketException thrown when there is an error sending the response
+     */
+    public boolean respond(Packet request, Packet response) throws SendPacketException {
+        return respond(request, response, encryptedPacket);
+    }
+
+    /**
+     * Subscribe to a topic filter on a server with a TopicRouter. Packets
+     * published to matching topics arrive in packetReceived as
+     * PACKET_TYPE.Publish packets, with their topic in Packet.topic.
+     *
+     * @param filter topic filter, which may contain the '+' and '#' wildcards
+     * @return CompletableFuture of the server's response, whose packetBool is
+     * true if the subscription was added
+     */
+    public CompletableFuture<Packet> subscribe(String filter) {
+        Packet p = new Packet(Packet.PACKET_TYPE.Subscribe, null);
+        p.topic = filter;
+        return request(p);
+    }
+
+    /**
+     * Unsubscribe from a topic filter
+     *
+     * @param filter topic filter passed to subscribe(String)
+     * @return CompletableFuture of the server's response, whose packetBool is
+     * true if the subscription was removed
+     */
+    public CompletableFuture<Packet> unsubscribe(String filter) {
+        Packet p = new Packet(Packet.PACKET_TYPE.Unsubscribe, null);
+        p.topic = filter;
+        return request(p);
+    }
+
+    /**
+     * Publish a packet to every subscriber of a topic, through the server's
+     * TopicRouter. The packet's type is set to Publish and its topic to the
+     * given topic.
+     *
+     * @param topic topic to publish to, without wildcards
+     * @param p     packet to publish
+     * @return boolean value based on the success of the send
+     * @throws SendPacketException thrown when there is an error sending the packet
+     */
+    public boolean publish(String topic, Packet p) throws SendPacketException {
+        p.packetType = Packet.PACKET_TYPE.Publish;
+        p.topic = topic;
+        return sendPacket(p, encryptedPacket);
+    }
+
     /**
      * Returns the value of EncryptedPacket. This value is what determines
      * whether the ReadPacket method will try to decrypt the data.
@@ -137,6 +226,7 @@ public abstract class ClientTemplate extends Connection implements Runnable {
     protected void HandShake() throws HandShakeException {
         try {
             Packet clientHello = new Packet(Packet.PACKET_TYPE.Handshake, null);
+            clientHello.gData = getCapabilities();
             sendPacket(clientHello, false);
         } catch (SendPacketException e) {
             throw new HandShakeException("Unable to send HandShake clientHello to connection. Terminating.");
@@ -147,6 +237,7 @@ public abstract class ClientTemplate extends Connection implements Runnable {
             if (serverHello.packetType != Packet.PACKET_TYPE.Handshake)
                 throw new HandShakeException(
                         "HandShake serverHello from connection is not a HandShake Packet. Error with connection. Terminating.");
+            setNegotiatedCapabilities(serverHello.gData);
         } catch (ReadPacketException e) {
             throw new HandShakeException("Unable to receive HandShake serverHello from connection. Terminating.");
         }
@@ -163,7 +254,7 @@ public abstract class ClientTemplate extends Connection implements Runnable {
             clientKeyExchange.packetKey = kript.getPublicKey();
             sendPacket(clientKeyExchange, true);
         } catch (SendPacketException e) {
-            e.printStackTrace();
+            log.debug(e.getMessage());
             throw new HandShakeException("Unable to send HandShake clientKeyExchange to connection. Terminating.");
         }
 
@@ -181,10 +272,19 @@ public abstract class ClientTemplate extends Connection implements Runnable {
                 throw new HandShakeException(
                         "Unable to decrypt PacketString from connection. HandShake failure. Terminating.");
             }
+            if (hasCapability(SESSION_KEY_CAPABILITY)) {
+                if (serverDone.packetByteArray == null)
+                    throw new HandShakeException(
+                            "HandShake serverDone from connection is missing the session key. Terminating.");
+                setSessionKey(serverDone.packetByteArray);
+            }
         } catch (ReadPacketException e) {
             throw new HandShakeException("Unable to receive HandShake serverDone from connection. Terminating.");
+        } catch (GeneralSecurityException e) {
+            throw new HandShakeException("Unable to create HandShake session cipher. Terminating.");
         }
 
-        System.out.println("HandShake with server complete!");
+        handShakeComplete();
+        log.debug("HandShake with server complete!");
     }
 }
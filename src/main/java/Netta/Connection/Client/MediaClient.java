@@ -1,8 +1,12 @@
 package Netta.Connection.Client;
 
+import Netta.Connection.MediaRange;
 import Netta.Exceptions.ConnectionException;
 import Netta.Exceptions.ConnectionInitializationException;
 import Netta.Exceptions.HandShakeException;
+import Netta.Exceptions.ReadPacketException;
+import Netta.Exceptions.SendPacketException;
+import Netta.Logging.Log;
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 
@@ -14,13 +18,29 @@ import java.io.InputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Created by Austin on 2/20/2017.
  */
 public class MediaClient extends ClientTemplate {
 
+    private static final Log log = Log.get(MediaClient.class);
+
+    public static final int DEFAULT_RING_BUFFER_BYTES = 1024 * 1024;
+    public static final int DEFAULT_PREBUFFER_BYTES = 64 * 1024;
+    private static final int READ_CHUNK_BYTES = 16 * 1024;
+    private static final int LINE_CHUNK_BYTES = 8 * 1024;
+
     private String mediaType;
+    private ArrayList<MediaRange> requestedRanges;
+    private ArrayList<MediaRange> streamRanges;
+    private int ringBufferBytes = DEFAULT_RING_BUFFER_BYTES;
+    private int prebufferBytes = DEFAULT_PREBUFFER_BYTES;
+    private volatile long streamStartNanos;
+    private volatile long timeToFirstAudioNanos = -1;
+    private volatile RingBufferInputStream playbackBuffer;
 
     /**
      * Basic client setup. By default to initialize this object, simply create
@@ -44,39 +64,53 @@ public class MediaClient extends ClientTemplate {
 
     @Override
     public void run() {
-        System.out.println("MediaClient: Initializing client...");
+        log.info("Initializing client...");
+        streamStartNanos = System.nanoTime();
+        timeToFirstAudioNanos = -1;
 
         try {
             connectedSocket = new Socket(serverIP, port);
             openIOStreams();
-            System.out.println("MediaClient: Client connected to server. Server: " + connectedSocket);
+            log.info("Client connected to server. Server: {}", connectedSocket);
         } catch (IOException e) {
-            System.err.println(
-                    "MediaClient: Unable to connect to server. Check your network connection and try again. Closing client.");
+            log.warn(
+                    "Unable to connect to server. Check your network connection and try again. Closing client.");
             return;
         } catch (ConnectionInitializationException e) {
-            System.err.println("MediaClient: " + e.getMessage() + " Closing client.");
+            log.warn("{} Closing client.", e.getMessage());
             return;
         }
 
-        System.out.println("MediaClient: Listening for packets from the server.");
+        log.debug("Listening for packets from the server.");
 
         try {
             HandShake();
         } catch (HandShakeException e) {
-            System.err.println(e.getMessage());
+            log.warn(e.getMessage());
             try {
                 closeIOStreams();
             } catch (ConnectionException e1) {
-                System.err.println(e1.getMessage());
+                log.warn(e1.getMessage());
+            }
+            return;
+        }
+
+        if (!requestRanges()) {
+            try {
+                closeIOStreams();
+            } catch (ConnectionException e) {
             }
             return;
         }
 
-        if (mediaType.toLowerCase().equals("music"))
+        // Audio can only be decoded from a stream that starts with the
+        // file's header. Anything else goes to mediaReceived as raw bytes.
+        if (mediaType.toLowerCase().equals("music") && startsWithHeader())
             playMusic();
+        else
+            receiveMedia();
 
-        System.out.println("MediaClient: Closing down Media client.");
+        log.info("Closing down Media client.");
         try {
             closeIOStreams();
         } catch (ConnectionException e) {
@@ -84,29 +118,225 @@ public class MediaClient extends ClientTemplate {
     }
 
     /**
-     * Play Music. Streams selected music from Server connection
+     * Request only some ranges of the media file, for example to resume a
+     * stream that dropped, to seek, or to fetch a file in parallel chunks over
+     * several clients. The ranges are sent back to back, in the order given.
+     * Must be called before the client is started. Needs a server that
+     * supports the MediaRange capability; older servers always send the whole
+     * file, so the client closes the connection instead. Unless the first
+     * range starts at offset 0, the media has no audio header and is passed
+     * to mediaReceived(InputStream) instead of being played.
+     *
+     * @param ranges ranges of the media file to stream
+     */
+    public void setRequestedRanges(MediaRange... ranges) {
+        requestedRanges = new ArrayList<MediaRange>(Arrays.asList(ranges));
+    }
+
+    /**
+     * Get the ranges the server is streaming, cut short at the end of the
+     * file. Set once the HandShake is complete; if the server does not
+     * support ranges this is the whole file, with an unknown length.
+     *
+     * @return ArrayList of the ranges being streamed, or null before the HandShake
+     */
+    public ArrayList<MediaRange> getStreamRanges() {
+        return streamRanges;
+    }
+
+    /**
+     * Set the size of the buffer between the network and the audio line.
+     * Memory use of playback is bounded by this, no matter how long the file
+     * is. Must be called before the client is started.
+     *
+     * @param ringBufferBytes size of the playback buffer, in bytes
+     */
+    public void setRingBufferBytes(int ringBufferBytes) {
+        this.ringBufferBytes = Math.max(LINE_CHUNK_BYTES, ringBufferBytes);
+    }
+
+    /**
+     * Set how much of the stream is buffered before playback starts. A larger
+     * prebuffer rides out more network jitter, but delays the first audio.
+     * Capped at the ring buffer size. Must be called before the client is
+     * started.
+     *
+     * @param prebufferBytes bytes to buffer before playing, in bytes
+     */
+    public void setPrebufferBytes(int prebufferBytes) {
+        this.prebufferBytes = Math.max(0, prebufferBytes);
+    }
+
+    /**
+     * Get the time from the client starting to the first audio being written
+     * to the audio line. Covers connecting, the HandShake, prebuffering and
+     * reading the audio header.
+     *
+     * @return long milliseconds to the first audio, or -1 if nothing has played yet
+     */
+    public long getTimeToFirstAudioMillis() {
+        long nanos = timeToFirstAudioNanos;
+        return nanos < 0 ? -1 : nanos / 1000000;
+    }
+
+    /**
+     * Get the number of times playback had to wait for the network after it
+     * started
+     *
+     * @return long playback buffer underruns
+     */
+    public long getUnderrunCount() {
+        RingBufferInputStream buffer = playbackBuffer;
+        return buffer == null ? 0 : buffer.getUnderrunCount();
+    }
+
+    @Override
+    protected ArrayList<String> getCapabilities() {
+        ArrayList<String> capabilities = super.getCapabilities();
+        capabilities.add(MediaRange.CAPABILITY);
+        // The media is streamed straight over the socket after the
+        // HandShake, where a heartbeat packet would corrupt it
+        capabilities.remove(HEARTBEAT_CAPABILITY);
+        return capabilities;
+    }
+
+    private boolean requestRanges() {
+        ArrayList<MediaRange> ranges = requestedRanges;
+        if (ranges == null) {
+            ranges = new ArrayList<MediaRange>();
+            ranges.add(MediaRange.wholeFile());
+        }
+
+        if (!hasCapability(MediaRange.CAPABILITY)) {
+            if (requestedRanges != null) {
+                log.warn("Server does not support media ranges. Closing client.");
+                return false;
+            }
+            streamRanges = ranges;
+            return true;
+        }
+
+        try {
+            sendPacket(MediaRange.toPacket("Client", ranges), true);
+            streamRanges = MediaRange.fromPacket(receivePacket(true));
+            return true;
+        } catch (SendPacketException e) {
+            log.warn("Unable to request media ranges. {}", e.getMessage());
+        } catch (ReadPacketException e) {
+            log.warn("Unable to read the media range reply. {}", e.getMessage());
+        } catch (IOException e) {
+            log.warn(e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Called with the streamed media when it is not played: for media types
+     * other than music, and for ranges that do not start at the beginning of
+     * the file, which have no audio header to play from. The stream holds the
+     * ranges from getStreamRanges() back to back, and ends when the server
+     * has sent them all. The connection is closed once this returns. By
+     * default, this method does nothing, so overload it yourself.
+     *
+     * @param media raw bytes of the requested ranges
+     * @throws IOException when reading the media fails
+     */
+    protected void mediaReceived(InputStream media) throws IOException {
+    }
+
+    private boolean startsWithHeader() {
+        ArrayList<MediaRange> ranges = streamRanges;
+        return ranges == null || ranges.isEmpty() || ranges.get(0).getOffset() == 0;
+    }
+
+    private void receiveMedia() {
+        InputStream in = getRawInputStream();
+        if (in == null) {
+            log.warn("Unable to obtain input stream!");
+            return;
+        }
+        try {
+            mediaReceived(in);
+        } catch (IOException e) {
+            log.warn("Unable to read the media stream. {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Play Music. Streams selected music from Server connection. Only used
+     * when the stream starts at the beginning of the file, so the audio
+     * header is there to play from.
      */
     protected void playMusic() {
+        // The connection's own stream, which may already hold the start of
+        // the media if it read ahead of the last packet
+        final InputStream in = getRawInputStream();
+        if (in == null) {
+            log.warn("Unable to obtain input stream!");
+            return;
+        }
+
+        // The network reader fills a bounded ring buffer while this thread
+        // plays from it, so playback starts after the prebuffer instead of
+        // after the whole file
+        final RingBufferInputStream buffer = new RingBufferInputStream(ringBufferBytes);
+        playbackBuffer = buffer;
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                byte[] chunk = new byte[READ_CHUNK_BYTES];
+                try {
+                    int count;
+                    while ((count = in.read(chunk)) != -1)
+                        buffer.write(chunk, 0, count);
+                    buffer.finish();
+                } catch (IOException e) {
+                    buffer.fail(e);
+                }
+            }
+        }, "Netta-MediaReader");
+        reader.setDaemon(true);
+        reader.start();
+
+        SourceDataLine line = null;
         try {
-            InputStream in = new BufferedInputStream(this.connectedSocket.getInputStream());
-            AudioInputStream ais = AudioSystem.getAudioInputStream(in);
-            Clip clip = AudioSystem.getClip();
-            clip.open(ais);
-            clip.start();
-            Thread.sleep(100); // given clip.drain a chance to start
-            clip.drain();
+            buffer.awaitBuffered(prebufferBytes, 0);
+            AudioInputStream ais = toPcm(AudioSystem.getAudioInputStream(new BufferedInputStream(buffer)));
+            AudioFormat format = ais.getFormat();
+            line = AudioSystem.getSourceDataLine(format);
+            line.open(format);
+            line.start();
+
+            int frameSize = Math.max(1, format.getFrameSize());
+            byte[] frames = new byte[Math.max(frameSize, LINE_CHUNK_BYTES / frameSize * frameSize)];
+            int count;
+            while ((count = ais.read(frames)) != -1) {
+                if (timeToFirstAudioNanos < 0)
+                    timeToFirstAudioNanos = System.nanoTime() - streamStartNanos;
+                line.write(frames, 0, count);
+            }
+            line.drain();
         } catch (IOException e) {
-            System.err.println("MediaClient: ");
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            System.err.println("MediaClient: ");
-            e.printStackTrace();
+            log.warn("Unable to play the media stream.", e);
         } catch (LineUnavailableException e) {
-            System.err.println("MediaClient: ");
-            e.printStackTrace();
+            log.warn("Unable to play the media stream.", e);
+        } catch (IllegalArgumentException e) {
+            log.warn("No audio line supports this media. {}", e.getMessage());
         } catch (UnsupportedAudioFileException e) {
-            System.err.println("MediaClient: ");
-            e.printStackTrace();
+            log.warn("Unable to play the media stream.", e);
+        } finally {
+            if (line != null)
+                line.close();
+            buffer.close();
         }
     }
+
+    private static AudioInputStream toPcm(AudioInputStream ais) {
+        AudioFormat format = ais.getFormat();
+        if (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+                || format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED)
+            return ais;
+        AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+                format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false);
+        return AudioSystem.getAudioInputStream(pcm, ais);
+    }
 }
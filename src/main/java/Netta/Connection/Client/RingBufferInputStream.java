@@ -0,0 +1,246 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded byte ring buffer read as an InputStream. One thread fills it with
+ * write(byte[], int, int), usually from the network, while another reads from
+ * it. The writer waits while the buffer is full and the reader waits while it
+ * is empty, so memory use stays fixed no matter how long the stream is.
+ * <p>
+ * The writer calls finish() once the stream is complete, after which reads
+ * return the remaining bytes and then -1, or fail(IOException) if the stream
+ * broke, after which reads throw that exception once the remaining bytes are
+ * read.
+ */
+public class RingBufferInputStream extends InputStream {
+
+    private final byte[] buffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int readIndex = 0;
+    private int size = 0;
+    private boolean finished = false;
+    private boolean closed = false;
+    private boolean started = false;
+    private long underruns = 0;
+    private IOException failure;
+
+    /**
+     * Create a ring buffer
+     *
+     * @param capacity number of bytes the buffer holds
+     */
+    public RingBufferInputStream(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Ring buffer capacity must be positive: " + capacity);
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Add bytes to the buffer, waiting for room if it is full
+     *
+     * @param b   bytes to add
+     * @param off offset of the first byte
+     * @param len number of bytes
+     * @throws IOException thrown if the reader closed the stream
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        lock.lock();
+        try {
+            while (len > 0) {
+                while (size == buffer.length && !closed)
+                    notFull.awaitUninterruptibly();
+                if (closed)
+                    throw new IOException("Ring buffer closed by the reader.");
+
+                int writeIndex = (readIndex + size) % buffer.length;
+                int n = Math.min(len, Math.min(buffer.length - size, buffer.length - writeIndex));
+                System.arraycopy(b, off, buffer, writeIndex, n);
+                size += n;
+                off += n;
+                len -= n;
+                notEmpty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Mark the stream as complete. Reads return -1 once the buffer is empty.
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Mark the stream as broken. Reads throw the given exception once the
+     * buffer is empty.
+     *
+     * @param e cause of the failure
+     */
+    public void fail(IOException e) {
+        lock.lock();
+        try {
+            failure = e;
+            finished = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the buffer holds at least the given number of bytes, or the
+     * stream is complete. Used to prebuffer before playback starts.
+     *
+     * @param bytes   number of bytes wanted, capped at the buffer's capacity
+     * @param timeout longest time to wait, in milliseconds. 0 waits forever.
+     * @return boolean True if the bytes are buffered or the stream is
+     * complete, false if the wait timed out
+     * @throws InterruptedIOException thrown if the thread is interrupted while waiting
+     */
+    public boolean awaitBuffered(int bytes, long timeout) throws InterruptedIOException {
+        bytes = Math.min(bytes, buffer.length);
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+        lock.lock();
+        try {
+            while (size < bytes && !finished && !closed) {
+                if (timeout <= 0) {
+                    notEmpty.await();
+                } else {
+                    if (remaining <= 0)
+                        return false;
+                    remaining = notEmpty.awaitNanos(remaining);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while prebuffering.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        lock.lock();
+        try {
+            boolean waited = false;
+            while (size == 0) {
+                if (closed)
+                    throw new IOException("Ring buffer closed.");
+                if (failure != null)
+                    throw failure;
+                if (finished)
+                    return -1;
+                if (started && !waited) {
+                    underruns++;
+                    waited = true;
+                }
+                notEmpty.awaitUninterruptibly();
+            }
+            started = true;
+
+            int n = Math.min(len, Math.min(size, buffer.length - readIndex));
+            System.arraycopy(buffer, readIndex, b, off, n);
+            readIndex = (readIndex + n) % buffer.length;
+            size -= n;
+            notFull.signalAll();
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of times a read found the buffer empty after reading had
+     * started, meaning the writer fell behind the reader
+     *
+     * @return long buffer underruns
+     */
+    public long getUnderrunCount() {
+        lock.lock();
+        try {
+            return underruns;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of bytes the buffer holds
+     *
+     * @return int capacity
+     */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Close the stream from the reading side. A writer waiting for room is
+     * released and fails.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
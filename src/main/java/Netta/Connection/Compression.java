@@ -0,0 +1,195 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-packet Deflate compression, used once both sides of a connection
+ * negotiated the CAPABILITY during the HandShake. Packets are compressed
+ * before they are encrypted.
+ * <p>
+ * Every encoded packet gets a one byte header: RAW, followed by the packet,
+ * or DEFLATED, followed by the packet's length as an int and the compressed
+ * packet. Packets under the threshold, or that do not get smaller, are sent
+ * RAW.
+ * <p>
+ * Compressing secrets together with data an attacker controls can leak the
+ * secrets through the compressed size. Disable compression on connections
+ * that mix the two.
+ */
+public final class Compression {
+
+    public static final String CAPABILITY = "Compression-Deflate";
+    public static final int DEFAULT_THRESHOLD_BYTES = 512;
+
+    private static final int RAW = 0;
+    private static final int DEFLATED = 1;
+    private static final int HEADER_BYTES = 5;
+    private static final int POOLED = 16;
+
+    // zlib state is large and lives outside the heap, so it is pooled
+    // rather than created per packet or held per thread
+    private static final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>(POOLED);
+    private static final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(POOLED);
+
+    private Compression() {
+    }
+
+    /**
+     * Compress an encoded packet if it is worth it
+     *
+     * @param packet    encoded packet
+     * @param threshold smallest packet to try compressing
+     * @param stats     counters to update
+     * @return byte[] packet with its compression header
+     */
+    static byte[] compress(byte[] packet, int threshold, CompressionStats stats) {
+        return compress(packet, 0, packet.length, threshold, stats);
+    }
+
+    /**
+     * Compress an encoded packet held in part of a buffer
+     *
+     * @param buffer    buffer holding the encoded packet
+     * @param offset    start of the encoded packet
+     * @param length    length of the encoded packet
+     * @param threshold smallest packet to try compressing
+     * @param stats     counters to update
+     * @return byte[] packet with its compression header
+     */
+    static byte[] compress(byte[] buffer, int offset, int length, int threshold, CompressionStats stats) {
+        if (length < threshold) {
+            stats.skipped();
+            return raw(buffer, offset, length);
+        }
+
+        long start = System.nanoTime();
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] out = BufferPool.acquire(length);
+        try {
+            deflater.setInput(buffer, offset, length);
+            deflater.finish();
+            // A RAW frame is one byte longer than the packet, so a compressed
+            // frame that does not fit in the packet's length is not worth it
+            int compressedLength = HEADER_BYTES;
+            while (!deflater.finished() && compressedLength < length)
+                compressedLength += deflater.deflate(out, compressedLength, length - compressedLength);
+            if (!deflater.finished()) {
+                stats.incompressible(System.nanoTime() - start);
+                return raw(buffer, offset, length);
+            }
+
+            out[0] = DEFLATED;
+            out[1] = (byte) (length >>> 24);
+            out[2] = (byte) (length >>> 16);
+            out[3] = (byte) (length >>> 8);
+            out[4] = (byte) length;
+            byte[] compressed = new byte[compressedLength];
+            System.arraycopy(out, 0, compressed, 0, compressedLength);
+            stats.compressed(length, compressedLength, System.nanoTime() - start);
+            return compressed;
+        } finally {
+            BufferPool.release(out);
+            deflater.reset();
+            if (!deflaters.offer(deflater))
+                deflater.end();
+        }
+    }
+
+    /**
+     * Undo compress(byte[], int, CompressionStats). Trailing bytes after the
+     * packet, such as Kript's padding, are ignored.
+     *
+     * @param frame packet with its compression header
+     * @param stats counters to update
+     * @return byte[] encoded packet
+     * @throws IOException thrown if the frame is not a valid compressed packet
+     */
+    static byte[] decompress(byte[] frame, CompressionStats stats) throws IOException {
+        return decompress(frame, 0, frame.length, stats);
+    }
+
+    /**
+     * Undo compress for a packet held in part of a buffer
+     *
+     * @param buffer buffer holding the packet and its compression header
+     * @param offset start of the compression header
+     * @param count  length of the compressed packet, including its header
+     * @param stats  counters to update
+     * @return byte[] encoded packet
+     * @throws IOException thrown if the frame is not a valid compressed packet
+     */
+    static byte[] decompress(byte[] buffer, int offset, int count, CompressionStats stats) throws IOException {
+        if (count < 1)
+            throw new IOException("Compressed packet is missing its header.");
+        if (buffer[offset] == RAW) {
+            byte[] packet = new byte[count - 1];
+            System.arraycopy(buffer, offset + 1, packet, 0, packet.length);
+            return packet;
+        }
+        if (buffer[offset] != DEFLATED || count < HEADER_BYTES)
+            throw new IOException("Unknown compression header " + buffer[offset] + " on packet.");
+
+        int length = ((buffer[offset + 1] & 0xFF) << 24) | ((buffer[offset + 2] & 0xFF) << 16)
+                | ((buffer[offset + 3] & 0xFF) << 8) | (buffer[offset + 4] & 0xFF);
+        if (length < 0 || length > Connection.MAX_FRAME_BYTES)
+            throw new IOException("Compressed packet length " + length + " is outside of the allowed range.");
+
+        long start = System.nanoTime();
+        Inflater inflater = inflaters.poll();
+        if (inflater == null)
+            inflater = new Inflater();
+        try {
+            inflater.setInput(buffer, offset + HEADER_BYTES, count - HEADER_BYTES);
+            byte[] packet = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(packet, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                read += n;
+            }
+            if (read != length || !inflater.finished())
+                throw new IOException("Compressed packet does not match its length.");
+            stats.decompressed(System.nanoTime() - start);
+            return packet;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed packet. " + e.getMessage());
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater))
+                inflater.end();
+        }
+    }
+
+    private static byte[] raw(byte[] buffer, int offset, int length) {
+        byte[] frame = new byte[length + 1];
+        frame[0] = RAW;
+        System.arraycopy(buffer, offset, frame, 1, length);
+        return frame;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the packet compression of one connection: how many packets
+ * were compressed, how well, and how much CPU time it cost.
+ */
+public class CompressionStats {
+
+    private final AtomicLong compressedPackets = new AtomicLong();
+    private final AtomicLong skippedPackets = new AtomicLong();
+    private final AtomicLong incompressiblePackets = new AtomicLong();
+    private final AtomicLong bytesBefore = new AtomicLong();
+    private final AtomicLong bytesAfter = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong decompressedPackets = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    void compressed(int before, int after, long nanos) {
+        compressedPackets.incrementAndGet();
+        bytesBefore.addAndGet(before);
+        bytesAfter.addAndGet(after);
+        compressNanos.addAndGet(nanos);
+    }
+
+    void skipped() {
+        skippedPackets.incrementAndGet();
+    }
+
+    void incompressible(long nanos) {
+        incompressiblePackets.incrementAndGet();
+        compressNanos.addAndGet(nanos);
+    }
+
+    void decompressed(long nanos) {
+        decompressedPackets.incrementAndGet();
+        decompressNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Get the number of packets sent compressed
+     *
+     * @return long compressed packets
+     */
+    public long getCompressedPackets() {
+        return compressedPackets.get();
+    }
+
+    /**
+     * Get the number of packets sent uncompressed because they were smaller
+     * than the threshold
+     *
+     * @return long packets below the threshold
+     */
+    public long getSkippedPackets() {
+        return skippedPackets.get();
+    }
+
+    /**
+     * Get the number of packets sent uncompressed because compressing did not
+     * make them smaller
+     *
+     * @return long incompressible packets
+     */
+    public long getIncompressiblePackets() {
+        return incompressiblePackets.get();
+    }
+
+    /**
+     * Get the total size of compressed packets before compression
+     *
+     * @return long bytes before compression
+     */
+    public long getBytesBeforeCompression() {
+        return bytesBefore.get();
+    }
+
+    /**
+     * Get the total size of compressed packets after compression
+     *
+     * @return long bytes after compression
+     */
+    public long getBytesAfterCompression() {
+        return bytesAfter.get();
+    }
+
+    /**
+     * Get the compressed size of compressed packets as a fraction of their
+     * original size. Lower is better.
+     *
+     * @return double compression ratio, or 1 if nothing was compressed
+     */
+    public double getCompressionRatio() {
+        long before = bytesBefore.get();
+        return before == 0 ? 1 : (double) bytesAfter.get() / before;
+    }
+
+    /**
+     * Get the CPU time spent compressing, including attempts that did not
+     * make the packet smaller
+     *
+     * @return long nanoseconds spent compressing
+     */
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    /**
+     * Get the number of compressed packets received
+     *
+     * @return long packets decompressed
+     */
+    public long getDecompressedPackets() {
+        return decompressedPackets.get();
+    }
+
+    /**
+     * Get the CPU time spent decompressing received packets
+     *
+     * @return long nanoseconds spent decompressing
+     */
+    public long getDecompressNanos() {
+        return decompressNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats[compressed=" + getCompressedPackets() + ", skipped=" + getSkippedPackets()
+                + ", incompressible=" + getIncompressiblePackets() + ", ratio=" + getCompressionRatio()
+                + ", compressNanos=" + getCompressNanos() + ", decompressNanos=" + getDecompressNanos() + "]";
+    }
+}
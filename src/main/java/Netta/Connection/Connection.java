@@ -24,21 +24,139 @@ import Netta.Exceptions.ConnectionException;
 import Netta.Exceptions.ConnectionInitializationException;
 import Netta.Exceptions.ReadPacketException;
 import Netta.Exceptions.SendPacketException;
+import Netta.Logging.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class Connection {
+
+	private static final Log log = Log.get(Connection.class);
+
+	/**
+	 * HandShake capability offered by peers that can switch to a symmetric
+	 * session key once the RSA key exchange is complete. Peers that don't
+	 * offer it keep encrypting every packet with Kript.
+	 */
+	public static final String SESSION_KEY_CAPABILITY = "SessionKey-AES-GCM";
+
+	/**
+	 * HandShake capability offered by peers that understand Heartbeat
+	 * packets. Heartbeats are only sent to peers that offer it.
+	 */
+	public static final String HEARTBEAT_CAPABILITY = "Heartbeat";
+
+	/**
+	 * Largest frame accepted by the BINARY wire format. Anything larger is
+	 * treated as a corrupt or hostile stream.
+	 */
+	public static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+	/**
+	 * Largest frame accepted before the HandShake is complete. HandShake
+	 * packets are small, and the peer is not authenticated yet, so it must
+	 * not be able to make the connection reserve MAX_FRAME_BYTES.
+	 */
+	public static final int MAX_HANDSHAKE_FRAME_BYTES = 64 * 1024;
+
+	/**
+	 * Size of the buffer between the packet streams and the socket. Packets
+	 * batched by sendPackets or a FlushPolicy collect here.
+	 */
+	public static final int OUTPUT_BUFFER_BYTES = 8192;
+
+	/**
+	 * Time allowed for the response to a request() before its future fails
+	 * with a TimeoutException.
+	 */
+	public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 30000;
+
 	private boolean connectionActive = false;
+	private WireFormat wireFormat = WireFormat.SERIALIZED;
+	private WireFormat streamFormat;
 	private ObjectInputStream in;
 	private ObjectOutputStream out;
+	private DataInputStream binaryIn;
+	private DataOutputStream binaryOut;
+	private ArrayList<String> negotiatedCapabilities = new ArrayList<String>();
+	private volatile SessionCipher sessionCipher;
+	// ReentrantLocks rather than synchronized, so a virtual thread blocked on
+	// the socket does not pin its carrier thread
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final ReentrantLock readLock = new ReentrantLock();
+	private volatile FlushPolicy flushPolicy;
+	// Guarded by writeLock
+	private int pendingPackets = 0;
+	private long pendingBytes = 0;
+	private boolean flushScheduled = false;
+	private volatile boolean outputPending = false;
+	private volatile SendQueue sendQueue;
+	// Depth last reported to metrics
+	private final AtomicInteger reportedQueueDepth = new AtomicInteger();
+	private final PendingRequests pendingRequests = new PendingRequests();
+	private volatile StreamMultiplexer streamMultiplexer;
+	private volatile PacketDispatcher packetDispatcher;
+	private volatile SerialExecutor serialExecutor;
+	private boolean compressionEnabled = true;
+	private volatile int compressionThreshold = Compression.DEFAULT_THRESHOLD_BYTES;
+	private volatile boolean compressionActive = false;
+	private final CompressionStats compressionStats = new CompressionStats();
+	private volatile ConnectionMetrics metrics = ConnectionMetrics.DISABLED;
+	private CountingOutputStream countingOut;
+	private CountingInputStream countingIn;
+	// Guarded by writeLock and readLock respectively
+	private long reportedBytesSent = 0;
+	private long reportedBytesReceived = 0;
+	private long openedNanos;
+	private volatile boolean handShakeDone = false;
+	private volatile long readIdleMillis = 0;
+	private volatile long writeIdleMillis = 0;
+	private IdleMonitor idleMonitor;
+	// Written under readLock and writeLock respectively, read by IdleMonitor
+	private volatile long packetsReadCount = 0;
+	private volatile long packetsWrittenCount = 0;
+	private final Runnable scheduledFlush = new Runnable() {
+		public void run() {
+			writeLock.lock();
+			try {
+				flushScheduled = false;
+				if (connectionActive && outputPending)
+					flushPending();
+			} catch (IOException e) {
+				log.warn("Unable to flush batched packets to socket. {}", e.getMessage());
+			} finally {
+				writeLock.unlock();
+			}
+		}
+	};
 	protected Socket connectedSocket;
-	protected Kript kript;
+	protected ConnectionCrypto kript;
 
 	public Connection(Kript kript) {
+		this(new KriptCrypto(kript));
+	}
+
+	public Connection(ConnectionCrypto kript) {
 		this.kript = kript;
 	}
 
@@ -59,21 +177,53 @@ public abstract class Connection {
 			throw new ConnectionInitializationException(
 					"Socket is listed as not-connected. Cannot open streams on a disconnected socket.");
 
+		negotiatedCapabilities = new ArrayList<String>();
+		sessionCipher = null;
+		compressionActive = false;
+		streamFormat = wireFormat;
+		pendingPackets = 0;
+		pendingBytes = 0;
+		outputPending = false;
+		reportedBytesSent = 0;
+		reportedBytesReceived = 0;
+		openedNanos = System.nanoTime();
+		handShakeDone = false;
+
+		if (streamFormat == WireFormat.BINARY) {
+			try {
+				countingOut = new CountingOutputStream(connectedSocket.getOutputStream());
+				countingIn = new CountingInputStream(connectedSocket.getInputStream());
+				binaryOut = new DataOutputStream(new BufferedOutputStream(countingOut, OUTPUT_BUFFER_BYTES));
+				binaryIn = new DataInputStream(new BufferedInputStream(countingIn));
+			} catch (IOException e) {
+				throw new ConnectionInitializationException("Error creating client binary streams on initialization.");
+			}
+			streamsOpened();
+			return;
+		}
+
 		try {
-			out = new ObjectOutputStream(connectedSocket.getOutputStream());
+			countingOut = new CountingOutputStream(connectedSocket.getOutputStream());
+			out = new ObjectOutputStream(new BufferedOutputStream(countingOut, OUTPUT_BUFFER_BYTES));
 			out.flush();
 		} catch (IOException e) {
 			throw new ConnectionInitializationException("Error creating client output stream on initialization.");
 		}
 
 		try {
-			in = new ObjectInputStream(connectedSocket.getInputStream());
+			countingIn = new CountingInputStream(connectedSocket.getInputStream());
+			in = new ObjectInputStream(countingIn);
 		} catch (IOException e) {
-			e.printStackTrace();
+			log.debug("Error creating client input stream.", e);
 			throw new ConnectionInitializationException("Error creating client input stream on initialization.");
 		}
 
+		streamsOpened();
+	}
+
+	private void streamsOpened() {
 		connectionActive = true;
+		metrics.connectionOpened();
 	}
 
 	/**
@@ -91,17 +241,36 @@ public abstract class Connection {
 			throw new ConnectionException("Connection is already closed. Cannot close a closed connection.");
 
 		connectionActive = false;
+		metrics.connectionClosed();
+		stopIdleMonitor();
+		SendQueue queue = sendQueue;
+		if (queue != null) {
+			queue.close();
+			queueDepthChanged(queue);
+		}
+		pendingRequests.failAll();
+		StreamMultiplexer multiplexer = streamMultiplexer;
+		if (multiplexer != null)
+			multiplexer.close();
 
 		try {
-			out.flush();
-			out.close();
+			if (streamFormat == WireFormat.BINARY) {
+				binaryOut.flush();
+				binaryOut.close();
+			} else {
+				out.flush();
+				out.close();
+			}
 		} catch (IOException e) {
 			throw new ConnectionException("Unable to terminate the connection output stream.");
 		} catch (NullPointerException e) {
 		}
 
 		try {
-			in.close();
+			if (streamFormat == WireFormat.BINARY)
+				binaryIn.close();
+			else
+				in.close();
 		} catch (IOException e) {
 			throw new ConnectionException("Unable to terminate the connection input stream.");
 		}
@@ -122,11 +291,34 @@ public abstract class Connection {
 		return connectionActive;
 	}
 
+	/**
+	 * Get the wire format this connection uses for the next openIOStreams()
+	 * 
+	 * @return WireFormat of the connection
+	 */
+	public WireFormat getWireFormat() {
+		return wireFormat;
+	}
+
+	/**
+	 * Choose how packets are put on the wire. Both sides of the connection
+	 * must use the same format. Takes effect the next time the IO streams are
+	 * opened, so set it before starting the client or server thread.
+	 * 
+	 * @param wireFormat
+	 *            WireFormat.SERIALIZED (default) for Java serialization, or
+	 *            WireFormat.BINARY for PacketCodec frames
+	 */
+	public void setWireFormat(WireFormat wireFormat) {
+		this.wireFormat = wireFormat;
+	}
+
 	/**
 	 * Send Packet. This method sends a packet p to the connected socket. It is
-	 * important to note that this send is NOT converted to bytes, it is only
-	 * sent as a packet. This function cannot be called if the connection is not
-	 * active.
+	 * important to note that with the SERIALIZED wire format this send is NOT
+	 * converted to bytes, it is only sent as a packet. With the BINARY wire
+	 * format the packet is encoded by PacketCodec and sent as a length-prefixed
+	 * frame. This function cannot be called if the connection is not active.
 	 * 
 	 * @param p
 	 *            packet being sent to the socket connection
@@ -145,40 +337,437 @@ public abstract class Connection {
 		if (!connectionActive)
 			return false;
 
-		if (encrypted) {
-			try {
-				byte[] packetBytes = p.ToBytes();
+		// Encoding and encryption happen outside of the write lock, only the
+		// socket write itself is serialized between senders
+		Frame frame = encodeFrame(p, encrypted);
+
+		writeLock.lock();
+		try {
+			resetStream();
+			writeFrame(p, frame);
+			packetsWritten(1, frame == null ? 0 : frame.length);
+			return true;
+		} catch (IOException e) {
+			throw new SendPacketException("Error sending packet to socket. PacketType: " + p.packetType.toString()
+					+ ". PacketMessage: " + p.packetString);
+		} finally {
+			writeLock.unlock();
+			release(frame);
+		}
+	}
 
-				byte[] encryptedBytes = kript.encrypt(packetBytes);
+	/**
+	 * Send several packets as one batch. Every packet is encoded first, then
+	 * all of them are written back to back and flushed once, instead of once
+	 * per packet. The packets arrive as separate packets, so receivers need no
+	 * changes. If a FlushPolicy is set it decides when the batch is flushed.
+	 * 
+	 * @param packets
+	 *            packets being sent, in order
+	 * 
+	 * @param encrypted
+	 *            boolean value, whether the packets will be encrypted or not
+	 * 
+	 * @return boolean value based on the success of the send. True if every
+	 *         packet was sent successfully, else false.
+	 * 
+	 * @throws SendPacketException
+	 *             thrown when there is an error creating or sending a packet to
+	 *             the socket. Packets before the failed one may have been sent.
+	 */
+	public boolean sendPackets(Collection<Packet> packets, boolean encrypted) throws SendPacketException {
+		if (!connectionActive)
+			return false;
 
-				out.writeObject(encryptedBytes);
-				out.flush();
-				return true;
-			} catch (IOException e) {
-				throw new SendPacketException("Error sending packet to socket. PacketType: " + p.packetType.toString()
-						+ ". PacketMessage: " + p.packetString);
-			} catch (Exception e) {
-				e.printStackTrace();
-				throw new SendPacketException(
-						"Error encrypting data to send. Possible causes: An issue with generating the RSA cipher; Error encoding strings to byte[]'s;");
+		Packet[] batch = packets.toArray(new Packet[packets.size()]);
+		if (batch.length == 0)
+			return true;
+		Frame[] frames = new Frame[batch.length];
+		long bytes = 0;
+		try {
+			for (int i = 0; i < batch.length; i++) {
+				frames[i] = encodeFrame(batch[i], encrypted);
+				if (frames[i] != null)
+					bytes += frames[i].length;
 			}
-		} else {
+
+			writeLock.lock();
+			int i = 0;
 			try {
-				out.writeObject(p);
-				out.flush();
+				resetStream();
+				for (; i < batch.length; i++)
+					writeFrame(batch[i], frames[i]);
+				packetsWritten(batch.length, bytes);
 				return true;
 			} catch (IOException e) {
+				Packet p = batch[Math.min(i, batch.length - 1)];
 				throw new SendPacketException("Error sending packet to socket. PacketType: " + p.packetType.toString()
 						+ ". PacketMessage: " + p.packetString);
+			} finally {
+				writeLock.unlock();
+			}
+		} finally {
+			for (Frame frame : frames)
+				release(frame);
+		}
+	}
+
+	/**
+	 * Send Packet without waiting for the socket. The packet is added to this
+	 * connection's SendQueue and written by its writer, together with any
+	 * other queued packets. Packets from one thread are sent in the order they
+	 * were queued. What happens when the queue is full depends on its
+	 * BackPressure, set with setSendQueue.
+	 * 
+	 * @param p
+	 *            packet being sent to the socket connection
+	 * 
+	 * @param encrypted
+	 *            boolean value, whether the packet will be encrypted or not
+	 * 
+	 * @return CompletableFuture completed once the packet is written, or
+	 *         failed with a SendPacketException if it is refused, dropped or
+	 *         cannot be sent
+	 */
+	public CompletableFuture<Void> sendPacketAsync(Packet p, boolean encrypted) {
+		if (!connectionActive) {
+			CompletableFuture<Void> future = new CompletableFuture<Void>();
+			future.completeExceptionally(new SendPacketException("Connection is not active. PacketType: " + p.packetType));
+			return future;
+		}
+		SendQueue queue = getSendQueue();
+		CompletableFuture<Void> future = queue.add(p, encrypted);
+		queueDepthChanged(queue);
+		return future;
+	}
+
+	/**
+	 * Send an EncodedPacket without waiting for the socket, like
+	 * sendPacketAsync(Packet, boolean). The packet's shared encoding is used
+	 * instead of encoding it again for this connection; only encryption is
+	 * done per connection.
+	 * 
+	 * @param p
+	 *            packet encoded once for many connections
+	 * 
+	 * @param encrypted
+	 *            boolean value, whether the packet will be encrypted or not
+	 * 
+	 * @return CompletableFuture completed once the packet is written, or
+	 *         failed with a SendPacketException if it is refused, dropped or
+	 *         cannot be sent
+	 */
+	public CompletableFuture<Void> sendPacketAsync(EncodedPacket p, boolean encrypted) {
+		if (!connectionActive) {
+			CompletableFuture<Void> future = new CompletableFuture<Void>();
+			future.completeExceptionally(
+					new SendPacketException("Connection is not active. PacketType: " + p.getPacket().packetType));
+			return future;
+		}
+		SendQueue queue = getSendQueue();
+		CompletableFuture<Void> future = queue.add(p, encrypted);
+		queueDepthChanged(queue);
+		return future;
+	}
+
+	/**
+	 * Queue an EncodedPacket without ever waiting, for fanning one packet out
+	 * to many connections. Unlike sendPacketAsync, a full send queue refuses
+	 * the packet right away whatever its BackPressure, so one slow connection
+	 * can never hold up the sender.
+	 * 
+	 * @param p
+	 *            packet encoded once for many connections
+	 * 
+	 * @param encrypted
+	 *            boolean value, whether the packet will be encrypted or not
+	 * 
+	 * @return CompletableFuture completed once the packet is written, or
+	 *         failed with a SendPacketException if the queue is full or the
+	 *         packet cannot be sent
+	 */
+	public CompletableFuture<Void> offerPacketAsync(EncodedPacket p, boolean encrypted) {
+		if (!connectionActive) {
+			CompletableFuture<Void> future = new CompletableFuture<Void>();
+			future.completeExceptionally(
+					new SendPacketException("Connection is not active. PacketType: " + p.getPacket().packetType));
+			return future;
+		}
+		SendQueue queue = getSendQueue();
+		CompletableFuture<Void> future = queue.offer(p, encrypted);
+		queueDepthChanged(queue);
+		return future;
+	}
+
+	/**
+	 * Send a request and get a future for its response. The packet is given a
+	 * new request id and queued with sendPacketAsync, so any number of
+	 * requests can be in flight at once. The other side answers with
+	 * respond(Packet, Packet, boolean), and the response completes the future
+	 * as soon as the receive loop reads it, in whatever order responses
+	 * arrive. Never wait on the future from the receive loop's own thread,
+	 * as that thread is the one that reads the response.
+	 * 
+	 * @param p
+	 *            request packet. Its requestID is overwritten.
+	 * @param encrypted
+	 *            boolean value, whether the packet will be encrypted or not
+	 * @return CompletableFuture of the response. Fails with a
+	 *         TimeoutException after DEFAULT_REQUEST_TIMEOUT_MILLIS, or with
+	 *         the send error if the request could not be sent.
+	 */
+	public CompletableFuture<Packet> request(Packet p, boolean encrypted) {
+		return request(p, encrypted, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Send a request and get a future for its response, with its own timeout
+	 * 
+	 * @param p
+	 *            request packet. Its requestID is overwritten.
+	 * @param encrypted
+	 *            boolean value, whether the packet will be encrypted or not
+	 * @param timeoutMillis
+	 *            time allowed for the response, or 0 to wait until the
+	 *            connection closes
+	 * @return CompletableFuture of the response
+	 */
+	public CompletableFuture<Packet> request(Packet p, boolean encrypted, long timeoutMillis) {
+		final PendingRequests.Request request = pendingRequests.add(timeoutMillis);
+		p.requestID = request.id;
+		sendPacketAsync(p, encrypted).whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void result, Throwable e) {
+				if (e != null)
+					pendingRequests.fail(request.id, e);
+			}
+		});
+		return request.future;
+	}
+
+	/**
+	 * Answer a packet received from request(). The response is sent right
+	 * away with sendPacket.
+	 * 
+	 * @param request
+	 *            packet received from the other side
+	 * @param response
+	 *            packet to answer with. Its requestID is overwritten.
+	 * @param encrypted
+	 *            boolean value, whether the packet will be encrypted or not
+	 * @return boolean value based on the success of the send
+	 * @throws SendPacketException
+	 *             thrown when there is an error sending the response
+	 */
+	public boolean respond(Packet request, Packet response, boolean encrypted) throws SendPacketException {
+		response.requestID = -request.requestID;
+		return sendPacket(response, encrypted);
+	}
+
+	/**
+	 * Get the number of requests waiting for their response
+	 * 
+	 * @return int requests in flight
+	 */
+	public int getRequestsInFlight() {
+		return pendingRequests.size();
+	}
+
+	/**
+	 * Called by the receive loops for every packet before it is passed to the
+	 * application. Consumes packets that belong to the connection itself, such
+	 * as responses to request() and packets of a StreamMultiplexer's streams.
+	 * 
+	 * @param p
+	 *            packet received from the other side
+	 * @return True if the packet was consumed and must not be passed on, else
+	 *         false
+	 */
+	protected boolean handleInternalPacket(Packet p) {
+		if (p.requestID < 0) {
+			// A response nobody waits for any more has timed out; drop it
+			pendingRequests.complete(p);
+			return true;
+		}
+		if (p.packetType == Packet.PACKET_TYPE.Heartbeat) {
+			if (p.packetInt == 1) {
+				Packet reply = new Packet(Packet.PACKET_TYPE.Heartbeat, null);
+				sendPacketAsync(reply, getPacketEncrypted());
+			}
+			return true;
+		}
+		if (p.packetType == Packet.PACKET_TYPE.Stream) {
+			StreamMultiplexer multiplexer = streamMultiplexer;
+			if (multiplexer != null) {
+				multiplexer.packetReceived(p);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Called by the receive loops for every packet handleInternalPacket did
+	 * not consume. Passes the packet to the PacketDispatcher, if one is set.
+	 * 
+	 * @param p
+	 *            packet received from the other side
+	 * @return True if a handler took the packet and it must not be passed on,
+	 *         else false
+	 */
+	protected boolean dispatchPacket(Packet p) {
+		PacketDispatcher dispatcher = packetDispatcher;
+		return dispatcher != null && dispatcher.dispatch(this, p);
+	}
+
+	/**
+	 * Set the table of handlers for received packets. Packets with a handler
+	 * no longer reach ThreadAction or packetReceived. A dispatcher can be
+	 * shared by many connections.
+	 * 
+	 * @param packetDispatcher
+	 *            handlers for this connection's packets, or null to pass
+	 *            every packet on as before
+	 */
+	public void setPacketDispatcher(PacketDispatcher packetDispatcher) {
+		this.packetDispatcher = packetDispatcher;
+	}
+
+	public PacketDispatcher getPacketDispatcher() {
+		return packetDispatcher;
+	}
+
+	// Runs this connection's SERIAL handlers in order. Only the receive loop
+	// calls this, so it is created without locking.
+	Executor serialExecutor(Executor workers) {
+		SerialExecutor executor = serialExecutor;
+		if (executor == null || executor.getExecutor() != workers) {
+			executor = new SerialExecutor(workers);
+			serialExecutor = executor;
+		}
+		return executor;
+	}
+
+	/**
+	 * Get the stream multiplexer attached to this connection
+	 * 
+	 * @return StreamMultiplexer, or null if none was created for this
+	 *         connection
+	 */
+	public StreamMultiplexer getStreamMultiplexer() {
+		return streamMultiplexer;
+	}
+
+	void setStreamMultiplexer(StreamMultiplexer streamMultiplexer) {
+		this.streamMultiplexer = streamMultiplexer;
+	}
+
+	/**
+	 * Get the stream packets are read from, to read raw bytes the remote
+	 * side sends after its packets, such as a media stream. With the BINARY
+	 * wire format the connection reads ahead of the packet it returns, so
+	 * reading the socket's own stream would skip whatever was buffered. Bytes
+	 * read from this stream are not decrypted, and receivePacket must not be
+	 * called while it is in use.
+	 * 
+	 * @return InputStream of the connection, or null if the IO streams are not
+	 *         open
+	 */
+	protected InputStream getRawInputStream() {
+		return streamFormat == WireFormat.BINARY ? binaryIn : countingIn;
+	}
+
+	/**
+	 * Get the queue used by sendPacketAsync, for its depth and counters. A
+	 * queue of SendQueue.DEFAULT_CAPACITY using BackPressure.BLOCK is created
+	 * on first use unless setSendQueue was called.
+	 * 
+	 * @return SendQueue of this connection
+	 */
+	public SendQueue getSendQueue() {
+		SendQueue queue = sendQueue;
+		if (queue == null) {
+			synchronized (this) {
+				if (sendQueue == null)
+					sendQueue = new SendQueue(this, SendQueue.DEFAULT_CAPACITY, BackPressure.BLOCK);
+				queue = sendQueue;
+			}
+		}
+		return queue;
+	}
+
+	/**
+	 * Configure the queue used by sendPacketAsync. Call before the first
+	 * asynchronous send; packets already queued stay in the old queue and are
+	 * still written.
+	 * 
+	 * @param capacity
+	 *            most packets allowed to wait in the queue
+	 * @param backPressure
+	 *            what to do when the queue is full
+	 */
+	public void setSendQueue(int capacity, BackPressure backPressure) {
+		synchronized (this) {
+			sendQueue = new SendQueue(this, capacity, backPressure);
+		}
+	}
+
+	/**
+	 * Push every packet waiting in the output buffer to the socket. Only
+	 * needed when a FlushPolicy is set.
+	 * 
+	 * @throws SendPacketException
+	 *             thrown when the socket write fails
+	 */
+	public void flush() throws SendPacketException {
+		if (!connectionActive)
+			return;
+
+		writeLock.lock();
+		try {
+			flushPending();
+		} catch (IOException e) {
+			throw new SendPacketException("Error flushing packets to socket.");
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Get the flush policy of this connection
+	 * 
+	 * @return FlushPolicy in use, or null if every packet is flushed as it is
+	 *         sent
+	 */
+	public FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+
+	/**
+	 * Let sent packets collect in the output buffer and flush them in batches,
+	 * as described by the policy. By default every packet is flushed as it is
+	 * sent. Setting the policy back to null flushes anything still waiting.
+	 * 
+	 * @param flushPolicy
+	 *            FlushPolicy to use, or null to flush every packet
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy;
+		if (flushPolicy == null && outputPending) {
+			try {
+				flush();
+			} catch (SendPacketException e) {
+				log.warn(e.getMessage());
 			}
 		}
 	}
 
 	/**
 	 * Read Packet. This method reads a packet from the connected sockets input
-	 * stream. It is important to note, this method reads the Packet object
-	 * DIRECTLY, there is no byte conversion. This function cannot be called if
-	 * the connection is not active.
+	 * stream. It is important to note, with the SERIALIZED wire format this
+	 * method reads the Packet object DIRECTLY, there is no byte conversion.
+	 * With the BINARY wire format a length-prefixed frame is read and decoded
+	 * by PacketCodec. This function cannot be called if the connection is not
+	 * active.
 	 * 
 	 * @param encrypted
 	 *            boolean value, whether the packet will be encrypted or not
@@ -191,19 +780,42 @@ public abstract class Connection {
 	 *             socket. Details in the exception object's message()
 	 */
 	public Packet receivePacket(boolean encrypted) throws ReadPacketException {
-		Packet p = new Packet(Packet.PACKET_TYPE.NULL, "");
-
 		if (!connectionActive)
-			return p;
+			return new Packet(Packet.PACKET_TYPE.NULL, "");
+
+		// Never block on a read while our own batched packets, possibly the
+		// request being answered, are still waiting in the output buffer
+		if (outputPending) {
+			try {
+				flush();
+			} catch (SendPacketException e) {
+				throw new ReadPacketException(e.getMessage() + " Unable to flush batched packets before reading.");
+			}
+		}
 
+		Packet p;
 		if (encrypted) {
 			try {
-				byte[] encryptedBytes = (byte[]) in.readObject();
-				byte[] packetBytes = kript.decrypt(encryptedBytes);
-				p = new Packet(packetBytes);
+				Frame frame;
+				readLock.lock();
+				try {
+					frame = readFrame();
+					packetRead();
+				} finally {
+					readLock.unlock();
+				}
+				Frame packetFrame;
+				try {
+					packetFrame = decrypt(frame);
+				} finally {
+					frame.release();
+				}
+				p = decodeFrame(packetFrame);
 			} catch (EOFException e) {
 				throw new ReadPacketException(
 						"EOFException thrown. Possible Causes: Server was unable to handshake and closed connection;");
+			} catch (SocketTimeoutException e) {
+				throw readTimedOut();
 			} catch (IOException e) {
 				throw new ReadPacketException(
 						"Error reading the received data. Possible causes: Wrong Object Type; Incomplete Send;");
@@ -215,16 +827,685 @@ public abstract class Connection {
 						"Error decrypting packet. Possible causes: An issue creating the RSA cipher; An error decoding byte[]'s to strings;");
 			}
 		} else {
+			boolean timedOut = false;
+			readLock.lock();
 			try {
-				p = (Packet) in.readObject();
+				if (streamFormat == WireFormat.BINARY || compressionActive)
+					p = decodeFrame(readFrame());
+				else
+					p = (Packet) in.readObject();
+				packetRead();
+			} catch (SocketTimeoutException e) {
+				timedOut = true;
+				p = null;
 			} catch (IOException e) {
 				throw new ReadPacketException(
 						"Error reading the received data. Possible causes: Wrong Object Type; Incomplete Send;");
 			} catch (ClassNotFoundException e) {
 				throw new ReadPacketException(
 						"Unable to find class Packet when reading in the data from the socket stream! Fatal Error.");
+			} finally {
+				readLock.unlock();
 			}
+			if (timedOut)
+				throw readTimedOut();
 		}
 		return p;
 	}
+
+	/**
+	 * Capabilities this side of the connection is able to use. Sent by the
+	 * client in its HandShake clientHello, and intersected by the server to
+	 * decide what the connection will use. Override to add or remove
+	 * capabilities.
+	 * 
+	 * @return ArrayList of capability names supported locally
+	 */
+	protected ArrayList<String> getCapabilities() {
+		ArrayList<String> capabilities = new ArrayList<String>();
+		capabilities.add(SESSION_KEY_CAPABILITY);
+		capabilities.add(HEARTBEAT_CAPABILITY);
+		if (compressionEnabled)
+			capabilities.add(Compression.CAPABILITY);
+		return capabilities;
+	}
+
+	/**
+	 * Called by the HandShake once it is complete on this side of the
+	 * connection. Turns on the negotiated capabilities that change how
+	 * packets are framed, so the HandShake itself is never affected by them.
+	 */
+	protected void handShakeComplete() {
+		compressionActive = hasCapability(Compression.CAPABILITY);
+		metrics.handShakeCompleted(System.nanoTime() - openedNanos);
+		handShakeDone = true;
+		startIdleMonitor();
+	}
+
+	/**
+	 * Set the idle timeouts. Once the HandShake is complete, a read that
+	 * waits longer than readIdleMillis for the peer closes the connection and
+	 * calls connectionTimedOut(); the timeout is applied to the socket
+	 * itself, so a thread blocked in receivePacket is released even if the
+	 * peer vanished without closing its socket. When nothing was written for
+	 * writeIdleMillis, a Heartbeat packet is sent to keep the peer's own
+	 * timeout from expiring.
+	 * <p>
+	 * Heartbeats are only sent to peers that negotiated HEARTBEAT_CAPABILITY.
+	 * To keep a quiet but healthy connection open, a heartbeat asking for a
+	 * reply is sent after a third of readIdleMillis without any packet from
+	 * the peer. Peers without the capability never answer, so quiet
+	 * connections to them are closed after readIdleMillis.
+	 * <p>
+	 * Heartbeats are driven by a timer wheel shared by every connection, not
+	 * a thread per connection. May be called at any time; a server passes
+	 * its own timeouts on to every client it accepts.
+	 * 
+	 * @param readIdleMillis
+	 *            time allowed without receiving anything, or 0 to wait forever
+	 * @param writeIdleMillis
+	 *            time without sending anything before a heartbeat is sent, or
+	 *            0 to never send one for that reason
+	 */
+	public void setIdleTimeouts(long readIdleMillis, long writeIdleMillis) {
+		long previousReadIdle = this.readIdleMillis;
+		this.readIdleMillis = Math.max(0, Math.min(Integer.MAX_VALUE, readIdleMillis));
+		this.writeIdleMillis = Math.max(0, writeIdleMillis);
+		if (previousReadIdle > 0 && this.readIdleMillis == 0 && handShakeDone && connectionActive) {
+			try {
+				connectedSocket.setSoTimeout(0);
+			} catch (SocketException e) {
+			}
+		}
+		startIdleMonitor();
+	}
+
+	/**
+	 * Get the read-idle timeout
+	 * 
+	 * @return long time allowed without receiving anything in milliseconds,
+	 *         or 0 if there is none
+	 */
+	public long getReadIdleTimeout() {
+		return readIdleMillis;
+	}
+
+	/**
+	 * Get the write-idle timeout
+	 * 
+	 * @return long time without sending anything before a heartbeat is sent
+	 *         in milliseconds, or 0 if there is none
+	 */
+	public long getWriteIdleTimeout() {
+		return writeIdleMillis;
+	}
+
+	/**
+	 * Called once the connection was closed because nothing was received for
+	 * the read-idle timeout. Runs on the thread that was blocked in
+	 * receivePacket, right before it receives a ReadPacketException. By
+	 * default, this method does nothing.
+	 */
+	protected void connectionTimedOut() {
+
+	}
+
+	/**
+	 * Whether this side's packets are encrypted. Heartbeats are sent the same
+	 * way, so the peer's receive loop can read them. True unless overridden.
+	 * 
+	 * @return boolean True if packets are encrypted, else false
+	 */
+	public boolean getPacketEncrypted() {
+		return true;
+	}
+
+	private synchronized void startIdleMonitor() {
+		if (idleMonitor != null) {
+			idleMonitor.stop();
+			idleMonitor = null;
+		}
+		if (!handShakeDone || !connectionActive)
+			return;
+
+		long readIdle = readIdleMillis;
+		long writeIdle = writeIdleMillis;
+		if (readIdle > 0) {
+			try {
+				connectedSocket.setSoTimeout((int) readIdle);
+			} catch (SocketException e) {
+				log.warn("Unable to set the read-idle timeout. {}", e.getMessage());
+			}
+		}
+		if ((readIdle > 0 || writeIdle > 0) && hasCapability(HEARTBEAT_CAPABILITY)) {
+			idleMonitor = new IdleMonitor(this, readIdle, writeIdle);
+			idleMonitor.start();
+		}
+	}
+
+	private synchronized void stopIdleMonitor() {
+		if (idleMonitor != null) {
+			idleMonitor.stop();
+			idleMonitor = null;
+		}
+	}
+
+	long packetsReadCount() {
+		return packetsReadCount;
+	}
+
+	long packetsWrittenCount() {
+		return packetsWrittenCount;
+	}
+
+	void sendHeartbeat(boolean replyWanted) {
+		if (!connectionActive)
+			return;
+		Packet heartbeat = new Packet(Packet.PACKET_TYPE.Heartbeat, null);
+		heartbeat.packetInt = replyWanted ? 1 : 0;
+		try {
+			sendPacket(heartbeat, getPacketEncrypted());
+		} catch (SendPacketException e) {
+			log.debug("Unable to send heartbeat. {}", e.getMessage());
+		}
+	}
+
+	// Closes the connection after a read timed out
+	private ReadPacketException readTimedOut() {
+		long readIdle = readIdleMillis;
+		log.debug("Nothing received for {}ms. Closing connection to {}", readIdle, connectedSocket);
+		try {
+			// Closing the socket first keeps a flush to a dead peer from blocking
+			connectedSocket.close();
+		} catch (IOException e) {
+		}
+		try {
+			closeIOStreams();
+		} catch (ConnectionException e) {
+		}
+		connectionTimedOut();
+		return new ReadPacketException("Nothing received for " + readIdle + "ms. Connection closed.");
+	}
+
+	/**
+	 * Set where this connection reports its measurements. Takes effect
+	 * immediately; if the connection is open, the old metrics see it close
+	 * and the new metrics see it open. One ConnectionMetrics can be shared by
+	 * any number of connections to aggregate them.
+	 * 
+	 * @param metrics
+	 *            ConnectionMetrics to report to, or null to stop reporting
+	 */
+	public void setMetrics(ConnectionMetrics metrics) {
+		if (metrics == null)
+			metrics = ConnectionMetrics.DISABLED;
+		ConnectionMetrics old = this.metrics;
+		this.metrics = metrics;
+		if (connectionActive && old != metrics) {
+			old.connectionClosed();
+			metrics.connectionOpened();
+		}
+		int depth = reportedQueueDepth.get();
+		if (old != metrics && depth != 0) {
+			old.sendQueueDepthChanged(-depth);
+			metrics.sendQueueDepthChanged(depth);
+		}
+	}
+
+	// Reports how much this connection's queue depth changed, so metrics
+	// shared by many connections can add the changes up
+	private void queueDepthChanged(SendQueue queue) {
+		int depth = queue.getDepth();
+		int previous = reportedQueueDepth.getAndSet(depth);
+		if (depth != previous)
+			metrics.sendQueueDepthChanged(depth - previous);
+	}
+
+	/**
+	 * Get where this connection reports its measurements
+	 * 
+	 * @return ConnectionMetrics of this connection, ConnectionMetrics.DISABLED
+	 *         unless setMetrics was called
+	 */
+	public ConnectionMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set whether Compression.CAPABILITY is offered during the HandShake.
+	 * Enabled by default; packets are only compressed when both sides offer
+	 * it. Must be called before the HandShake. Disable it for connections
+	 * that send secrets alongside data an attacker can choose, since the
+	 * compressed size can leak the secret.
+	 * 
+	 * @param compressionEnabled
+	 *            True to offer compression, else false
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	/**
+	 * Set the smallest encoded packet that is compressed. Smaller packets
+	 * rarely shrink enough to pay for the CPU time. Defaults to
+	 * Compression.DEFAULT_THRESHOLD_BYTES.
+	 * 
+	 * @param compressionThreshold
+	 *            size in bytes
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = Math.max(0, compressionThreshold);
+	}
+
+	/**
+	 * Check whether packets on this connection are being compressed
+	 * 
+	 * @return True if compression was negotiated and the HandShake is
+	 *         complete, else false
+	 */
+	public boolean isCompressionActive() {
+		return compressionActive;
+	}
+
+	/**
+	 * Get the compression counters for this connection
+	 * 
+	 * @return CompressionStats of packets sent and received
+	 */
+	public CompressionStats getCompressionStats() {
+		return compressionStats;
+	}
+
+	/**
+	 * Server side of the capability negotiation. Keeps every offered
+	 * capability that is also supported locally, and stores the result as the
+	 * negotiated capabilities for this connection.
+	 * 
+	 * @param offered
+	 *            capabilities received in the clientHello. Old clients offer
+	 *            none.
+	 * @return ArrayList of accepted capabilities, to be sent back in the
+	 *         serverHello
+	 */
+	protected ArrayList<String> acceptCapabilities(ArrayList<String> offered) {
+		ArrayList<String> accepted = new ArrayList<String>();
+		if (offered != null) {
+			ArrayList<String> supported = getCapabilities();
+			for (String capability : offered)
+				if (supported.contains(capability) && !accepted.contains(capability))
+					accepted.add(capability);
+		}
+		negotiatedCapabilities = accepted;
+		return accepted;
+	}
+
+	/**
+	 * Client side of the capability negotiation. Stores the capabilities the
+	 * server accepted in its serverHello. Old servers accept none.
+	 * 
+	 * @param accepted
+	 *            capabilities received in the serverHello
+	 */
+	protected void setNegotiatedCapabilities(ArrayList<String> accepted) {
+		ArrayList<String> negotiated = new ArrayList<String>();
+		if (accepted != null) {
+			ArrayList<String> supported = getCapabilities();
+			for (String capability : accepted)
+				if (supported.contains(capability))
+					negotiated.add(capability);
+		}
+		negotiatedCapabilities = negotiated;
+	}
+
+	/**
+	 * Check whether both sides of the connection agreed to use a capability
+	 * during the HandShake
+	 * 
+	 * @param capability
+	 *            name of the capability
+	 * @return True if the capability was negotiated, else false
+	 */
+	public boolean hasCapability(String capability) {
+		return negotiatedCapabilities.contains(capability);
+	}
+
+	/**
+	 * Switch encrypted packets over to a symmetric session cipher. Called by
+	 * the HandShake once the session key has been exchanged under RSA.
+	 * 
+	 * @param sessionKey
+	 *            raw session key bytes
+	 * @throws GeneralSecurityException
+	 *             if the session cipher cannot be created
+	 */
+	protected void setSessionKey(byte[] sessionKey) throws GeneralSecurityException {
+		sessionCipher = new SessionCipher(sessionKey);
+	}
+
+	/**
+	 * Check whether encrypted packets are using a session key rather than
+	 * per-packet RSA
+	 * 
+	 * @return True if a session key is in use, else false
+	 */
+	public boolean isSessionKeyActive() {
+		return sessionCipher != null;
+	}
+
+	private Frame encodePacket(Packet p) throws IOException {
+		if (streamFormat == WireFormat.BINARY)
+			return PacketCodec.encodeFrame(p);
+		return Frame.of(p.ToBytes());
+	}
+
+	// Releases the frame
+	private Packet decodeFrame(Frame frame) throws IOException, ClassNotFoundException {
+		try {
+			if (compressionActive)
+				return decodePacket(Compression.decompress(frame.bytes, 0, frame.length, compressionStats));
+			return decodePacket(frame.bytes, frame.length);
+		} finally {
+			frame.release();
+		}
+	}
+
+	private Packet decodePacket(byte[] packetBytes) throws IOException, ClassNotFoundException {
+		return decodePacket(packetBytes, packetBytes.length);
+	}
+
+	private Packet decodePacket(byte[] packetBytes, int length) throws IOException, ClassNotFoundException {
+		if (streamFormat == WireFormat.BINARY)
+			return PacketCodec.decode(packetBytes, 0, length);
+		// Java serialization stops at the end of the packet, anything after
+		// it in the buffer is never read
+		return new Packet(packetBytes);
+	}
+
+	/**
+	 * Write a batch taken from the send queue, with a single flush (or as the
+	 * FlushPolicy decides). Completes the future of every entry. If the socket
+	 * fails part way, only the entries written before the error succeed, and
+	 * the connection is closed.
+	 * 
+	 * @return number of packets written
+	 */
+	int writeQueued(List<SendQueue.Entry> entries) {
+		int count = entries.size();
+		Frame[] frames = new Frame[count];
+		boolean[] encoded = new boolean[count];
+		int encodedCount = 0;
+		long bytes = 0;
+		for (int i = 0; i < count; i++) {
+			SendQueue.Entry entry = entries.get(i);
+			if (!connectionActive) {
+				entry.future.completeExceptionally(new SendPacketException(
+						"Connection closed before the packet was sent. PacketType: " + entry.packet.packetType));
+				continue;
+			}
+			try {
+				frames[i] = encodeFrame(entry.packet, entry.encoded, entry.encrypted);
+				encoded[i] = true;
+				encodedCount++;
+				if (frames[i] != null)
+					bytes += frames[i].length;
+			} catch (SendPacketException e) {
+				entry.future.completeExceptionally(e);
+			}
+		}
+
+		int written = 0;
+		boolean[] sent = new boolean[count];
+		boolean failed = false;
+		writeLock.lock();
+		try {
+			if (encodedCount > 0)
+				resetStream();
+			for (int i = 0; i < count; i++) {
+				if (encoded[i]) {
+					writeFrame(entries.get(i).packet, frames[i]);
+					sent[i] = true;
+					written++;
+				}
+			}
+			if (written > 0)
+				packetsWritten(written, bytes);
+		} catch (IOException e) {
+			failed = true;
+		} finally {
+			writeLock.unlock();
+			for (Frame frame : frames)
+				release(frame);
+		}
+		// A frame may have been cut off part way, nothing more can be
+		// written after it. Closing also fails everything still queued.
+		if (failed)
+			writeFailed();
+		SendQueue queue = sendQueue;
+		if (queue != null)
+			queueDepthChanged(queue);
+
+		for (int i = 0; i < count; i++) {
+			if (!encoded[i])
+				continue;
+			SendQueue.Entry entry = entries.get(i);
+			if (sent[i])
+				entry.future.complete(null);
+			else
+				entry.future.completeExceptionally(new SendPacketException("Error sending packet to socket. PacketType: "
+						+ entry.packet.packetType.toString() + ". PacketMessage: " + entry.packet.packetString));
+		}
+		return written;
+	}
+
+	// Closes the connection after a write to the socket failed
+	private void writeFailed() {
+		log.debug("Error writing to {}. Closing connection.", connectedSocket);
+		try {
+			// Closing the socket first keeps the final flush from blocking
+			connectedSocket.close();
+		} catch (IOException e) {
+		}
+		try {
+			closeIOStreams();
+		} catch (ConnectionException e) {
+		}
+	}
+
+	private Frame encodeFrame(Packet p, boolean encrypted) throws SendPacketException {
+		return encodeFrame(p, null, encrypted);
+	}
+
+	// Returns null when the packet is written as an object. A shared packet's
+	// encoding is reused, anything else is encoded here.
+	private Frame encodeFrame(Packet p, EncodedPacket shared, boolean encrypted) throws SendPacketException {
+		if (!encrypted && !compressionActive && streamFormat != WireFormat.BINARY)
+			return null;
+
+		// Only take timestamps when someone is listening
+		ConnectionMetrics metrics = this.metrics;
+		boolean timed = metrics.isEnabled();
+		try {
+			long start = timed ? System.nanoTime() : 0;
+			Frame frame;
+			if (shared != null)
+				frame = shared.encode(streamFormat, compressionActive, compressionThreshold, compressionStats);
+			else
+				frame = encodePacket(p);
+			if (compressionActive && shared == null) {
+				Frame packetFrame = frame;
+				try {
+					frame = Frame.of(Compression.compress(packetFrame.bytes, 0, packetFrame.length, compressionThreshold,
+							compressionStats));
+				} finally {
+					packetFrame.release();
+				}
+			}
+			if (timed) {
+				long encoded = System.nanoTime();
+				metrics.packetEncoded(encoded - start);
+				start = encoded;
+			}
+			if (encrypted) {
+				Frame packetFrame = frame;
+				try {
+					frame = encrypt(packetFrame);
+				} finally {
+					packetFrame.release();
+				}
+				if (timed)
+					metrics.packetEncrypted(System.nanoTime() - start);
+			}
+			return frame;
+		} catch (IOException e) {
+			throw new SendPacketException("Error sending packet to socket. PacketType: " + p.packetType.toString()
+					+ ". PacketMessage: " + p.packetString);
+		} catch (Exception e) {
+			log.debug("Error encrypting packet.", e);
+			throw new SendPacketException(
+					"Error encrypting data to send. Possible causes: An issue with generating the RSA cipher; Error encoding strings to byte[]'s;");
+		}
+	}
+
+	// Must hold writeLock. Call once per batch, before its first packet.
+	private void resetStream() throws IOException {
+		// Forget what was written. Otherwise the stream keeps every packet it
+		// ever wrote alive, and a packet sent again arrives as the receiver's
+		// old copy. Class descriptors are sent again after each reset, so it
+		// is done once per batch rather than per packet. Resetting before the
+		// batch keeps the marker from being left in front of any raw bytes,
+		// such as media, that follow the last packet.
+		if (streamFormat != WireFormat.BINARY)
+			out.reset();
+	}
+
+	// Must hold writeLock
+	private void writeFrame(Packet p, Frame frame) throws IOException {
+		if (frame == null) {
+			out.writeObject(p);
+		} else if (streamFormat == WireFormat.BINARY) {
+			binaryOut.writeInt(frame.length);
+			binaryOut.write(frame.bytes, 0, frame.length);
+		} else {
+			out.writeObject(frame.toByteArray());
+		}
+	}
+
+	private static void release(Frame frame) {
+		if (frame != null)
+			frame.release();
+	}
+
+	// Must hold writeLock
+	private void packetsWritten(int packets, long bytes) throws IOException {
+		packetsWrittenCount += packets;
+		metrics.packetsSent(packets);
+		FlushPolicy policy = flushPolicy;
+		if (policy == null) {
+			flushPending();
+			return;
+		}
+
+		pendingPackets += packets;
+		pendingBytes += bytes;
+		outputPending = true;
+		if (policy.shouldFlush(pendingPackets, pendingBytes)) {
+			flushPending();
+		} else if (!flushScheduled && policy.getMaxDelayMicros() > 0) {
+			flushScheduled = true;
+			ConnectionExecutors.scheduler().schedule(scheduledFlush, policy.getMaxDelayMicros(), TimeUnit.MICROSECONDS);
+		}
+	}
+
+	// Must hold writeLock
+	private void flushPending() throws IOException {
+		pendingPackets = 0;
+		pendingBytes = 0;
+		outputPending = false;
+		flushOutput();
+		long sent = countingOut.getCount();
+		metrics.bytesSent(sent - reportedBytesSent);
+		reportedBytesSent = sent;
+	}
+
+	private void flushOutput() throws IOException {
+		if (streamFormat == WireFormat.BINARY)
+			binaryOut.flush();
+		else
+			out.flush();
+	}
+
+	// Must hold readLock
+	private void packetRead() {
+		packetsReadCount++;
+		metrics.packetReceived();
+		long received = countingIn.getCount();
+		metrics.bytesReceived(received - reportedBytesReceived);
+		reportedBytesReceived = received;
+	}
+
+	// Must hold readLock
+	private Frame readFrame() throws IOException, ClassNotFoundException {
+		if (streamFormat != WireFormat.BINARY)
+			return Frame.of((byte[]) in.readObject());
+
+		int length = binaryIn.readInt();
+		int maxLength = handShakeDone ? MAX_FRAME_BYTES : MAX_HANDSHAKE_FRAME_BYTES;
+		if (length < 0 || length > maxLength)
+			throw new IOException("Frame length " + length + " is outside of the allowed range.");
+		// The buffer grows as the frame arrives, so a length prefix alone
+		// never reserves more than MAX_HANDSHAKE_FRAME_BYTES
+		byte[] buffer = BufferPool.acquire(Math.min(length, MAX_HANDSHAKE_FRAME_BYTES));
+		int read = 0;
+		try {
+			while (true) {
+				int count = Math.min(length, buffer.length) - read;
+				binaryIn.readFully(buffer, read, count);
+				read += count;
+				if (read == length)
+					return Frame.pooled(buffer, length);
+				byte[] grown = BufferPool.acquire((int) Math.min(length, buffer.length * 2L));
+				System.arraycopy(buffer, 0, grown, 0, read);
+				BufferPool.release(buffer);
+				buffer = grown;
+			}
+		} catch (IOException e) {
+			BufferPool.release(buffer);
+			throw e;
+		}
+	}
+
+	private Frame encrypt(Frame packetFrame) throws Exception {
+		SessionCipher cipher = sessionCipher;
+		if (cipher == null)
+			return Frame.of(kript.encrypt(packetFrame.toByteArray()));
+
+		// ObjectOutputStream needs an array holding exactly the frame
+		int sealedLength = SessionCipher.sealedLength(packetFrame.length);
+		if (streamFormat != WireFormat.BINARY) {
+			byte[] sealed = new byte[sealedLength];
+			cipher.encrypt(packetFrame.bytes, 0, packetFrame.length, sealed, 0);
+			return Frame.of(sealed);
+		}
+		byte[] sealed = BufferPool.acquire(sealedLength);
+		return Frame.pooled(sealed, cipher.encrypt(packetFrame.bytes, 0, packetFrame.length, sealed, 0));
+	}
+
+	private Frame decrypt(Frame encryptedFrame) throws Exception {
+		ConnectionMetrics metrics = this.metrics;
+		if (!metrics.isEnabled())
+			return decryptFrame(encryptedFrame);
+		long start = System.nanoTime();
+		Frame frame = decryptFrame(encryptedFrame);
+		metrics.packetDecrypted(System.nanoTime() - start);
+		return frame;
+	}
+
+	private Frame decryptFrame(Frame encryptedFrame) throws Exception {
+		SessionCipher cipher = sessionCipher;
+		if (cipher == null)
+			return Frame.of(kript.decrypt(encryptedFrame.toByteArray()));
+
+		byte[] plain = BufferPool.acquire(encryptedFrame.length);
+		return Frame.pooled(plain, cipher.decrypt(encryptedFrame.bytes, 0, encryptedFrame.length, plain));
+	}
 }
@@ -0,0 +1,63 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package Netta.Connection;
+
+import java.security.PublicKey;
+
+/**
+ * RSA crypto used by a Connection for its HandShake and for packets that are
+ * encrypted without a session key. ConnectionKript is the implementation
+ * servers and clients use; a plain Kript can be passed in through KriptCrypto.
+ */
+public interface ConnectionCrypto {
+
+    /**
+     * Encrypt bytes for the remote side
+     *
+     * @param plain bytes to encrypt
+     * @return byte[] encrypted bytes
+     * @throws Exception when the remote public key is missing or invalid
+     */
+    byte[] encrypt(byte[] plain) throws Exception;
+
+    /**
+     * Decrypt bytes sent by the remote side
+     *
+     * @param encrypted bytes to decrypt
+     * @return byte[] decrypted bytes
+     * @throws Exception when the bytes were not encrypted for this side
+     */
+    byte[] decrypt(byte[] encrypted) throws Exception;
+
+    /**
+     * Set the public key of the remote side, received during the HandShake
+     *
+     * @param remotePublicKey remote side's RSA public key
+     */
+    void setRemotePublicKey(PublicKey remotePublicKey);
+
+    /**
+     * Get the local public key, sent to the remote side during the HandShake
+     *
+     * @return PublicKey local RSA public key
+     */
+    PublicKey getPublicKey();
+}
@@ -0,0 +1,199 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running one blocking connection per task, such as a
+ * ConnectedClient or a ClientTemplate, and the scheduler shared by every
+ * connection for timed work.
+ */
+public final class ConnectionExecutors {
+
+    /**
+     * Stack size requested for platform connection threads when virtual
+     * threads are not available. A blocked receive loop needs very little.
+     */
+    public static final long PLATFORM_STACK_BYTES = 256 * 1024;
+
+    /**
+     * Most threads handlers() runs packet handlers on. Handlers may block, so
+     * this is well above the number of processors.
+     */
+    public static final int HANDLER_THREADS = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+
+    /**
+     * Most packet handlers waiting for a thread in handlers(). Beyond this
+     * they are rejected, and PacketDispatcher drops the packet.
+     */
+    public static final int HANDLER_QUEUE_SIZE = 10000;
+
+    private static ScheduledExecutorService scheduler;
+    private static ExecutorService writers;
+    private static ExecutorService handlers;
+    private static TimerWheel timer;
+
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * Scheduler shared by every connection in the JVM, for short timed tasks
+     * such as delayed flushes. Runs on a single daemon thread, so tasks must
+     * not block.
+     *
+     * @return ScheduledExecutorService shared by all connections
+     */
+    public static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Netta-Scheduler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            // Cancelled tasks are dropped right away instead of waiting for
+            // their delay to run out
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+        }
+        return scheduler;
+    }
+
+    /**
+     * Timer wheel shared by every connection in the JVM for per-connection
+     * timers, driven by scheduler(). Cheaper than scheduler() when every
+     * connection keeps a timer armed.
+     *
+     * @return TimerWheel shared by all connections
+     */
+    public static synchronized TimerWheel timer() {
+        if (timer == null)
+            timer = new TimerWheel(scheduler());
+        return timer;
+    }
+
+    /**
+     * Pool shared by every connection in the JVM to drain send queues. A
+     * writer only holds a thread while its connection has packets queued.
+     *
+     * @return ExecutorService running send queue writers
+     */
+    public static synchronized ExecutorService writers() {
+        if (writers == null) {
+            writers = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(null, r, "Netta-Writer-" + count.incrementAndGet(), PLATFORM_STACK_BYTES);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return writers;
+    }
+
+    /**
+     * Pool shared by every connection in the JVM to run packet handlers off
+     * the receive loops, for PacketDispatcher's WORKER_POOL and SERIAL
+     * modes. Runs at most HANDLER_THREADS handlers at once and queues up to
+     * HANDLER_QUEUE_SIZE more; anything beyond that is rejected.
+     *
+     * @return ExecutorService running packet handlers
+     */
+    public static synchronized ExecutorService handlers() {
+        if (handlers == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(HANDLER_THREADS, HANDLER_THREADS, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(HANDLER_QUEUE_SIZE), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(null, r, "Netta-Handler-" + count.incrementAndGet(),
+                                    PLATFORM_STACK_BYTES);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            // Idle threads exit like they did in the cached pool
+            executor.allowCoreThreadTimeOut(true);
+            handlers = executor;
+        }
+        return handlers;
+    }
+
+    /**
+     * Executor starting a virtual thread per task, when the JVM supports them
+     * (Java 21+). On older JVMs it falls back to a daemon platform thread per
+     * task with a reduced stack size.
+     *
+     * @return Executor running each task on its own thread
+     */
+    public static ExecutorService virtualThreadPerTask() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return platformThreadPerTask();
+        }
+    }
+
+    /**
+     * Executor starting a daemon platform thread per task, with a stack size
+     * of PLATFORM_STACK_BYTES.
+     *
+     * @return Executor running each task on its own thread
+     */
+    public static ExecutorService platformThreadPerTask() {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(null, r, "Netta-Connection-" + count.incrementAndGet(), PLATFORM_STACK_BYTES);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Check whether virtualThreadPerTask() will use virtual threads on this JVM
+     *
+     * @return True if virtual threads are available, else false
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import javax.crypto.Cipher;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.interfaces.RSAKey;
+
+/**
+ * Per-connection crypto context. Wire compatible with Kript, but the local RSA
+ * keypair is supplied from outside, so a server can share one keypair between
+ * every connection while each connection keeps its own remote public key.
+ * <p>
+ * A server creates one ConnectionKript for its keypair and calls derive() for
+ * every accepted connection. Setting the remote key on a derived context does
+ * not affect any other connection.
+ * <p>
+ * It does not extend Kript, whose constructor generates a keypair and prints
+ * to stdout, so deriving a context for each accepted connection is silent and
+ * costs no key generation.
+ */
+public class ConnectionKript implements ConnectionCrypto {
+
+    public static final String ALGORITHM = "RSA";
+    public static final int KEY_BITS = 1024;
+    // Same plaintext block size as Kript, so either side can decrypt the other
+    private static final int PLAIN_BLOCK_BYTES = 100;
+
+    private KeyPair keyPair;
+    private volatile PublicKey remotePublicKey;
+
+    /**
+     * Create a context around an existing keypair
+     *
+     * @param keyPair local RSA keypair
+     */
+    public ConnectionKript(KeyPair keyPair) {
+        if (keyPair == null)
+            throw new IllegalArgumentException("KeyPair must not be null.");
+        this.keyPair = keyPair;
+    }
+
+    /**
+     * Generate a new RSA keypair of the size Kript uses
+     *
+     * @return KeyPair new keypair
+     * @throws NoSuchAlgorithmException when RSA is not available
+     */
+    public static KeyPair generateKeyPairNow() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(ALGORITHM);
+        generator.initialize(KEY_BITS);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Create a context for a new connection that shares this keypair, with no
+     * remote key set
+     *
+     * @return ConnectionKript for one connection
+     */
+    public ConnectionKript derive() {
+        return new ConnectionKript(keyPair);
+    }
+
+    /**
+     * Get the local keypair
+     *
+     * @return KeyPair used by this context
+     */
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    /**
+     * Replace the local keypair with a newly generated one
+     *
+     * @throws NoSuchAlgorithmException when RSA is not available
+     */
+    public void generateKeypair() throws NoSuchAlgorithmException {
+        keyPair = generateKeyPairNow();
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plain) throws Exception {
+        Cipher cipher = Cipher.getInstance(ALGORITHM);
+        cipher.init(Cipher.ENCRYPT_MODE, remotePublicKey);
+        int blockBytes = ((RSAKey) remotePublicKey).getModulus().bitLength() / 8;
+        int blocks = Math.max(1, (plain.length + PLAIN_BLOCK_BYTES - 1) / PLAIN_BLOCK_BYTES);
+
+        byte[] encrypted = new byte[blocks * blockBytes];
+        int outOffset = 0;
+        for (int offset = 0; offset < plain.length || outOffset == 0; offset += PLAIN_BLOCK_BYTES) {
+            int length = Math.min(PLAIN_BLOCK_BYTES, plain.length - offset);
+            outOffset += cipher.doFinal(plain, offset, length, encrypted, outOffset);
+        }
+        return encrypted;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] encrypted) throws Exception {
+        Cipher cipher = Cipher.getInstance(ALGORITHM);
+        cipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+        int blockBytes = ((RSAKey) keyPair.getPrivate()).getModulus().bitLength() / 8;
+        if (encrypted.length % blockBytes != 0)
+            throw new IllegalArgumentException("Encrypted length " + encrypted.length + " is not a whole number of RSA blocks.");
+
+        // A PKCS#1 block holds at most blockBytes - 11 bytes of plaintext, but
+        // the cipher wants a full block of room for the last one
+        byte[] plain = new byte[(encrypted.length / blockBytes) * (blockBytes - 11) + 11];
+        int length = 0;
+        for (int offset = 0; offset < encrypted.length; offset += blockBytes)
+            length += cipher.doFinal(encrypted, offset, blockBytes, plain, length);
+        if (length == plain.length)
+            return plain;
+        byte[] trimmed = new byte[length];
+        System.arraycopy(plain, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    @Override
+    public void setRemotePublicKey(PublicKey remotePublicKey) {
+        this.remotePublicKey = remotePublicKey;
+    }
+
+    @Override
+    public PublicKey getPublicKey() {
+        return keyPair.getPublic();
+    }
+}
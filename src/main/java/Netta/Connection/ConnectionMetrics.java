@@ -0,0 +1,167 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+/**
+ * Receives measurements from connections and servers. Set one on a
+ * connection with Connection.setMetrics, or on a server to cover the server
+ * and every client it accepts. Sharing one instance between connections
+ * aggregates them; giving each connection its own keeps them apart.
+ * <p>
+ * Methods are called on the threads doing the work, often under a
+ * connection's read or write lock, so they must be quick and must not
+ * block. JmxMetrics is the built-in implementation.
+ */
+public interface ConnectionMetrics {
+
+    /**
+     * Discards every measurement. The default for every connection. While
+     * metrics are disabled connections skip taking timestamps altogether.
+     */
+    ConnectionMetrics DISABLED = new ConnectionMetrics() {
+        public boolean isEnabled() {
+            return false;
+        }
+
+        public void connectionAccepted() {
+        }
+
+        public void connectionOpened() {
+        }
+
+        public void connectionClosed() {
+        }
+
+        public void handShakeCompleted(long nanos) {
+        }
+
+        public void packetsSent(int packets) {
+        }
+
+        public void packetReceived() {
+        }
+
+        public void bytesSent(long bytes) {
+        }
+
+        public void bytesReceived(long bytes) {
+        }
+
+        public void packetEncoded(long nanos) {
+        }
+
+        public void packetEncrypted(long nanos) {
+        }
+
+        public void packetDecrypted(long nanos) {
+        }
+
+        public void sendQueueDepthChanged(int delta) {
+        }
+    };
+
+    /**
+     * Whether measurements are wanted. When false, connections skip the
+     * System.nanoTime calls needed for the timing measurements.
+     *
+     * @return True to receive timings, else false
+     */
+    boolean isEnabled();
+
+    /**
+     * A server accepted a socket, before its HandShake
+     */
+    void connectionAccepted();
+
+    /**
+     * A connection opened its streams, or was given these metrics while open
+     */
+    void connectionOpened();
+
+    /**
+     * A connection closed its streams, or was given other metrics while open
+     */
+    void connectionClosed();
+
+    /**
+     * A HandShake completed
+     *
+     * @param nanos time from opening the streams to the end of the HandShake
+     */
+    void handShakeCompleted(long nanos);
+
+    /**
+     * Packets were written to the socket
+     *
+     * @param packets number of packets
+     */
+    void packetsSent(int packets);
+
+    /**
+     * A packet was read from the socket
+     */
+    void packetReceived();
+
+    /**
+     * Bytes reached the socket, including framing. Reported when the output
+     * is flushed.
+     *
+     * @param bytes number of bytes since the last report
+     */
+    void bytesSent(long bytes);
+
+    /**
+     * Bytes were read from the socket, including framing
+     *
+     * @param bytes number of bytes since the last report
+     */
+    void bytesReceived(long bytes);
+
+    /**
+     * A packet was encoded, and compressed if compression is active. Not
+     * reported for SERIALIZED packets that are neither encrypted nor
+     * compressed, which ObjectOutputStream encodes as it writes them.
+     *
+     * @param nanos time taken
+     */
+    void packetEncoded(long nanos);
+
+    /**
+     * A packet was encrypted
+     *
+     * @param nanos time taken
+     */
+    void packetEncrypted(long nanos);
+
+    /**
+     * A packet was decrypted
+     *
+     * @param nanos time taken
+     */
+    void packetDecrypted(long nanos);
+
+    /**
+     * Packets were added to or taken from a connection's SendQueue. Adding up
+     * the changes of every connection gives the packets queued across them.
+     *
+     * @param delta change in the number of packets waiting in the queue
+     */
+    void sendQueueDepthChanged(int delta);
+}
@@ -0,0 +1,42 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+/**
+ * Where a PacketDispatcher runs a packet handler.
+ */
+public enum DispatchMode {
+    /**
+     * On the connection's receive loop, before the next packet is read. The
+     * cheapest mode, for handlers that never block.
+     */
+    INLINE,
+    /**
+     * On the shared handler pool. Packets may be handled at the same time and
+     * in any order, even packets from one connection.
+     */
+    WORKER_POOL,
+    /**
+     * On the shared handler pool, one packet at a time per connection, in the
+     * order they were received. Packets of different connections are still
+     * handled in parallel.
+     */
+    SERIAL
+}
@@ -0,0 +1,105 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A packet that is encoded once and shared between any number of
+ * connections, for sending the same packet to many clients. Each wire format
+ * the packet is sent in, with or without compression, is encoded the first
+ * time a connection needs it and reused by every other connection. Only
+ * encryption is still done per connection, as each has its own session key.
+ * <p>
+ * The packet must not be changed after it is wrapped.
+ */
+public final class EncodedPacket {
+
+    private final Packet packet;
+    private final ReentrantLock lock = new ReentrantLock();
+    private byte[] serialized;
+    private byte[] binary;
+    private byte[] serializedCompressed;
+    private byte[] binaryCompressed;
+    private int serializedThreshold;
+    private int binaryThreshold;
+
+    /**
+     * Wrap a packet for sending to many connections
+     *
+     * @param packet packet to share. Must not be changed afterwards.
+     */
+    public EncodedPacket(Packet packet) {
+        this.packet = packet;
+    }
+
+    public Packet getPacket() {
+        return packet;
+    }
+
+    /**
+     * Get the packet's bytes as a connection sends them before encryption.
+     * The frame is shared, so it must only be read, and releasing it does
+     * nothing.
+     *
+     * @param format     wire format of the connection
+     * @param compressed whether the connection compresses packets
+     * @param threshold  the connection's compression threshold
+     * @param stats      the connection's compression counters, updated only
+     *                   by the connection that does the compressing
+     * @return Frame of the encoded packet
+     * @throws IOException thrown if the packet cannot be encoded
+     */
+    Frame encode(WireFormat format, boolean compressed, int threshold, CompressionStats stats) throws IOException {
+        boolean isBinary = format == WireFormat.BINARY;
+        lock.lock();
+        try {
+            byte[] plain = isBinary ? binary : serialized;
+            if (plain == null) {
+                plain = isBinary ? PacketCodec.encode(packet) : packet.ToBytes();
+                if (isBinary)
+                    binary = plain;
+                else
+                    serialized = plain;
+            }
+            if (!compressed)
+                return Frame.of(plain);
+
+            byte[] deflated = isBinary ? binaryCompressed : serializedCompressed;
+            int deflatedThreshold = isBinary ? binaryThreshold : serializedThreshold;
+            if (deflated != null && deflatedThreshold == threshold)
+                return Frame.of(deflated);
+            deflated = Compression.compress(plain, threshold, stats);
+            // Connections almost always share one threshold, so only the
+            // first one seen is kept
+            if (isBinary && binaryCompressed == null) {
+                binaryCompressed = deflated;
+                binaryThreshold = threshold;
+            } else if (!isBinary && serializedCompressed == null) {
+                serializedCompressed = deflated;
+                serializedThreshold = threshold;
+            }
+            return Frame.of(deflated);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+/**
+ * When a Connection pushes batched packets out to the socket. Without a
+ * policy every sendPacket call flushes. With one, packets collect in the
+ * output buffer until any of the limits is reached:
+ * <ul>
+ * <li>maxPackets packets are waiting</li>
+ * <li>maxBytes bytes are waiting. Only encoded frames (BINARY, or encrypted
+ * packets) are counted; plain SERIALIZED packets count towards the other
+ * limits only.</li>
+ * <li>maxDelayMicros microseconds have passed since the first waiting packet
+ * was written. The delayed flush runs on the shared scheduler.</li>
+ * </ul>
+ * A limit of 0 is not used. Waiting packets are also flushed by flush(), and
+ * before the connection blocks to read a packet, so a request is never stuck
+ * in the buffer while its sender waits for the reply. This also keeps the
+ * HandShake unaffected by the policy.
+ */
+public class FlushPolicy {
+
+    private final int maxPackets;
+    private final long maxBytes;
+    private final long maxDelayMicros;
+
+    /**
+     * Create a flush policy
+     *
+     * @param maxPackets     flush once this many packets are waiting, or 0
+     * @param maxBytes       flush once this many bytes are waiting, or 0
+     * @param maxDelayMicros flush this long after the first waiting packet, or 0
+     */
+    public FlushPolicy(int maxPackets, long maxBytes, long maxDelayMicros) {
+        if (maxPackets < 0 || maxBytes < 0 || maxDelayMicros < 0)
+            throw new IllegalArgumentException("Flush policy limits must not be negative.");
+        this.maxPackets = maxPackets;
+        this.maxBytes = maxBytes;
+        this.maxDelayMicros = maxDelayMicros;
+    }
+
+    public int getMaxPackets() {
+        return maxPackets;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxDelayMicros() {
+        return maxDelayMicros;
+    }
+
+    /**
+     * Check whether waiting packets must be flushed now
+     *
+     * @param packets number of packets waiting
+     * @param bytes   number of counted bytes waiting
+     * @return True if a packet or byte limit is reached, else false
+     */
+    public boolean shouldFlush(int packets, long bytes) {
+        return (maxPackets > 0 && packets >= maxPackets) || (maxBytes > 0 && bytes >= maxBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy[packets=" + maxPackets + ", bytes=" + maxBytes + ", delayMicros=" + maxDelayMicros + "]";
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+/**
+ * Bytes of one packet on their way to or from the socket: the start of an
+ * array that is either owned by the frame or borrowed from BufferPool.
+ */
+final class Frame {
+
+    final byte[] bytes;
+    final int length;
+    private final boolean pooled;
+
+    private Frame(byte[] bytes, int length, boolean pooled) {
+        this.bytes = bytes;
+        this.length = length;
+        this.pooled = pooled;
+    }
+
+    /**
+     * Wrap an array that holds exactly one frame
+     *
+     * @param bytes frame bytes
+     * @return Frame covering the whole array
+     */
+    static Frame of(byte[] bytes) {
+        return new Frame(bytes, bytes.length, false);
+    }
+
+    /**
+     * Wrap the start of a buffer from BufferPool. The buffer goes back to
+     * the pool when the frame is released.
+     *
+     * @param buffer pooled buffer
+     * @param length number of bytes in use
+     * @return Frame covering the first length bytes
+     */
+    static Frame pooled(byte[] buffer, int length) {
+        return new Frame(buffer, length, true);
+    }
+
+    /**
+     * Get the frame as an array of its own, copying it out of a pooled buffer
+     * if needed
+     *
+     * @return byte[] frame bytes
+     */
+    byte[] toByteArray() {
+        if (!pooled && length == bytes.length)
+            return bytes;
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Hand a pooled buffer back to BufferPool. Does nothing for frames that
+     * own their array.
+     */
+    void release() {
+        if (pooled)
+            BufferPool.release(bytes);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+/**
+ * Sends a connection's heartbeats. Armed on the shared TimerWheel once the
+ * HandShake is complete, and re-armed every check until the connection
+ * closes. A heartbeat is sent when nothing was written for the write-idle
+ * timeout, and a heartbeat asking for a reply when nothing was read for a
+ * third of the read-idle timeout, so a quiet but healthy peer answers well
+ * before the read times out. Dead peers are detected by the read timeout
+ * itself; see Connection.setIdleTimeouts.
+ */
+final class IdleMonitor implements Runnable {
+
+    private final Connection connection;
+    private final long readIdleNanos;
+    private final long writeIdleNanos;
+    private final long checkMillis;
+    private volatile boolean stopped = false;
+    private volatile TimerWheel.Timeout timeout;
+    // Only touched by the timer thread
+    private long lastReadCount;
+    private long lastWriteCount;
+    private long readSince;
+    private long writeSince;
+
+    IdleMonitor(Connection connection, long readIdleMillis, long writeIdleMillis) {
+        this.connection = connection;
+        this.readIdleNanos = readIdleMillis * 1000000 / 3;
+        this.writeIdleNanos = writeIdleMillis * 1000000;
+        long check = Long.MAX_VALUE;
+        if (readIdleMillis > 0)
+            check = readIdleMillis / 6;
+        if (writeIdleMillis > 0)
+            check = Math.min(check, writeIdleMillis / 2);
+        this.checkMillis = Math.max(TimerWheel.TICK_MILLIS, check);
+    }
+
+    void start() {
+        long now = System.nanoTime();
+        lastReadCount = connection.packetsReadCount();
+        lastWriteCount = connection.packetsWrittenCount();
+        readSince = now;
+        writeSince = now;
+        timeout = ConnectionExecutors.timer().schedule(this, checkMillis);
+    }
+
+    void stop() {
+        stopped = true;
+        TimerWheel.Timeout t = timeout;
+        if (t != null)
+            t.cancel();
+    }
+
+    public void run() {
+        if (stopped || !connection.isConnectionActive())
+            return;
+
+        long now = System.nanoTime();
+        long reads = connection.packetsReadCount();
+        long writes = connection.packetsWrittenCount();
+        if (reads != lastReadCount) {
+            lastReadCount = reads;
+            readSince = now;
+        }
+        if (writes != lastWriteCount) {
+            lastWriteCount = writes;
+            writeSince = now;
+        }
+
+        boolean ping = readIdleNanos > 0 && now - readSince >= readIdleNanos;
+        boolean beat = writeIdleNanos > 0 && now - writeSince >= writeIdleNanos;
+        if (ping || beat) {
+            // Heartbeats are written on the writer pool, never on the timer
+            // thread, as a write to a dead peer can block
+            final boolean replyWanted = ping;
+            ConnectionExecutors.writers().execute(new Runnable() {
+                public void run() {
+                    connection.sendHeartbeat(replyWanted);
+                }
+            });
+            if (ping)
+                readSince = now;
+            writeSince = now;
+        }
+
+        if (!stopped)
+            timeout = ConnectionExecutors.timer().schedule(this, checkMillis);
+    }
+}
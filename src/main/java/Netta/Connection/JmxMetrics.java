@@ -0,0 +1,341 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import Netta.Logging.Log;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConnectionMetrics that counts into lock-free counters and histograms, and
+ * publishes them as an MBean so they can be watched from JConsole, VisualVM
+ * or any JMX exporter. Give one instance to a server with setMetrics to
+ * cover the server and all of its clients.
+ * <p>
+ * Example:
+ * <pre>
+ * JmxMetrics metrics = new JmxMetrics("chat");
+ * metrics.register();
+ * server.setMetrics(metrics);
+ * </pre>
+ * The MBean is registered as Netta:type=Metrics,name="chat".
+ */
+public class JmxMetrics implements ConnectionMetrics, JmxMetricsMBean {
+
+    private static final Log log = Log.get(JmxMetrics.class);
+
+    public static final String DOMAIN = "Netta";
+
+    // Accepts are counted per second over this many seconds
+    private static final int ACCEPT_WINDOW_SECONDS = 10;
+
+    private final String name;
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final AtomicLong activeConnections = new AtomicLong();
+    private final AtomicInteger sendQueueDepth = new AtomicInteger();
+    private final AtomicInteger maxSendQueueDepth = new AtomicInteger();
+    private final LatencyHistogram encodeNanos = new LatencyHistogram();
+    private final LatencyHistogram encryptNanos = new LatencyHistogram();
+    private final LatencyHistogram decryptNanos = new LatencyHistogram();
+    private final LatencyHistogram handShakeNanos = new LatencyHistogram();
+    // Slot i counts the accepts of the second stored in acceptSeconds[i]
+    private final AtomicLongArray acceptCounts = new AtomicLongArray(ACCEPT_WINDOW_SECONDS);
+    private final AtomicLongArray acceptSeconds = new AtomicLongArray(ACCEPT_WINDOW_SECONDS);
+    private ObjectName objectName;
+
+    /**
+     * Create metrics that are not yet registered with JMX
+     *
+     * @param name name of the MBean, unique within the JVM
+     */
+    public JmxMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Register the MBean with the platform MBeanServer
+     *
+     * @throws JMException thrown if the name is taken or the MBean cannot be
+     *                     registered
+     */
+    public synchronized void register() throws JMException {
+        if (objectName != null)
+            return;
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName))
+            throw new InstanceAlreadyExistsException(objectName.toString());
+        server.registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    /**
+     * Remove the MBean from the platform MBeanServer. Counting carries on.
+     */
+    public synchronized void unregister() {
+        if (objectName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn("Unable to unregister metrics {}. {}", objectName, e.getMessage());
+        }
+        objectName = null;
+    }
+
+    /**
+     * Get the name the MBean is registered under
+     *
+     * @return ObjectName of the MBean, or null if it is not registered
+     */
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public void connectionAccepted() {
+        accepted.increment();
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % ACCEPT_WINDOW_SECONDS);
+        long slotSecond = acceptSeconds.get(slot);
+        if (slotSecond != second && acceptSeconds.compareAndSet(slot, slotSecond, second))
+            acceptCounts.set(slot, 0);
+        acceptCounts.incrementAndGet(slot);
+    }
+
+    public void connectionOpened() {
+        activeConnections.incrementAndGet();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    public void handShakeCompleted(long nanos) {
+        handShakeNanos.record(nanos);
+    }
+
+    public void packetsSent(int packets) {
+        packetsSent.add(packets);
+    }
+
+    public void packetReceived() {
+        packetsReceived.increment();
+    }
+
+    public void bytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    public void bytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    public void packetEncoded(long nanos) {
+        encodeNanos.record(nanos);
+    }
+
+    public void packetEncrypted(long nanos) {
+        encryptNanos.record(nanos);
+    }
+
+    public void packetDecrypted(long nanos) {
+        decryptNanos.record(nanos);
+    }
+
+    public void sendQueueDepthChanged(int delta) {
+        int depth = sendQueueDepth.addAndGet(delta);
+        int max;
+        while (depth > (max = maxSendQueueDepth.get()) && !maxSendQueueDepth.compareAndSet(max, depth)) {
+        }
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public double getEncodeMeanMicros() {
+        return encodeNanos.getMean() / 1000;
+    }
+
+    public double getEncodeP99Micros() {
+        return encodeNanos.getPercentile(99) / 1000.0;
+    }
+
+    public double getEncryptMeanMicros() {
+        return encryptNanos.getMean() / 1000;
+    }
+
+    public double getEncryptP99Micros() {
+        return encryptNanos.getPercentile(99) / 1000.0;
+    }
+
+    public double getDecryptMeanMicros() {
+        return decryptNanos.getMean() / 1000;
+    }
+
+    public double getDecryptP99Micros() {
+        return decryptNanos.getPercentile(99) / 1000.0;
+    }
+
+    public long getHandShakes() {
+        return handShakeNanos.getCount();
+    }
+
+    public double getHandShakeMeanMillis() {
+        return handShakeNanos.getMean() / 1000000;
+    }
+
+    public double getHandShakeP99Millis() {
+        return handShakeNanos.getPercentile(99) / 1000000.0;
+    }
+
+    /**
+     * Get the packets waiting in the send queues of every connection
+     * reporting here
+     *
+     * @return int packets queued across all connections
+     */
+    public int getSendQueueDepth() {
+        return sendQueueDepth.get();
+    }
+
+    /**
+     * Get the highest value getSendQueueDepth() has reached
+     *
+     * @return int most packets queued at once across all connections
+     */
+    public int getMaxSendQueueDepth() {
+        return maxSendQueueDepth.get();
+    }
+
+    public long getAcceptedConnections() {
+        return accepted.sum();
+    }
+
+    /**
+     * Get the mean accept rate over the last ACCEPT_WINDOW_SECONDS complete
+     * seconds
+     *
+     * @return double accepted connections per second
+     */
+    public double getAcceptsPerSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long total = 0;
+        for (int i = 0; i < ACCEPT_WINDOW_SECONDS; i++) {
+            long second = acceptSeconds.get(i);
+            if (second < now && second >= now - ACCEPT_WINDOW_SECONDS)
+                total += acceptCounts.get(i);
+        }
+        return (double) total / ACCEPT_WINDOW_SECONDS;
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Get the histogram of packet encode times, for percentiles other than
+     * the P99 published over JMX
+     *
+     * @return LatencyHistogram in nanoseconds
+     */
+    public LatencyHistogram getEncodeHistogram() {
+        return encodeNanos;
+    }
+
+    /**
+     * Get the histogram of packet encryption times
+     *
+     * @return LatencyHistogram in nanoseconds
+     */
+    public LatencyHistogram getEncryptHistogram() {
+        return encryptNanos;
+    }
+
+    /**
+     * Get the histogram of packet decryption times
+     *
+     * @return LatencyHistogram in nanoseconds
+     */
+    public LatencyHistogram getDecryptHistogram() {
+        return decryptNanos;
+    }
+
+    /**
+     * Get the histogram of HandShake times
+     *
+     * @return LatencyHistogram in nanoseconds
+     */
+    public LatencyHistogram getHandShakeHistogram() {
+        return handShakeNanos;
+    }
+
+    /**
+     * Zero every counter and histogram. Active connections are not counters
+     * and are kept.
+     */
+    public void reset() {
+        packetsSent.reset();
+        packetsReceived.reset();
+        bytesSent.reset();
+        bytesReceived.reset();
+        accepted.reset();
+        sendQueueDepth.set(0);
+        maxSendQueueDepth.set(0);
+        encodeNanos.reset();
+        encryptNanos.reset();
+        decryptNanos.reset();
+        handShakeNanos.reset();
+        for (int i = 0; i < ACCEPT_WINDOW_SECONDS; i++)
+            acceptCounts.set(i, 0);
+    }
+}
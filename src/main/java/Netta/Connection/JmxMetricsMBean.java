@@ -0,0 +1,66 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+/**
+ * Attributes and operations JmxMetrics exposes over JMX. Durations are
+ * given in microseconds, and HandShakes in milliseconds. P99 values are
+ * accurate to within a factor of two; see LatencyHistogram.
+ */
+public interface JmxMetricsMBean {
+
+    long getPacketsSent();
+
+    long getPacketsReceived();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    double getEncodeMeanMicros();
+
+    double getEncodeP99Micros();
+
+    double getEncryptMeanMicros();
+
+    double getEncryptP99Micros();
+
+    double getDecryptMeanMicros();
+
+    double getDecryptP99Micros();
+
+    long getHandShakes();
+
+    double getHandShakeMeanMillis();
+
+    double getHandShakeP99Millis();
+
+    int getSendQueueDepth();
+
+    int getMaxSendQueueDepth();
+
+    long getAcceptedConnections();
+
+    double getAcceptsPerSecond();
+
+    long getActiveConnections();
+
+    void reset();
+}
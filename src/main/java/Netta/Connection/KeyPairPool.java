@@ -0,0 +1,185 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import Netta.Logging.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pre-generates RSA keypairs on a background thread, so creating a client or
+ * server does not have to wait for key generation. When the pool is empty a
+ * keypair is generated on the calling thread, so nextKeyPair() never waits on
+ * the background thread.
+ * <p>
+ * getDefault() is the pool used by ClientTemplate and the server templates.
+ * Calling it early in an application starts filling the pool ahead of the
+ * first connection.
+ */
+public class KeyPairPool implements KeyProvider {
+
+    private static final Log log = Log.get(KeyPairPool.class);
+
+    public static final int DEFAULT_SIZE = 4;
+
+    private static KeyPairPool defaultPool;
+
+    private final ArrayBlockingQueue<KeyPair> keyPairs;
+    private final Thread generator;
+    private volatile boolean running = true;
+
+    /**
+     * Create a pool and start filling it in the background
+     *
+     * @param size number of keypairs to keep ready
+     */
+    public KeyPairPool(int size) {
+        keyPairs = new ArrayBlockingQueue<KeyPair>(Math.max(1, size));
+        generator = new Thread(new Runnable() {
+            public void run() {
+                fill();
+            }
+        }, "Netta-KeyPairPool");
+        generator.setDaemon(true);
+        generator.setPriority(Thread.MIN_PRIORITY);
+        generator.start();
+    }
+
+    /**
+     * Get the shared pool used by the client and server templates
+     *
+     * @return KeyPairPool shared by the whole JVM
+     */
+    public static synchronized KeyPairPool getDefault() {
+        if (defaultPool == null)
+            defaultPool = new KeyPairPool(DEFAULT_SIZE);
+        return defaultPool;
+    }
+
+    public KeyPair nextKeyPair() throws NoSuchAlgorithmException {
+        KeyPair keyPair = keyPairs.poll();
+        if (keyPair != null)
+            return keyPair;
+        return ConnectionKript.generateKeyPairNow();
+    }
+
+    /**
+     * Get the number of keypairs ready to be handed out
+     *
+     * @return int ready keypairs
+     */
+    public int available() {
+        return keyPairs.size();
+    }
+
+    /**
+     * Stop the background generator. Keypairs already in the pool are still
+     * handed out, after that they are generated on the calling thread.
+     */
+    public void shutdown() {
+        running = false;
+        generator.interrupt();
+    }
+
+    private void fill() {
+        while (running) {
+            try {
+                keyPairs.put(ConnectionKript.generateKeyPairNow());
+            } catch (InterruptedException e) {
+                return;
+            } catch (NoSuchAlgorithmException e) {
+                log.warn("RSA is not available. Keys will be generated on demand.");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Provider that always hands out the same long-term keypair, stored in a
+     * file. If the file does not exist a keypair is generated and saved to it,
+     * readable only by its owner. Useful for servers that should keep their
+     * public key across restarts.
+     *
+     * @param file file holding the keypair
+     * @return KeyProvider returning the stored keypair
+     * @throws IOException              thrown if the file cannot be read or written
+     * @throws GeneralSecurityException thrown if the stored keys cannot be decoded
+     */
+    public static KeyProvider persisted(File file) throws IOException, GeneralSecurityException {
+        final KeyPair keyPair = file.exists() ? readKeyPair(file) : writeKeyPair(file, ConnectionKript.generateKeyPairNow());
+        return new KeyProvider() {
+            public KeyPair nextKeyPair() {
+                return keyPair;
+            }
+        };
+    }
+
+    private static KeyPair readKeyPair(File file) throws IOException, GeneralSecurityException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] publicKey = new byte[in.readInt()];
+            in.readFully(publicKey);
+            byte[] privateKey = new byte[in.readInt()];
+            in.readFully(privateKey);
+            KeyFactory factory = KeyFactory.getInstance(ConnectionKript.ALGORITHM);
+            return new KeyPair(factory.generatePublic(new X509EncodedKeySpec(publicKey)),
+                    factory.generatePrivate(new PKCS8EncodedKeySpec(privateKey)));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static KeyPair writeKeyPair(File file, KeyPair keyPair) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Unable to create directory for keypair file: " + parent);
+        if (!file.createNewFile())
+            throw new IOException("Keypair file already exists: " + file);
+        file.setReadable(false, false);
+        file.setWritable(false, false);
+        file.setReadable(true, true);
+        file.setWritable(true, true);
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            byte[] publicKey = keyPair.getPublic().getEncoded();
+            byte[] privateKey = keyPair.getPrivate().getEncoded();
+            out.writeInt(publicKey.length);
+            out.write(publicKey);
+            out.writeInt(privateKey.length);
+            out.write(privateKey);
+        } finally {
+            out.close();
+        }
+        return keyPair;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Source of the RSA keypairs used by clients and servers for their HandShake.
+ * See KeyPairPool for the built in providers.
+ */
+public interface KeyProvider {
+
+    /**
+     * Get a keypair for a new client or server
+     *
+     * @return KeyPair RSA keypair
+     * @throws NoSuchAlgorithmException when RSA is not available
+     */
+    KeyPair nextKeyPair() throws NoSuchAlgorithmException;
+}
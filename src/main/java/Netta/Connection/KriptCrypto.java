@@ -0,0 +1,75 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package Netta.Connection;
+
+import Kript.Kript;
+
+import java.security.PublicKey;
+
+/**
+ * Lets a Kript be used as a Connection's ConnectionCrypto, for code that
+ * still creates its own Kript. The Kript is shared, not copied, so a Kript
+ * passed to more than one connection also shares its remote public key.
+ */
+public final class KriptCrypto implements ConnectionCrypto {
+
+    private final Kript kript;
+
+    /**
+     * Wrap a Kript
+     *
+     * @param kript Kript to delegate to
+     */
+    public KriptCrypto(Kript kript) {
+        if (kript == null)
+            throw new IllegalArgumentException("Kript must not be null.");
+        this.kript = kript;
+    }
+
+    /**
+     * Get the wrapped Kript
+     *
+     * @return Kript this delegates to
+     */
+    public Kript getKript() {
+        return kript;
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plain) throws Exception {
+        return kript.encrypt(plain);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] encrypted) throws Exception {
+        return kript.decrypt(encrypted);
+    }
+
+    @Override
+    public void setRemotePublicKey(PublicKey remotePublicKey) {
+        kript.setRemotePublicKey(remotePublicKey);
+    }
+
+    @Override
+    public PublicKey getPublicKey() {
+        return kript.getPublicKey();
+    }
+}
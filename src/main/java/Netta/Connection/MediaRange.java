@@ -0,0 +1,183 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of bytes of a media file. After the HandShake, a MediaClient that
+ * negotiated the MediaRange capability sends a Command packet listing the
+ * ranges it wants, and the server streams only those ranges, back to back in
+ * the order requested. This lets a client resume a stream that dropped, seek,
+ * or fetch one file in parallel chunks over several connections.
+ * <p>
+ * Before streaming, the server answers with the same Command, holding the
+ * ranges it will actually send. Ranges running past the end of the file are
+ * cut short there, so the reply also tells the client how many bytes follow.
+ */
+public class MediaRange {
+
+    /**
+     * Capability name negotiated during the HandShake
+     */
+    public static final String CAPABILITY = "MediaRange";
+    /**
+     * packetString of the range request and reply Command packets
+     */
+    public static final String COMMAND = "MediaRange";
+    /**
+     * Length meaning "until the end of the file"
+     */
+    public static final long TO_END = -1;
+    /**
+     * Most ranges a single request may hold
+     */
+    public static final int MAX_RANGES = 1024;
+
+    private final long offset;
+    private final long length;
+
+    /**
+     * Create a range
+     *
+     * @param offset first byte of the range
+     * @param length number of bytes in the range, or TO_END
+     */
+    public MediaRange(long offset, long length) {
+        if (offset < 0)
+            throw new IllegalArgumentException("Range offset must not be negative: " + offset);
+        if (length < 0 && length != TO_END)
+            throw new IllegalArgumentException("Range length must not be negative: " + length);
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Range covering a whole file
+     *
+     * @return MediaRange from byte 0 to the end of the file
+     */
+    public static MediaRange wholeFile() {
+        return new MediaRange(0, TO_END);
+    }
+
+    /**
+     * Range from a byte to the end of the file. Used to resume a stream.
+     *
+     * @param offset first byte to send
+     * @return MediaRange from offset to the end of the file
+     */
+    public static MediaRange from(long offset) {
+        return new MediaRange(offset, TO_END);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Cut this range short at the end of a file
+     *
+     * @param fileLength size of the file
+     * @return MediaRange that lies within the file, possibly empty
+     */
+    public MediaRange clamp(long fileLength) {
+        long start = Math.min(offset, fileLength);
+        long available = fileLength - start;
+        return new MediaRange(start, length == TO_END ? available : Math.min(length, available));
+    }
+
+    /**
+     * Create the Command packet carrying a list of ranges
+     *
+     * @param senderID String. For Sender Identification
+     * @param ranges   ranges to request or confirm
+     * @return Packet to send
+     * @throws IOException thrown if there are more than MAX_RANGES ranges
+     */
+    public static Packet toPacket(String senderID, List<MediaRange> ranges) throws IOException {
+        if (ranges.size() > MAX_RANGES)
+            throw new IOException("Too many media ranges: " + ranges.size() + ". At most " + MAX_RANGES + " are allowed.");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + ranges.size() * 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ranges.size());
+        for (MediaRange range : ranges) {
+            out.writeLong(range.offset);
+            out.writeLong(range.length);
+        }
+
+        Packet p = new Packet(Packet.PACKET_TYPE.Command, senderID);
+        p.packetString = COMMAND;
+        p.packetByteArray = bytes.toByteArray();
+        return p;
+    }
+
+    /**
+     * Check whether a packet is a range request or reply
+     *
+     * @param p received packet
+     * @return True if the packet carries media ranges, else false
+     */
+    public static boolean isRangePacket(Packet p) {
+        return p != null && p.packetType == Packet.PACKET_TYPE.Command && COMMAND.equals(p.packetString)
+                && p.packetByteArray != null;
+    }
+
+    /**
+     * Read the ranges out of a range request or reply
+     *
+     * @param p received packet
+     * @return ArrayList of the ranges in the packet
+     * @throws IOException thrown if the packet does not hold a valid list of ranges
+     */
+    public static ArrayList<MediaRange> fromPacket(Packet p) throws IOException {
+        if (!isRangePacket(p))
+            throw new IOException("Packet is not a media range command.");
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(p.packetByteArray));
+        int count = in.readInt();
+        if (count < 0 || count > MAX_RANGES)
+            throw new IOException("Invalid media range count: " + count);
+        ArrayList<MediaRange> ranges = new ArrayList<MediaRange>(count);
+        try {
+            for (int i = 0; i < count; i++)
+                ranges.add(new MediaRange(in.readLong(), in.readLong()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return "MediaRange[" + offset + ", " + (length == TO_END ? "end" : String.valueOf(length)) + "]";
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+/**
+ * How the messages of a MessageType are stored in the fields of a Packet.
+ * Both sides of a connection must use the same schema for a type.
+ *
+ * @param <T> class of the messages
+ */
+public interface MessageSchema<T> {
+
+    /**
+     * Messages carried as packetString
+     */
+    MessageSchema<String> STRING = new MessageSchema<String>() {
+        public void write(String message, Packet p) {
+            p.packetString = message;
+        }
+
+        public String read(Packet p) {
+            return p.packetString;
+        }
+    };
+
+    /**
+     * Messages carried as packetInt
+     */
+    MessageSchema<Integer> INT = new MessageSchema<Integer>() {
+        public void write(Integer message, Packet p) {
+            p.packetInt = message;
+        }
+
+        public Integer read(Packet p) {
+            return p.packetInt;
+        }
+    };
+
+    /**
+     * Messages carried as packetByteArray
+     */
+    MessageSchema<byte[]> BYTES = new MessageSchema<byte[]>() {
+        public void write(byte[] message, Packet p) {
+            p.packetByteArray = message;
+        }
+
+        public byte[] read(Packet p) {
+            return p.packetByteArray;
+        }
+    };
+
+    /**
+     * Store a message in a packet
+     *
+     * @param message message to store
+     * @param p       packet to fill in
+     */
+    void write(T message, Packet p);
+
+    /**
+     * Read a message back out of a packet
+     *
+     * @param p packet filled in by write
+     * @return T message
+     */
+    T read(Packet p);
+}
@@ -0,0 +1,102 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+/**
+ * An application message type, registered in a MessageTypeRegistry. Packets
+ * of the type carry only its numeric id in Packet.messageType, which the
+ * BINARY wire format writes in one byte for ids up to 127 and two bytes up to
+ * MessageTypeRegistry.MAX_ID. Receivers can switch on the id, or register a
+ * MessageHandler on a PacketDispatcher, instead of comparing command names.
+ *
+ * @param <T> class of the messages
+ */
+public final class MessageType<T> {
+
+    private final int id;
+    private final String name;
+    private final MessageSchema<T> schema;
+
+    MessageType(int id, String name, MessageSchema<T> schema) {
+        this.id = id;
+        this.name = name;
+        this.schema = schema;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the name the type was registered with. Only used locally, for
+     * lookups and logging; it is never sent.
+     *
+     * @return String name of the type
+     */
+    public String getName() {
+        return name;
+    }
+
+    public MessageSchema<T> getSchema() {
+        return schema;
+    }
+
+    /**
+     * Create a Command packet carrying a message of this type
+     *
+     * @param senderID String. For Sender Identification
+     * @param message  message to send
+     * @return Packet ready to send
+     */
+    public Packet toPacket(String senderID, T message) {
+        Packet p = new Packet(Packet.PACKET_TYPE.Command, senderID);
+        p.messageType = id;
+        schema.write(message, p);
+        return p;
+    }
+
+    /**
+     * Read the message out of a packet of this type
+     *
+     * @param p received packet
+     * @return T message
+     * @throws IllegalArgumentException thrown if the packet is of another type
+     */
+    public T fromPacket(Packet p) {
+        if (p.messageType != id)
+            throw new IllegalArgumentException("Packet is of message type " + p.messageType + ", not " + id + " (" + name + ").");
+        return schema.read(p);
+    }
+
+    /**
+     * Check whether a packet is of this type
+     *
+     * @param p packet to check
+     * @return True if the packet carries this type's id
+     */
+    public boolean matches(Packet p) {
+        return p.messageType == id;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + id + ")";
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of an application's MessageTypes. Both sides of a connection
+ * register the same types under the same ids, usually from one shared class
+ * of constants. Types are looked up by id with a single array read.
+ */
+public class MessageTypeRegistry {
+
+    /**
+     * Largest id, the most a two byte varint holds. Ids up to 127 take a
+     * single byte on the wire.
+     */
+    public static final int MAX_ID = (1 << 14) - 1;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Replaced as a whole on every change, so lookups never lock
+    private volatile MessageType<?>[] byId = new MessageType<?>[0];
+    private final HashMap<String, MessageType<?>> byName = new HashMap<String, MessageType<?>>();
+
+    /**
+     * Register a message type
+     *
+     * @param id     id from 1 to MAX_ID, unique within the registry
+     * @param name   name, unique within the registry
+     * @param schema how messages are stored in packets
+     * @param <T>    class of the messages
+     * @return MessageType to create and read packets with
+     * @throws IllegalArgumentException thrown if the id is out of range, or
+     *                                  the id or name is already registered
+     */
+    public <T> MessageType<T> register(int id, String name, MessageSchema<T> schema) {
+        if (id < 1 || id > MAX_ID)
+            throw new IllegalArgumentException("Message type ids must be from 1 to " + MAX_ID + ": " + id);
+        MessageType<T> type = new MessageType<T>(id, name, schema);
+        lock.lock();
+        try {
+            if (get(id) != null)
+                throw new IllegalArgumentException("Message type id " + id + " is already registered as " + get(id) + ".");
+            if (byName.containsKey(name))
+                throw new IllegalArgumentException("Message type name " + name + " is already registered as " + byName.get(name) + ".");
+            MessageType<?>[] updated = new MessageType<?>[Math.max(byId.length, id + 1)];
+            System.arraycopy(byId, 0, updated, 0, byId.length);
+            updated[id] = type;
+            byId = updated;
+            byName.put(name, type);
+            return type;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a type by id
+     *
+     * @param id message type id, such as a received Packet.messageType
+     * @return MessageType, or null if no type has the id
+     */
+    public MessageType<?> get(int id) {
+        MessageType<?>[] types = byId;
+        return id > 0 && id < types.length ? types[id] : null;
+    }
+
+    /**
+     * Get a type by name
+     *
+     * @param name name the type was registered with
+     * @return MessageType, or null if no type has the name
+     */
+    public MessageType<?> get(String name) {
+        lock.lock();
+        try {
+            return byName.get(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get every registered type, in order of id
+     *
+     * @return ArrayList of the registered types
+     */
+    public ArrayList<MessageType<?>> getTypes() {
+        ArrayList<MessageType<?>> types = new ArrayList<MessageType<?>>();
+        for (MessageType<?> type : byId)
+            if (type != null)
+                types.add(type);
+        return types;
+    }
+}
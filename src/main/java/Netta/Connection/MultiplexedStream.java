@@ -0,0 +1,352 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One logical stream of a StreamMultiplexer. Bytes written to it arrive, in
+ * order, on the stream with the same id on the other side. Writing stalls
+ * once the remote side has a full window of unread bytes, so a slow reader
+ * only holds up its own stream.
+ * <p>
+ * One thread may write while another reads. close() ends the writing side;
+ * the remote reader then sees the end of the stream.
+ */
+public class MultiplexedStream {
+
+    private final int streamID;
+    private final StreamMultiplexer multiplexer;
+    private final int windowBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition creditAvailable = lock.newCondition();
+    private final Condition dataAvailable = lock.newCondition();
+
+    // Sending side
+    private int sendCredit;
+    private final ArrayDeque<byte[]> outbound = new ArrayDeque<byte[]>();
+    private boolean localClosed = false;
+    private boolean finSent = false;
+    boolean scheduled = false; // Guarded by the multiplexer's lock
+
+    // Receiving side
+    private final ArrayDeque<byte[]> inbound = new ArrayDeque<byte[]>();
+    private int inboundOffset = 0;
+    private int unacknowledged = 0;
+    private boolean remoteFinished = false;
+    private IOException failure;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return MultiplexedStream.this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return MultiplexedStream.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return MultiplexedStream.this.available();
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            MultiplexedStream.this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            MultiplexedStream.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            MultiplexedStream.this.close();
+        }
+    };
+
+    MultiplexedStream(int streamID, StreamMultiplexer multiplexer, int windowBytes) {
+        this.streamID = streamID;
+        this.multiplexer = multiplexer;
+        this.windowBytes = windowBytes;
+        this.sendCredit = windowBytes;
+    }
+
+    public int getStreamID() {
+        return streamID;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Write bytes to the stream, waiting for window credit from the remote
+     * side when it has a full window of unread bytes
+     *
+     * @param b   bytes to write
+     * @param off offset of the first byte
+     * @param len number of bytes
+     * @throws IOException thrown if the stream is closed or the connection failed
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n;
+            lock.lock();
+            try {
+                while (sendCredit == 0 && failure == null && !localClosed)
+                    creditAvailable.await();
+                if (failure != null)
+                    throw failure;
+                if (localClosed)
+                    throw new IOException("Stream " + streamID + " is closed.");
+
+                n = Math.min(len, Math.min(sendCredit, StreamMultiplexer.CHUNK_BYTES));
+                sendCredit -= n;
+                byte[] chunk = new byte[n];
+                System.arraycopy(b, off, chunk, 0, n);
+                outbound.add(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for stream credit.");
+            } finally {
+                lock.unlock();
+            }
+            multiplexer.schedule(this);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Read bytes from the stream, waiting until some arrive
+     *
+     * @param b   buffer to read into
+     * @param off offset to read to
+     * @param len most bytes to read
+     * @return int number of bytes read, or -1 once the remote side closed the stream
+     * @throws IOException thrown if the connection failed
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        int n;
+        int credit = 0;
+        lock.lock();
+        try {
+            while (inbound.isEmpty()) {
+                if (failure != null)
+                    throw failure;
+                if (remoteFinished)
+                    return -1;
+                dataAvailable.await();
+            }
+
+            byte[] chunk = inbound.peek();
+            n = Math.min(len, chunk.length - inboundOffset);
+            System.arraycopy(chunk, inboundOffset, b, off, n);
+            inboundOffset += n;
+            if (inboundOffset == chunk.length) {
+                inbound.poll();
+                inboundOffset = 0;
+            }
+
+            // Hand credit back in half windows, not per read
+            unacknowledged += n;
+            if (unacknowledged >= windowBytes / 2 && !remoteFinished) {
+                credit = unacknowledged;
+                unacknowledged = 0;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for stream data.");
+        } finally {
+            lock.unlock();
+        }
+
+        if (credit > 0)
+            multiplexer.sendWindowUpdate(streamID, credit);
+        return n;
+    }
+
+    /**
+     * Get the number of received bytes waiting to be read
+     *
+     * @return int bytes available
+     */
+    public int available() {
+        lock.lock();
+        try {
+            int available = -inboundOffset;
+            for (byte[] chunk : inbound)
+                available += chunk.length;
+            return Math.max(0, available);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the writing side of the stream. Bytes already written are still
+     * sent, followed by the end of the stream.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (localClosed)
+                return;
+            localClosed = true;
+            creditAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        multiplexer.schedule(this);
+    }
+
+    /**
+     * Get the number of bytes that can be written before waiting for credit
+     *
+     * @return int remaining send window
+     */
+    public int getSendWindow() {
+        lock.lock();
+        try {
+            return sendCredit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of written bytes waiting for their turn on the connection
+     *
+     * @return int queued bytes
+     */
+    public int getQueuedBytes() {
+        lock.lock();
+        try {
+            int queued = 0;
+            for (byte[] chunk : outbound)
+                queued += chunk.length;
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean hasOutbound() {
+        lock.lock();
+        try {
+            return !outbound.isEmpty() || (localClosed && !finSent);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next frame to send, or null if there is nothing to send
+     */
+    Packet nextFrame() {
+        lock.lock();
+        try {
+            byte[] data = outbound.poll();
+            boolean fin = localClosed && !finSent && outbound.isEmpty();
+            if (data == null && !fin)
+                return null;
+            if (fin)
+                finSent = true;
+
+            Packet p = new Packet(Packet.PACKET_TYPE.Stream, "");
+            p.streamID = streamID;
+            p.packetByteArray = data == null ? new byte[0] : data;
+            p.packetBool = fin;
+            return p;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void dataReceived(byte[] data, boolean fin) {
+        lock.lock();
+        try {
+            if (data.length > 0)
+                inbound.add(data);
+            if (fin)
+                remoteFinished = true;
+            dataAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void creditReceived(int credit) {
+        lock.lock();
+        try {
+            sendCredit += credit;
+            creditAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void fail(IOException e) {
+        lock.lock();
+        try {
+            if (failure == null)
+                failure = e;
+            outbound.clear();
+            creditAvailable.signalAll();
+            dataAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isFinished() {
+        lock.lock();
+        try {
+            return finSent && remoteFinished;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MultiplexedStream[" + streamID + "]";
+    }
+}
@@ -20,7 +20,6 @@
 package Netta.Connection;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
@@ -43,6 +42,27 @@ public class Packet implements Serializable {
 	public PublicKey packetKey;
 	public PACKET_TYPE packetType;
 	public byte[] packetByteArray;
+	/**
+	 * Correlates requests and responses. 0 for ordinary packets, a positive id
+	 * for a request sent with request(), and the negated id of the request
+	 * for its response.
+	 */
+	public int requestID;
+	/**
+	 * Logical stream a PACKET_TYPE.Stream packet belongs to. See
+	 * StreamMultiplexer.
+	 */
+	public int streamID;
+	/**
+	 * Topic of a PACKET_TYPE.Publish packet, or topic filter of a Subscribe
+	 * or Unsubscribe packet. See TopicRouter.
+	 */
+	public String topic;
+	/**
+	 * Numeric application message type registered in a MessageTypeRegistry,
+	 * or 0 for none. See MessageType.
+	 */
+	public int messageType;
 
 	/**
 	 * Default Constructor. Used to create a new packet for sending.
@@ -90,6 +110,10 @@ public class Packet implements Serializable {
 		this.packetKey = p.packetKey;
 		this.packetByteArray = p.packetByteArray;
 		this.packetStringArray = p.packetStringArray;
+		this.requestID = p.requestID;
+		this.streamID = p.streamID;
+		this.topic = p.topic;
+		this.messageType = p.messageType;
 	}
 
 	/**
@@ -102,13 +126,18 @@ public class Packet implements Serializable {
 	 *             Thrown if the method has an issue serializing the object
 	 */
 	public byte[] ToBytes() throws IOException {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		ObjectOutputStream os = new ObjectOutputStream(bos);
-		os.writeObject(this);
-		return bos.toByteArray();
+		PooledOutputStream bos = new PooledOutputStream();
+		try {
+			ObjectOutputStream os = new ObjectOutputStream(bos);
+			os.writeObject(this);
+			os.flush();
+			return bos.toByteArray();
+		} finally {
+			bos.release();
+		}
 	}
 
 	public enum PACKET_TYPE {
-		Registration, CloseConnection, Command, Handshake, Error, NULL, Message
+		Registration, CloseConnection, Command, Handshake, Error, NULL, Message, Stream, Heartbeat, Subscribe, Unsubscribe, Publish
 	}
 }
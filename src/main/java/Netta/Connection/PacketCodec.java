@@ -0,0 +1,370 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * Hand written binary codec for Packet. Used by the BINARY wire format in
+ * place of Java serialization.
+ * <p>
+ * Layout: [type ordinal byte][presence bitmask byte][present fields in bit
+ * order]. Lengths and packetInt are varints, strings are UTF-8, and
+ * packetByteArray is copied raw. A packetBool of true is carried by its bit
+ * alone. packetKey is written as its algorithm name followed by its X.509
+ * encoding.
+ * <p>
+ * Fields added later are flagged in a second bitmask byte, present only when
+ * the high bit of the type byte is set, and written after the fields of the
+ * first bitmask. Packets without those fields encode exactly as before.
+ */
+public final class PacketCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Packet.PACKET_TYPE[] TYPES = Packet.PACKET_TYPE.values();
+
+    private static final int SENDER_ID = 1;
+    private static final int PACKET_STRING = 1 << 1;
+    private static final int G_DATA = 1 << 2;
+    private static final int STRING_ARRAY = 1 << 3;
+    private static final int PACKET_INT = 1 << 4;
+    private static final int PACKET_BOOL = 1 << 5;
+    private static final int PACKET_KEY = 1 << 6;
+    private static final int BYTE_ARRAY = 1 << 7;
+
+    // High bit of the type byte: an extended bitmask byte follows the bitmask
+    private static final int EXTENDED = 0x80;
+    private static final int REQUEST_ID = 1;
+    private static final int STREAM_ID = 1 << 1;
+    private static final int TOPIC = 1 << 2;
+    private static final int MESSAGE_TYPE = 1 << 3;
+
+    private PacketCodec() {
+    }
+
+    /**
+     * Encode a packet to bytes
+     *
+     * @param p packet to encode
+     * @return byte[] encoded packet
+     */
+    public static byte[] encode(Packet p) {
+        Writer w = write(p);
+        try {
+            return w.toByteArray();
+        } finally {
+            w.release();
+        }
+    }
+
+    /**
+     * Encode a packet into a buffer from BufferPool, which goes back to the
+     * pool when the frame is released
+     *
+     * @param p packet to encode
+     * @return Frame holding the encoded packet
+     */
+    static Frame encodeFrame(Packet p) {
+        Writer w = write(p);
+        return Frame.pooled(w.buf, w.pos);
+    }
+
+    private static Writer write(Packet p) {
+        int mask = 0;
+        if (p.senderID != null)
+            mask |= SENDER_ID;
+        if (p.packetString != null)
+            mask |= PACKET_STRING;
+        if (p.gData != null && !p.gData.isEmpty())
+            mask |= G_DATA;
+        if (p.packetStringArray != null)
+            mask |= STRING_ARRAY;
+        if (p.packetInt != 0)
+            mask |= PACKET_INT;
+        if (p.packetBool)
+            mask |= PACKET_BOOL;
+        if (p.packetKey != null)
+            mask |= PACKET_KEY;
+        if (p.packetByteArray != null)
+            mask |= BYTE_ARRAY;
+
+        int extended = 0;
+        if (p.requestID != 0)
+            extended |= REQUEST_ID;
+        if (p.streamID != 0)
+            extended |= STREAM_ID;
+        if (p.topic != null)
+            extended |= TOPIC;
+        if (p.messageType != 0)
+            extended |= MESSAGE_TYPE;
+
+        Writer w = new Writer(p.packetByteArray == null ? 64 : p.packetByteArray.length + 64);
+        int type = p.packetType == null ? Packet.PACKET_TYPE.NULL.ordinal() : p.packetType.ordinal();
+        w.writeByte(extended == 0 ? type : type | EXTENDED);
+        w.writeByte(mask);
+        if (extended != 0)
+            w.writeByte(extended);
+        if ((mask & SENDER_ID) != 0)
+            w.writeString(p.senderID);
+        if ((mask & PACKET_STRING) != 0)
+            w.writeString(p.packetString);
+        if ((mask & G_DATA) != 0) {
+            w.writeVarInt(p.gData.size());
+            for (String s : p.gData)
+                w.writeString(s);
+        }
+        if ((mask & STRING_ARRAY) != 0) {
+            w.writeVarInt(p.packetStringArray.length);
+            for (String s : p.packetStringArray)
+                w.writeString(s);
+        }
+        if ((mask & PACKET_INT) != 0)
+            w.writeVarInt((p.packetInt << 1) ^ (p.packetInt >> 31));
+        if ((mask & PACKET_KEY) != 0) {
+            w.writeString(p.packetKey.getAlgorithm());
+            w.writeBytes(p.packetKey.getEncoded());
+        }
+        if ((mask & BYTE_ARRAY) != 0)
+            w.writeBytes(p.packetByteArray);
+        if ((extended & REQUEST_ID) != 0)
+            w.writeVarInt((p.requestID << 1) ^ (p.requestID >> 31));
+        if ((extended & STREAM_ID) != 0)
+            w.writeVarInt(p.streamID);
+        if ((extended & TOPIC) != 0)
+            w.writeString(p.topic);
+        if ((extended & MESSAGE_TYPE) != 0)
+            w.writeVarInt(p.messageType);
+        return w;
+    }
+
+    /**
+     * Decode a packet from bytes produced by encode(Packet)
+     *
+     * @param bytes encoded packet
+     * @return Packet decoded packet
+     * @throws IOException thrown if the bytes are not a valid encoded packet
+     */
+    public static Packet decode(byte[] bytes) throws IOException {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decode a packet from a region of a byte array
+     *
+     * @param bytes  array holding the encoded packet
+     * @param offset start of the encoded packet
+     * @param length length of the encoded packet
+     * @return Packet decoded packet
+     * @throws IOException thrown if the bytes are not a valid encoded packet
+     */
+    public static Packet decode(byte[] bytes, int offset, int length) throws IOException {
+        Reader r = new Reader(bytes, offset, length);
+        int type = r.readByte();
+        boolean hasExtended = (type & EXTENDED) != 0;
+        type &= ~EXTENDED;
+        if (type >= TYPES.length)
+            throw new IOException("Unknown packet type " + type + " in encoded packet.");
+        int mask = r.readByte();
+        int extended = hasExtended ? r.readByte() : 0;
+
+        Packet p = new Packet(TYPES[type], null);
+        if ((mask & SENDER_ID) != 0)
+            p.senderID = r.readString();
+        if ((mask & PACKET_STRING) != 0)
+            p.packetString = r.readString();
+        if ((mask & G_DATA) != 0) {
+            int size = r.readLength();
+            for (int i = 0; i < size; i++)
+                p.gData.add(r.readString());
+        }
+        if ((mask & STRING_ARRAY) != 0) {
+            p.packetStringArray = new String[r.readLength()];
+            for (int i = 0; i < p.packetStringArray.length; i++)
+                p.packetStringArray[i] = r.readString();
+        }
+        if ((mask & PACKET_INT) != 0) {
+            int zigzag = r.readVarInt();
+            p.packetInt = (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        p.packetBool = (mask & PACKET_BOOL) != 0;
+        if ((mask & PACKET_KEY) != 0) {
+            String algorithm = r.readString();
+            byte[] encoded = r.readBytes();
+            try {
+                p.packetKey = KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(encoded));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Unable to decode the public key in encoded packet.");
+            }
+        }
+        if ((mask & BYTE_ARRAY) != 0)
+            p.packetByteArray = r.readBytes();
+        if ((extended & REQUEST_ID) != 0) {
+            int zigzag = r.readVarInt();
+            p.requestID = (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        if ((extended & STREAM_ID) != 0)
+            p.streamID = r.readVarInt();
+        if ((extended & TOPIC) != 0)
+            p.topic = r.readString();
+        if ((extended & MESSAGE_TYPE) != 0)
+            p.messageType = r.readVarInt();
+        // Trailing bytes are ignored, Kript pads short plaintexts with zeros
+        return p;
+    }
+
+    private static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = BufferPool.acquire(capacity);
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        // Length is written +1 so that 0 can stand for a null string
+        void writeString(String s) {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            if (isAscii(s)) {
+                int length = s.length();
+                writeVarInt(length + 1);
+                ensure(length);
+                for (int i = 0; i < length; i++)
+                    buf[pos++] = (byte) s.charAt(i);
+                return;
+            }
+            byte[] bytes = s.getBytes(UTF8);
+            writeVarInt(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        void release() {
+            BufferPool.release(buf);
+            buf = null;
+        }
+
+        private void ensure(int needed) {
+            if (pos + needed > buf.length) {
+                byte[] grown = BufferPool.acquire(Math.max(buf.length * 2, pos + needed));
+                System.arraycopy(buf, 0, grown, 0, pos);
+                BufferPool.release(buf);
+                buf = grown;
+            }
+        }
+
+        private static boolean isAscii(String s) {
+            for (int i = 0; i < s.length(); i++)
+                if (s.charAt(i) >= 0x80)
+                    return false;
+            return true;
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        int remaining() {
+            return end - pos;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= end)
+                throw new IOException("Encoded packet ended unexpectedly.");
+            return buf[pos++] & 0xFF;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Malformed varint in encoded packet.");
+        }
+
+        int readLength() throws IOException {
+            int length = readVarInt();
+            if (length < 0 || length > remaining())
+                throw new IOException("Length " + length + " runs past the end of the encoded packet.");
+            return length;
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readLength();
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt() - 1;
+            if (length == -1)
+                return null;
+            if (length < 0 || length > remaining())
+                throw new IOException("String length runs past the end of the encoded packet.");
+            String s = new String(buf, pos, length, UTF8);
+            pos += length;
+            return s;
+        }
+    }
+}
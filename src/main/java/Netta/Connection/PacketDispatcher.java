@@ -0,0 +1,299 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import Netta.Logging.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Table of packet handlers, replacing if/else chains on Packet.packetType in
+ * ThreadAction and packetReceived. Handlers are found by the ordinal of the
+ * packet's type with a single array lookup. Packets of a registered
+ * MessageType are found the same way by their id, and take precedence. Command
+ * packets can also be handled per command name, carried in packetString.
+ * <p>
+ * Each handler runs in its own DispatchMode: inline on the receive loop, on a
+ * shared worker pool, or on the pool one packet at a time per connection.
+ * Packets without a handler are passed to the connection's ThreadAction or
+ * packetReceived as before.
+ * <p>
+ * One dispatcher can be shared by any number of connections. Handlers can be
+ * registered and removed at any time.
+ */
+public class PacketDispatcher {
+
+    private static final Log log = Log.get(PacketDispatcher.class);
+    private static final Packet.PACKET_TYPE[] TYPES = Packet.PACKET_TYPE.values();
+
+    private final Executor workers;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Replaced as a whole on every change, so dispatching never locks
+    private volatile Registration[] handlers = new Registration[TYPES.length];
+    private volatile Registration[] messages = new Registration[0];
+    private final ConcurrentHashMap<String, Registration> commands = new ConcurrentHashMap<String, Registration>();
+
+    /**
+     * Dispatcher running WORKER_POOL and SERIAL handlers on
+     * ConnectionExecutors.handlers()
+     */
+    public PacketDispatcher() {
+        this(ConnectionExecutors.handlers());
+    }
+
+    /**
+     * Dispatcher running WORKER_POOL and SERIAL handlers on a given executor
+     *
+     * @param workers executor for handlers that do not run inline
+     */
+    public PacketDispatcher(Executor workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Handle every packet of a type inline on the receive loop
+     *
+     * @param type    packet type to handle
+     * @param handler handler for the packets
+     */
+    public void register(Packet.PACKET_TYPE type, PacketHandler handler) {
+        register(type, DispatchMode.INLINE, handler);
+    }
+
+    /**
+     * Handle every packet of a type, replacing any handler the type had
+     *
+     * @param type    packet type to handle
+     * @param mode    where the handler runs
+     * @param handler handler for the packets
+     */
+    public void register(Packet.PACKET_TYPE type, DispatchMode mode, PacketHandler handler) {
+        Registration registration = new Registration(type.toString(), mode, handler);
+        lock.lock();
+        try {
+            Registration[] updated = handlers.clone();
+            updated[type.ordinal()] = registration;
+            handlers = updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop handling a packet type. Its packets go back to ThreadAction or
+     * packetReceived.
+     *
+     * @param type packet type
+     */
+    public void unregister(Packet.PACKET_TYPE type) {
+        lock.lock();
+        try {
+            Registration[] updated = handlers.clone();
+            updated[type.ordinal()] = null;
+            handlers = updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Handle Command packets whose packetString is a command name inline on
+     * the receive loop
+     *
+     * @param command command name
+     * @param handler handler for the packets
+     */
+    public void registerCommand(String command, PacketHandler handler) {
+        registerCommand(command, DispatchMode.INLINE, handler);
+    }
+
+    /**
+     * Handle Command packets whose packetString is a command name. Takes
+     * precedence over a handler registered for PACKET_TYPE.Command.
+     *
+     * @param command command name
+     * @param mode    where the handler runs
+     * @param handler handler for the packets
+     */
+    public void registerCommand(String command, DispatchMode mode, PacketHandler handler) {
+        commands.put(command, new Registration("Command " + command, mode, handler));
+    }
+
+    /**
+     * Stop handling a command name
+     *
+     * @param command command name
+     */
+    public void unregisterCommand(String command) {
+        commands.remove(command);
+    }
+
+    /**
+     * Handle every message of a MessageType inline on the receive loop
+     *
+     * @param type    message type to handle
+     * @param handler handler for the messages
+     * @param <T>     class of the messages
+     */
+    public <T> void register(MessageType<T> type, MessageHandler<T> handler) {
+        register(type, DispatchMode.INLINE, handler);
+    }
+
+    /**
+     * Handle every message of a MessageType, replacing any handler the type
+     * had. The handler is given the message read by the type's schema.
+     *
+     * @param type    message type to handle
+     * @param mode    where the handler runs
+     * @param handler handler for the messages
+     * @param <T>     class of the messages
+     */
+    public <T> void register(final MessageType<T> type, DispatchMode mode, final MessageHandler<T> handler) {
+        Registration registration = new Registration(type.toString(), mode, new PacketHandler() {
+            public void handle(Connection connection, Packet p) {
+                handler.handle(connection, type.fromPacket(p));
+            }
+        });
+        lock.lock();
+        try {
+            Registration[] updated = new Registration[Math.max(messages.length, type.getId() + 1)];
+            System.arraycopy(messages, 0, updated, 0, messages.length);
+            updated[type.getId()] = registration;
+            messages = updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop handling a MessageType. Its packets go to the handler of their
+     * packet type, if any.
+     *
+     * @param type message type
+     */
+    public void unregister(MessageType<?> type) {
+        lock.lock();
+        try {
+            if (type.getId() < messages.length) {
+                Registration[] updated = messages.clone();
+                updated[type.getId()] = null;
+                messages = updated;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check whether packets of a type have a handler
+     *
+     * @param type packet type
+     * @return True if the type has a handler
+     */
+    public boolean isRegistered(Packet.PACKET_TYPE type) {
+        return handlers[type.ordinal()] != null;
+    }
+
+    /**
+     * Pass a packet to its handler. Called by the receive loops for every
+     * packet the connection itself did not consume.
+     *
+     * @param connection connection the packet was received on
+     * @param p          packet received
+     * @return True if the packet had a handler, false if it should go to
+     * ThreadAction or packetReceived
+     */
+    public boolean dispatch(Connection connection, Packet p) {
+        if (p.packetType == null)
+            return false;
+        Registration registration = null;
+        int messageType = p.messageType;
+        if (messageType > 0) {
+            Registration[] byMessage = messages;
+            if (messageType < byMessage.length)
+                registration = byMessage[messageType];
+        }
+        if (registration == null && p.packetType == Packet.PACKET_TYPE.Command && p.packetString != null && !commands.isEmpty())
+            registration = commands.get(p.packetString);
+        if (registration == null)
+            registration = handlers[p.packetType.ordinal()];
+        if (registration == null)
+            return false;
+
+        switch (registration.mode) {
+            case WORKER_POOL:
+                execute(workers, registration, connection, p);
+                break;
+            case SERIAL:
+                execute(connection.serialExecutor(workers), registration, connection, p);
+                break;
+            default:
+                registration.run(connection, p);
+        }
+        return true;
+    }
+
+    private static void execute(Executor executor, Registration registration, Connection connection, Packet p) {
+        try {
+            executor.execute(new Task(registration, connection, p));
+        } catch (RejectedExecutionException e) {
+            log.warn("Packet handler for {} was refused by its executor. Packet dropped.", registration.name);
+        }
+    }
+
+    private static final class Registration {
+        final String name;
+        final DispatchMode mode;
+        final PacketHandler handler;
+
+        Registration(String name, DispatchMode mode, PacketHandler handler) {
+            this.name = name;
+            this.mode = mode;
+            this.handler = handler;
+        }
+
+        void run(Connection connection, Packet p) {
+            try {
+                handler.handle(connection, p);
+            } catch (RuntimeException e) {
+                log.warn("Packet handler for " + name + " failed.", e);
+            }
+        }
+    }
+
+    private static final class Task implements Runnable {
+        private final Registration registration;
+        private final Connection connection;
+        private final Packet packet;
+
+        Task(Registration registration, Connection connection, Packet packet) {
+            this.registration = registration;
+            this.connection = connection;
+            this.packet = packet;
+        }
+
+        public void run() {
+            registration.run(connection, packet);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import Netta.Exceptions.ConnectionException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Requests of one connection that are waiting for their response, keyed by
+ * request id. An open addressing table of primitive ints, so matching a
+ * response to its request allocates nothing.
+ */
+class PendingRequests {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger nextID = new AtomicInteger();
+    // Linear probing table. A key of 0 marks an empty slot, request ids are
+    // never 0
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private Request[] values = new Request[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Register a new request
+     *
+     * @param timeoutMillis time allowed for the response, 0 for no limit
+     * @return Request holding the new id and the future of the response
+     */
+    Request add(long timeoutMillis) {
+        final Request request = new Request(newID());
+        lock.lock();
+        try {
+            if ((size + 1) * 2 > keys.length)
+                resize(keys.length * 2);
+            insert(request.id, request);
+            size++;
+        } finally {
+            lock.unlock();
+        }
+
+        if (timeoutMillis > 0) {
+            request.timeout = ConnectionExecutors.scheduler().schedule(new Runnable() {
+                public void run() {
+                    if (remove(request.id) != null)
+                        request.future.completeExceptionally(
+                                new TimeoutException("No response to request " + request.id + " within the timeout."));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return request;
+    }
+
+    /**
+     * Complete the request a response belongs to
+     *
+     * @param p response packet, carrying the negated request id
+     * @return True if a waiting request was completed, false if none was
+     * waiting, for example because it already timed out
+     */
+    boolean complete(Packet p) {
+        Request request = remove(-p.requestID);
+        if (request == null)
+            return false;
+        request.cancelTimeout();
+        request.future.complete(p);
+        return true;
+    }
+
+    /**
+     * Fail a single request, for example because it could not be sent
+     *
+     * @param id    request id
+     * @param cause reason for the failure
+     */
+    void fail(int id, Throwable cause) {
+        Request request = remove(id);
+        if (request == null)
+            return;
+        request.cancelTimeout();
+        request.future.completeExceptionally(cause);
+    }
+
+    /**
+     * Fail every waiting request. Called when the connection closes.
+     */
+    void failAll() {
+        Request[] waiting;
+        lock.lock();
+        try {
+            waiting = values;
+            keys = new int[INITIAL_CAPACITY];
+            values = new Request[INITIAL_CAPACITY];
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+        for (Request request : waiting) {
+            if (request == null)
+                continue;
+            request.cancelTimeout();
+            request.future.completeExceptionally(
+                    new ConnectionException("Connection closed before request " + request.id + " was answered."));
+        }
+    }
+
+    /**
+     * Get the number of requests waiting for a response
+     *
+     * @return int requests in flight
+     */
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int newID() {
+        int id;
+        do {
+            id = nextID.incrementAndGet() & Integer.MAX_VALUE;
+        } while (id == 0);
+        return id;
+    }
+
+    private Request remove(int id) {
+        if (id <= 0)
+            return null;
+        lock.lock();
+        try {
+            int mask = keys.length - 1;
+            int slot = slot(id, mask);
+            while (keys[slot] != 0) {
+                if (keys[slot] == id) {
+                    Request request = values[slot];
+                    keys[slot] = 0;
+                    values[slot] = null;
+                    size--;
+                    closeGap(slot, mask);
+                    return request;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Backward shift deletion: moves later entries of the probe run into the
+    // freed slot, so lookups never need tombstones
+    private void closeGap(int free, int mask) {
+        int slot = (free + 1) & mask;
+        while (keys[slot] != 0) {
+            int home = slot(keys[slot], mask);
+            boolean movable = free <= slot ? (home <= free || home > slot) : (home <= free && home > slot);
+            if (movable) {
+                keys[free] = keys[slot];
+                values[free] = values[slot];
+                keys[slot] = 0;
+                values[slot] = null;
+                free = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void insert(int id, Request request) {
+        int mask = keys.length - 1;
+        int slot = slot(id, mask);
+        while (keys[slot] != 0)
+            slot = (slot + 1) & mask;
+        keys[slot] = id;
+        values[slot] = request;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Request[] oldValues = values;
+        keys = new int[capacity];
+        values = new Request[capacity];
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != 0)
+                insert(oldKeys[i], oldValues[i]);
+    }
+
+    private static int slot(int id, int mask) {
+        // Spread sequential ids across the table
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    static class Request {
+        final int id;
+        final CompletableFuture<Packet> future = new CompletableFuture<Packet>();
+        volatile ScheduledFuture<?> timeout;
+
+        Request(int id) {
+            this.id = id;
+        }
+
+        void cancelTimeout() {
+            ScheduledFuture<?> t = timeout;
+            if (t != null)
+                t.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * ByteArrayOutputStream replacement that collects its bytes in buffers from
+ * BufferPool. release() must be called once the bytes have been copied out.
+ */
+final class PooledOutputStream extends OutputStream {
+
+    private byte[] buf = BufferPool.acquire(BufferPool.MIN_BUFFER_BYTES);
+    private int count;
+
+    @Override
+    public void write(int b) {
+        ensure(1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensure(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    void release() {
+        BufferPool.release(buf);
+        buf = null;
+    }
+
+    private void ensure(int needed) {
+        if (count + needed > buf.length) {
+            byte[] grown = BufferPool.acquire(Math.max(buf.length * 2, count + needed));
+            System.arraycopy(buf, 0, grown, 0, count);
+            BufferPool.release(buf);
+            buf = grown;
+        }
+    }
+}
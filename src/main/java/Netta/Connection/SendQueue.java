@@ -0,0 +1,236 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import Netta.Exceptions.SendPacketException;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of packets waiting to be written by a connection. Any number
+ * of threads add packets with sendPacketAsync; a single writer task drains
+ * them, writing everything queued as one batch with a single flush. The writer
+ * runs on the shared writer pool only while there is something to write, so
+ * idle connections hold no thread.
+ * <p>
+ * The getters report the queue depth and what happened to queued packets, for
+ * spotting slow consumers.
+ */
+public class SendQueue {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    // Most packets written between two flushes by the writer
+    private static final int MAX_BATCH = 256;
+
+    private final Connection connection;
+    private final ArrayBlockingQueue<Entry> queue;
+    private final BackPressure backPressure;
+    private final Executor writer;
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final ArrayList<Entry> batch = new ArrayList<Entry>();
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    SendQueue(Connection connection, int capacity, BackPressure backPressure) {
+        this.connection = connection;
+        this.queue = new ArrayBlockingQueue<Entry>(Math.max(1, capacity));
+        this.backPressure = backPressure;
+        this.writer = ConnectionExecutors.writers();
+    }
+
+    CompletableFuture<Void> add(Packet p, boolean encrypted) {
+        return add(new Entry(p, null, encrypted), backPressure);
+    }
+
+    CompletableFuture<Void> add(EncodedPacket p, boolean encrypted) {
+        return add(new Entry(p.getPacket(), p, encrypted), backPressure);
+    }
+
+    // Never waits: a full queue refuses the packet whatever the BackPressure
+    CompletableFuture<Void> offer(EncodedPacket p, boolean encrypted) {
+        return add(new Entry(p.getPacket(), p, encrypted), BackPressure.FAIL_FAST);
+    }
+
+    private CompletableFuture<Void> add(Entry entry, BackPressure backPressure) {
+        switch (backPressure) {
+            case BLOCK:
+                try {
+                    queue.put(entry);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected.incrementAndGet();
+                    entry.future.completeExceptionally(
+                            new SendPacketException("Interrupted while waiting for room in the send queue."));
+                    return entry.future;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(entry)) {
+                    Entry oldest = queue.poll();
+                    if (oldest != null) {
+                        dropped.incrementAndGet();
+                        oldest.future.completeExceptionally(
+                                new SendPacketException("Packet dropped from a full send queue. PacketType: "
+                                        + oldest.packet.packetType));
+                    }
+                }
+                break;
+            default:
+                if (!queue.offer(entry)) {
+                    rejected.incrementAndGet();
+                    entry.future.completeExceptionally(new SendPacketException(
+                            "Send queue is full. PacketType: " + entry.packet.packetType + ". Queue capacity: " + getCapacity()));
+                    return entry.future;
+                }
+        }
+
+        int depth = queue.size();
+        int max = maxDepth.get();
+        while (depth > max && !maxDepth.compareAndSet(max, depth))
+            max = maxDepth.get();
+
+        if (draining.compareAndSet(false, true))
+            writer.execute(drain);
+        return entry.future;
+    }
+
+    /**
+     * Fail every queued packet. Called when the connection closes.
+     */
+    void close() {
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            failed.incrementAndGet();
+            entry.future.completeExceptionally(new SendPacketException(
+                    "Connection closed before the packet was sent. PacketType: " + entry.packet.packetType));
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            queue.drainTo(batch, MAX_BATCH);
+            if (batch.isEmpty()) {
+                draining.set(false);
+                // A packet queued after drainTo but before the flag was
+                // cleared would otherwise wait for the next send
+                if (queue.isEmpty() || !draining.compareAndSet(false, true))
+                    return;
+                continue;
+            }
+
+            int written = connection.writeQueued(batch);
+            sent.addAndGet(written);
+            failed.addAndGet(batch.size() - written);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Get the number of packets waiting to be written
+     *
+     * @return int current queue depth
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get the largest queue depth seen since the queue was created
+     *
+     * @return int highest queue depth
+     */
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    public int getCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    public BackPressure getBackPressure() {
+        return backPressure;
+    }
+
+    /**
+     * Get the number of queued packets written to the socket
+     *
+     * @return long packets sent
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * Get the number of packets dropped by DROP_OLDEST
+     *
+     * @return long packets dropped
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the number of packets refused by FAIL_FAST, or interrupted while
+     * waiting under BLOCK
+     *
+     * @return long packets refused
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Get the number of queued packets that failed to encode or write, or
+     * were still queued when the connection closed
+     *
+     * @return long packets failed
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    static class Entry {
+        final Packet packet;
+        // Set when the packet was encoded once for many connections
+        final EncodedPacket encoded;
+        final boolean encrypted;
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+        Entry(Packet packet, EncodedPacket encoded, boolean encrypted) {
+            this.packet = packet;
+            this.encoded = encoded;
+            this.encrypted = encrypted;
+        }
+    }
+}
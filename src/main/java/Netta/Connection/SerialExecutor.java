@@ -0,0 +1,92 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on a shared
+ * executor. Only holds a thread while it has tasks queued. Tasks beyond
+ * MAX_BACKLOG are rejected, so one slow connection cannot queue without limit.
+ */
+final class SerialExecutor implements Executor {
+
+    /**
+     * Most tasks waiting to run at once
+     */
+    static final int MAX_BACKLOG = 1024;
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    public void execute(Runnable task) {
+        if (backlog.incrementAndGet() > MAX_BACKLOG) {
+            backlog.decrementAndGet();
+            throw new RejectedExecutionException("More than " + MAX_BACKLOG + " tasks are waiting to run.");
+        }
+        tasks.add(task);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(drain);
+            } catch (RuntimeException e) {
+                draining.set(false);
+                // The caller is told the task was refused, so it must not
+                // run later either
+                if (tasks.remove(task))
+                    backlog.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                backlog.decrementAndGet();
+                task.run();
+            }
+            draining.set(false);
+            // A task added after the last poll but before the flag was
+            // cleared would otherwise wait for the next execute
+            if (tasks.isEmpty() || !draining.compareAndSet(false, true))
+                return;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent registry of the clients connected to a MultiClientServer, keyed
+ * by a connection id unique within the registry. Adding and removing a
+ * client are O(1) and never take a global lock, and iterating over
+ * getClients() never blocks connects or closes, so the registry scales to
+ * very large numbers of clients.
+ * <p>
+ * Clients are removed automatically when their connection is closed.
+ */
+public class ClientRegistry {
+
+    private final ConcurrentHashMap<Long, ConnectedClient> clients = new ConcurrentHashMap<Long, ConnectedClient>();
+    private final Collection<ConnectedClient> view = Collections.unmodifiableCollection(clients.values());
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicInteger handShaking = new AtomicInteger();
+
+    /**
+     * Add a client, giving it a connection id. A client whose connection has
+     * already closed is not added.
+     *
+     * @param client client whose HandShake is complete
+     * @return long connection id of the client, or 0 if it was not added
+     */
+    public long add(ConnectedClient client) {
+        long id = nextId.incrementAndGet();
+        if (!client.registered(this, id))
+            return 0;
+        clients.put(id, client);
+        // The client may have closed between the check and the put, in which
+        // case its own removal found nothing to remove
+        if (client.getState() == ClientState.CLOSED) {
+            clients.remove(id, client);
+            return 0;
+        }
+        return id;
+    }
+
+    /**
+     * Remove a client. Called automatically when its connection closes.
+     *
+     * @param client client to remove
+     * @return True if the client was registered here, else false
+     */
+    public boolean remove(ConnectedClient client) {
+        long id = client.getConnectionId();
+        return id != 0 && clients.remove(id, client);
+    }
+
+    /**
+     * Get a client by its connection id
+     *
+     * @param id connection id given by add(ConnectedClient)
+     * @return ConnectedClient, or null if no client has the id
+     */
+    public ConnectedClient get(long id) {
+        return clients.get(id);
+    }
+
+    /**
+     * Get a live, read only view of the registered clients. Iterating it
+     * never throws ConcurrentModificationException and never blocks; clients
+     * added or removed meanwhile may or may not be seen.
+     *
+     * @return Collection of the registered clients
+     */
+    public Collection<ConnectedClient> getClients() {
+        return view;
+    }
+
+    /**
+     * Copy the registered clients into a new list
+     *
+     * @return ArrayList of the clients registered at the time of the call
+     */
+    public ArrayList<ConnectedClient> snapshot() {
+        return new ArrayList<ConnectedClient>(clients.values());
+    }
+
+    /**
+     * Get the number of registered clients
+     *
+     * @return int registered clients
+     */
+    public int size() {
+        return clients.size();
+    }
+
+    /**
+     * Count the registered clients in a state
+     *
+     * @param state ClientState to count
+     * @return int number of clients in the state
+     */
+    public int count(ClientState state) {
+        int count = 0;
+        for (ConnectedClient client : clients.values())
+            if (client.getState() == state)
+                count++;
+        return count;
+    }
+
+    /**
+     * Get the number of accepted sockets whose HandShake is still running.
+     * Those clients are not registered yet.
+     *
+     * @return int HandShakes in progress
+     */
+    public int getHandShakingCount() {
+        return handShaking.get();
+    }
+
+    /**
+     * Remove every client whose connection is no longer active, such as
+     * clients whose socket was closed without closeIOStreams. Walks the whole
+     * registry, so it is only meant as an occasional sweep.
+     *
+     * @return int number of clients removed
+     */
+    public int removeInactive() {
+        int removed = 0;
+        for (ConnectedClient client : clients.values())
+            if (!client.isConnectionActive() && remove(client))
+                removed++;
+        return removed;
+    }
+
+    void handShakeStarted() {
+        handShaking.incrementAndGet();
+    }
+
+    void handShakeFinished() {
+        handShaking.decrementAndGet();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+/**
+ * Lifecycle of a ConnectedClient
+ */
+public enum ClientState {
+    /**
+     * Socket accepted, HandShake in progress
+     */
+    HANDSHAKING,
+    /**
+     * HandShake complete, packets flowing
+     */
+    ACTIVE,
+    /**
+     * closeIOStreams is flushing and closing the connection
+     */
+    CLOSING,
+    /**
+     * Connection closed, or the HandShake failed
+     */
+    CLOSED
+}
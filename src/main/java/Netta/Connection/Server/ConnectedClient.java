@@ -21,15 +21,40 @@ package Netta.Connection.Server;
 
 import Kript.Kript;
 import Netta.Connection.Connection;
+import Netta.Connection.ConnectionCrypto;
+import Netta.Connection.ConnectionKript;
+import Netta.Connection.KriptCrypto;
 import Netta.Connection.Packet;
+import Netta.Connection.SessionCipher;
+import Netta.Connection.WireFormat;
 import Netta.Exceptions.*;
+import Netta.Logging.Log;
 
 import java.net.Socket;
+import java.net.SocketException;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 public class ConnectedClient extends Connection implements Runnable {
 
+	private static final Log log = Log.get(ConnectedClient.class);
+
+	/**
+	 * Read timeout applied to the socket while the HandShake is running, so a
+	 * client that stops mid-HandShake cannot hold a thread forever. Only used
+	 * when the socket has no timeout of its own. SelectorServer closes clients
+	 * that have not finished their HandShake after the same time.
+	 */
+	public static final int HANDSHAKE_TIMEOUT_MILLIS = 10000;
+
 	private boolean handshakeComplete = false;
 	private boolean encryptedPacket = true;
+	private volatile ClientState state = ClientState.HANDSHAKING;
+	private volatile ClientRegistry registry;
+	private volatile long connectionId = 0;
+	private volatile TopicRouter topicRouter;
 
 	/**
 	 * ConnectedClient is designed to be used to handle each client on a server
@@ -41,39 +66,118 @@ public class ConnectedClient extends Connection implements Runnable {
 	 *            connection received by the server.
 	 * @param kript
 	 *            object being used by the server. Either create a new one per
-	 *            connection, or have the same for all connections.
+	 *            connection, or have the same for all connections. A shared
+	 *            ConnectionKript (the server's default) is derived into a
+	 *            per-connection context automatically.
 	 * @throws ConnectionInitializationException
 	 *             thrown if there is an error initializing the client. Details
 	 *             will be in getMessage().
 	 */
 	public ConnectedClient(Socket socket, Kript kript) throws ConnectionInitializationException {
-		super(kript);
+		this(socket, new KriptCrypto(kript), WireFormat.SERIALIZED);
+	}
+
+	/**
+	 * ConnectedClient using the server's crypto context, usually from
+	 * newConnectionKript(). A shared ConnectionKript is derived into a
+	 * per-connection context automatically.
+	 * 
+	 * @param socket
+	 *            connection received by the server.
+	 * @param kript
+	 *            crypto context for this connection
+	 * @throws ConnectionInitializationException
+	 *             thrown if there is an error initializing the client. Details
+	 *             will be in getMessage().
+	 */
+	public ConnectedClient(Socket socket, ConnectionCrypto kript) throws ConnectionInitializationException {
+		this(socket, kript, WireFormat.SERIALIZED);
+	}
+
+	/**
+	 * ConnectedClient using a specific wire format. The client on the other
+	 * end of the socket must use the same format. Usually called with the
+	 * server's getWireFormat().
+	 * 
+	 * @param socket
+	 *            connection received by the server.
+	 * @param kript
+	 *            object being used by the server. Either create a new one per
+	 *            connection, or have the same for all connections.
+	 * @param wireFormat
+	 *            WireFormat used to put packets on the wire
+	 * @throws ConnectionInitializationException
+	 *             thrown if there is an error initializing the client. Details
+	 *             will be in getMessage().
+	 */
+	public ConnectedClient(Socket socket, Kript kript, WireFormat wireFormat) throws ConnectionInitializationException {
+		this(socket, new KriptCrypto(kript), wireFormat);
+	}
+
+	/**
+	 * ConnectedClient using a specific wire format and crypto context. A
+	 * shared ConnectionKript is derived into a per-connection context
+	 * automatically.
+	 * 
+	 * @param socket
+	 *            connection received by the server.
+	 * @param kript
+	 *            crypto context for this connection
+	 * @param wireFormat
+	 *            WireFormat used to put packets on the wire
+	 * @throws ConnectionInitializationException
+	 *             thrown if there is an error initializing the client. Details
+	 *             will be in getMessage().
+	 */
+	public ConnectedClient(Socket socket, ConnectionCrypto kript, WireFormat wireFormat) throws ConnectionInitializationException {
+		super(kript instanceof ConnectionKript ? ((ConnectionKript) kript).derive() : kript);
+		setWireFormat(wireFormat);
 		connectedSocket = socket;
+		boolean handshakeTimeout = applyHandShakeTimeout(socket);
 		openIOStreams();
 		try {
 			HandShake();
 		} catch (HandShakeException e) {
-			System.err.println(e.getMessage());
+			log.warn(e.getMessage());
 			try {
 				closeIOStreams();
 			} catch (ConnectionException e1) {
-				System.err.println(e1.getMessage());
+				log.warn(e1.getMessage());
 			}
 			return;
 		}
+		if (handshakeTimeout) {
+			try {
+				socket.setSoTimeout((int) getReadIdleTimeout());
+			} catch (SocketException e) {
+			}
+		}
+	}
+
+	private static boolean applyHandShakeTimeout(Socket socket) {
+		try {
+			if (socket.getSoTimeout() != 0)
+				return false;
+			socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+			return true;
+		} catch (SocketException e) {
+			return false;
+		}
 	}
 
 	@Override
 	public void run() {
 		while (isConnectionActive()) {
 			try {
-				ThreadAction(receivePacket(encryptedPacket));
+				Packet p = receivePacket(encryptedPacket);
+				if (!handleInternalPacket(p) && !dispatchPacket(p))
+					ThreadAction(p);
 			} catch (ReadPacketException e) {
-				System.err.println(e.getMessage() + " Closing connection.");
+				log.debug("{} Closing connection.", e.getMessage());
 				try {
 					closeIOStreams();
 				} catch (ConnectionException e1) {
-					System.err.println(e.getMessage());
+					log.warn(e.getMessage());
 				}
 			}
 		}
@@ -87,18 +191,119 @@ public class ConnectedClient extends Connection implements Runnable {
 	 */
 	public void ThreadAction(Packet p) {
 		if (p.packetType == Packet.PACKET_TYPE.Message)
-			System.out.println(p.packetString);
+			log.info(p.packetString);
 		else if (p.packetType == Packet.PACKET_TYPE.CloseConnection) {
-			System.out.println("Client wishes to close connection. Closing.");
+			log.debug("Client wishes to close connection. Closing.");
 			try {
 				closeIOStreams();
 			} catch (ConnectionException e) {
-				System.err.println(e.getMessage());
+				log.warn(e.getMessage());
 			}
 		} else {
 		}
 	}
 
+	/**
+	 * Send a request using the EncryptedPacket setting, and get a future for
+	 * its response. See Connection.request(Packet, boolean).
+	 * 
+	 * @param p
+	 *            request packet. Its requestID is overwritten.
+	 * @return CompletableFuture of the response
+	 */
+	public CompletableFuture<Packet> request(Packet p) {
+		return request(p, encryptedPacket);
+	}
+
+	/**
+	 * Answer a request using the EncryptedPacket setting
+	 * 
+	 * @param request
+	 *            packet received from the client
+	 * @param response
+	 *            packet to answer with. Its requestID is overwritten.
+	 * @return boolean value based on the success of the send
+	 * @throws SendPacketException
+	 *             thrown when there is an error sending the response
+	 */
+	public boolean respond(Packet request, Packet response) throws SendPacketException {
+		return respond(request, response, encryptedPacket);
+	}
+
+	/**
+	 * Closes the connection like Connection.closeIOStreams(), and removes the
+	 * client from the ClientRegistry it was added to.
+	 * 
+	 * @throws ConnectionException
+	 *             if there is an issue closing the connection streams or
+	 *             connected socket
+	 */
+	@Override
+	public void closeIOStreams() throws ConnectionException {
+		if (state != ClientState.CLOSED)
+			state = ClientState.CLOSING;
+		try {
+			super.closeIOStreams();
+		} finally {
+			state = ClientState.CLOSED;
+			ClientRegistry r = registry;
+			if (r != null)
+				r.remove(this);
+			TopicRouter router = topicRouter;
+			if (router != null)
+				router.unsubscribeAll(this);
+		}
+	}
+
+	/**
+	 * Get where this client is in its lifecycle
+	 * 
+	 * @return ClientState of the client
+	 */
+	public ClientState getState() {
+		return state;
+	}
+
+	/**
+	 * Get the id the ClientRegistry gave this client
+	 * 
+	 * @return long connection id, or 0 if the client was never registered
+	 */
+	public long getConnectionId() {
+		return connectionId;
+	}
+
+	@Override
+	protected boolean handleInternalPacket(Packet p) {
+		if (super.handleInternalPacket(p))
+			return true;
+		TopicRouter router = topicRouter;
+		return router != null && router.packetReceived(this, p);
+	}
+
+	/**
+	 * Get the TopicRouter handling this client's Subscribe, Unsubscribe and
+	 * Publish packets
+	 * 
+	 * @return TopicRouter, or null if publish/subscribe is not used
+	 */
+	public TopicRouter getTopicRouter() {
+		return topicRouter;
+	}
+
+	void setTopicRouter(TopicRouter topicRouter) {
+		this.topicRouter = topicRouter;
+	}
+
+	// A client belongs to at most one registry, and never once closed
+	synchronized boolean registered(ClientRegistry registry, long id) {
+		if (state == ClientState.CLOSED || connectionId != 0)
+			return false;
+		this.registry = registry;
+		connectionId = id;
+		return true;
+	}
+
 	/**
 	 * Returns the value of EncryptedPacket. This value is what determines
 	 * whether the ReadPacket method will try to decrypt the data.
@@ -135,15 +340,17 @@ public class ConnectedClient extends Connection implements Runnable {
 		if (handshakeComplete)
 			throw new HandShakeException("Unable to HandShake with client. HandShake has already been completed.");
 
+		ArrayList<String> acceptedCapabilities;
 		try {
-			@SuppressWarnings("unused")
 			Packet clientHello = receivePacket(false);
+			acceptedCapabilities = acceptCapabilities(clientHello.gData);
 		} catch (ReadPacketException e) {
 			throw new HandShakeException("Unable to receive HandShake clientHello from connection. Terminating.");
 		}
 
 		try {
 			Packet serverHello = new Packet(Packet.PACKET_TYPE.Handshake, null);
+			serverHello.gData = acceptedCapabilities;
 			sendPacket(serverHello, false);
 		} catch (SendPacketException e) {
 			throw new HandShakeException("Unable to send HandShake serverHello to connection. Terminating.");
@@ -174,15 +381,32 @@ public class ConnectedClient extends Connection implements Runnable {
 			throw new HandShakeException("Unable to receive HandShake clientDone from connection. Terminating.");
 		}
 
+		byte[] sessionKey = null;
 		try {
 			Packet serverDone = new Packet(Packet.PACKET_TYPE.Handshake, null);
 			serverDone.packetString = "done";
+			if (hasCapability(SESSION_KEY_CAPABILITY)) {
+				sessionKey = SessionCipher.generateKey();
+				serverDone.packetByteArray = sessionKey;
+			}
 			sendPacket(serverDone, true);
 		} catch (SendPacketException e) {
 			throw new HandShakeException("Unable to send HandShake serverDone to connection. Terminating.");
+		} catch (NoSuchAlgorithmException e) {
+			throw new HandShakeException("Unable to generate HandShake session key. Terminating.");
+		}
+
+		if (sessionKey != null) {
+			try {
+				setSessionKey(sessionKey);
+			} catch (GeneralSecurityException e) {
+				throw new HandShakeException("Unable to create HandShake session cipher. Terminating.");
+			}
 		}
 
 		handshakeComplete = true;
-		System.out.println("HandShake with client complete!");
+		handShakeComplete();
+		state = ClientState.ACTIVE;
+		log.debug("HandShake with client complete! Client: {}", connectedSocket);
 	}
 }
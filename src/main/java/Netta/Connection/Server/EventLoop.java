@@ -0,0 +1,126 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import Netta.Logging.Log;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread of a SelectorServer. Owns the SelectionKeys of the
+ * clients registered with it and runs all of their reads, writes, HandShake
+ * steps and packet dispatch.
+ */
+class EventLoop implements Runnable {
+
+    private static final Log log = Log.get(EventLoop.class);
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<SelectorClient> pendingRegistrations = new ConcurrentLinkedQueue<SelectorClient>();
+    private final ConcurrentLinkedQueue<SelectorClient> pendingWrites = new ConcurrentLinkedQueue<SelectorClient>();
+    private volatile boolean running = true;
+    private Thread thread;
+
+    EventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    void start(String name) {
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Hand a newly accepted client to this loop. Safe to call from any thread.
+     */
+    void register(SelectorClient client) {
+        pendingRegistrations.add(client);
+        selector.wakeup();
+    }
+
+    /**
+     * Ask the loop to flush a client's write queue. Safe to call from any
+     * thread.
+     */
+    void requestWrite(SelectorClient client) {
+        if (Thread.currentThread() == thread) {
+            client.handleWrite();
+            return;
+        }
+        pendingWrites.add(client);
+        selector.wakeup();
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                log.error("Selector failed. Details: {}", e.getMessage());
+                break;
+            }
+
+            SelectorClient client;
+            while ((client = pendingRegistrations.poll()) != null) {
+                try {
+                    client.attach(this, client.getChannel().register(selector, SelectionKey.OP_READ, client));
+                } catch (ClosedChannelException e) {
+                    client.closeConnection();
+                }
+            }
+            while ((client = pendingWrites.poll()) != null)
+                client.handleWrite();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                client = (SelectorClient) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable())
+                        client.handleRead();
+                    if (key.isValid() && key.isWritable())
+                        client.handleWrite();
+                } catch (RuntimeException e) {
+                    log.warn("Error handling client {}. Closing connection. Details: {}", client, e);
+                    client.closeConnection();
+                }
+            }
+        }
+
+        for (SelectionKey key : selector.keys())
+            ((SelectorClient) key.attachment()).closeConnection();
+        try {
+            selector.close();
+        } catch (IOException e) {
+        }
+    }
+}
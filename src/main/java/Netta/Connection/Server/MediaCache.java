@@ -0,0 +1,203 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least recently used cache of memory-mapped media files, bounded by the total
+ * size of the mapped files. A file is mapped once and every client streaming
+ * it is served from the same mapping, so hot files are read from disk once no
+ * matter how many clients play them.
+ * <p>
+ * Files larger than the cache, or larger than a single mapping allows, are
+ * not cached. get(File) returns null for them and the caller should stream
+ * them straight from disk instead.
+ */
+public class MediaCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long cachedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Create a media cache of DEFAULT_MAX_BYTES
+     */
+    public MediaCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a media cache
+     *
+     * @param maxBytes maximum total size of the cached files
+     */
+    public MediaCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * Get a read only view of a media file, mapping it into the cache if it is
+     * not there yet. A file that changed on disk since it was mapped is mapped
+     * again. Each call returns its own view, so callers can move its position
+     * freely.
+     *
+     * @param file media file
+     * @return ByteBuffer view of the whole file, or null if the file is too
+     * large to cache
+     * @throws IOException thrown if the file cannot be read
+     */
+    public ByteBuffer get(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+                hits++;
+                return entry.buffer.duplicate();
+            }
+            if (entry != null)
+                remove(key);
+            misses++;
+        }
+
+        if (length > maxBytes || length > Integer.MAX_VALUE)
+            return null;
+
+        // Map outside the lock, so a slow disk does not hold up other files
+        MappedByteBuffer buffer;
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            channel.close();
+        }
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.length == length && entry.lastModified == lastModified)
+                return entry.buffer.duplicate();
+            if (entry != null)
+                remove(key);
+            evict(length);
+            entries.put(key, new Entry(buffer, length, lastModified));
+            cachedBytes += length;
+        }
+        return buffer.duplicate();
+    }
+
+    /**
+     * Drop a file from the cache
+     *
+     * @param file media file
+     * @throws IOException thrown if the file's path cannot be resolved
+     */
+    public void invalidate(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        synchronized (this) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Drop every file from the cache
+     */
+    public synchronized void clear() {
+        entries.clear();
+        cachedBytes = 0;
+    }
+
+    /**
+     * Get the total size of the cached files
+     *
+     * @return long cached bytes
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Get the maximum total size of the cached files
+     *
+     * @return long maximum cached bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the number of get(File) calls served from the cache
+     *
+     * @return long cache hits
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of get(File) calls that had to map the file
+     *
+     * @return long cache misses
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            cachedBytes -= entry.length;
+    }
+
+    private void evict(long needed) {
+        // Evicted mappings are released by the garbage collector once the
+        // last client streaming from them is done
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (cachedBytes + needed > maxBytes && iterator.hasNext()) {
+            cachedBytes -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    private static class Entry {
+        final MappedByteBuffer buffer;
+        final long length;
+        final long lastModified;
+
+        Entry(MappedByteBuffer buffer, long length, long lastModified) {
+            this.buffer = buffer;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import Netta.Connection.ConnectionCrypto;
+import Netta.Connection.MediaRange;
+import Netta.Connection.WireFormat;
+import Netta.Exceptions.ConnectionException;
+import Netta.Exceptions.ConnectionInitializationException;
+import Netta.Exceptions.ReadPacketException;
+import Netta.Exceptions.SendPacketException;
+import Netta.Logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+
+/**
+ * ConnectedClient used by MultiClientMediaServer. Instead of listening for
+ * packets, run() streams the client's media file and then closes the
+ * connection. Clients that negotiated the MediaRange capability are sent only
+ * the ranges they request.
+ */
+public class MediaConnectedClient extends ConnectedClient {
+
+    private static final Log log = Log.get(MediaConnectedClient.class);
+
+    private final MultiClientMediaServer server;
+
+    /**
+     * Create a media client and perform the HandShake
+     *
+     * @param socket     connection received by the server.
+     * @param kript      crypto context for this connection
+     * @param wireFormat WireFormat used for the HandShake
+     * @param server     server the media is streamed from
+     * @throws ConnectionInitializationException thrown if there is an error initializing the client.
+     *                                           Details will be in getMessage().
+     */
+    public MediaConnectedClient(Socket socket, ConnectionCrypto kript, WireFormat wireFormat, MultiClientMediaServer server)
+            throws ConnectionInitializationException {
+        super(socket, kript, wireFormat);
+        this.server = server;
+    }
+
+    @Override
+    public void run() {
+        if (!isConnectionActive())
+            return;
+
+        File mediaFile = server.getMediaFile(this);
+        try {
+            ArrayList<MediaRange> ranges = MediaStreamer.readRanges(this, getPacketEncrypted(), mediaFile.length());
+            for (MediaRange range : ranges)
+                server.streamMedia(mediaFile, range.getOffset(), range.getLength(), connectedSocket);
+            connectedSocket.shutdownOutput();
+        } catch (ReadPacketException e) {
+            log.warn("Unable to read the media range request. {}", e.getMessage());
+        } catch (SendPacketException e) {
+            log.warn("Unable to confirm the media range request. {}", e.getMessage());
+        } catch (IOException e) {
+            log.warn("Error streaming media to Client.", e);
+        }
+
+        log.debug("Stream to {} complete.", connectedSocket);
+        try {
+            closeIOStreams();
+        } catch (ConnectionException e) {
+        }
+    }
+
+    @Override
+    protected ArrayList<String> getCapabilities() {
+        ArrayList<String> capabilities = super.getCapabilities();
+        capabilities.add(MediaRange.CAPABILITY);
+        // The media is streamed straight over the socket after the
+        // HandShake, where a heartbeat packet would corrupt it
+        capabilities.remove(HEARTBEAT_CAPABILITY);
+        return capabilities;
+    }
+
+    /**
+     * Get the socket this client is streamed to
+     *
+     * @return Socket connected to the client
+     */
+    public Socket getSocket() {
+        return connectedSocket;
+    }
+}
@@ -1,21 +1,27 @@
 package Netta.Connection.Server;
 
+import Netta.Connection.MediaRange;
 import Netta.Exceptions.ConnectionException;
 import Netta.Exceptions.ConnectionInitializationException;
 import Netta.Exceptions.HandShakeException;
+import Netta.Exceptions.ReadPacketException;
+import Netta.Exceptions.SendPacketException;
 import Netta.Exceptions.ServerInitializeException;
+import Netta.Logging.Log;
 
 import java.io.*;
 import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 
 /**
  * Created by Austin on 2/20/2017.
  */
 public class MediaServer extends SingleClientServer {
 
-    private FileInputStream in;
-    private OutputStream out;
+    private static final Log log = Log.get(MediaServer.class);
+
     private File mediaFile;
     private boolean streaming = false;
 
@@ -23,7 +29,8 @@ public class MediaServer extends SingleClientServer {
      * Media Server. To start the server, simply create a new thread
      * object of this server and start it. Everything else takes care of itself.
      * The server does not automatically handle close connection. You must
-     * do that yourself.
+     * do that yourself. Clients are accepted through a ServerSocketChannel, so
+     * the media file is sent with FileChannel.transferTo.
      *
      * @param port      the server must host on
      * @param mediaFile File the server will be playing
@@ -32,48 +39,49 @@ public class MediaServer extends SingleClientServer {
     public MediaServer(int port, File mediaFile) throws NoSuchAlgorithmException {
         super(port);
         this.mediaFile = mediaFile;
+        setUseServerChannel(true);
     }
 
     @Override
     public void run() {
         if (isConnectionActive()) {
-            System.err.println("Cannot initialize Media server. Server is already running: " + serverSocket);
+            log.warn("Cannot initialize Media server. Server is already running: {}", serverSocket);
             return;
         }
 
-        System.out.println("MediaServer: Initializing Media server...");
+        log.info("Initializing Media server...");
         try {
             Init();
-            System.out.println("MediaServer: Server Initialized.");
+            log.info("Server Initialized.");
             threadActive = true;
         } catch (ServerInitializeException e) {
-            System.err.println("MediaServer: " + e.getMessage());
+            log.error(e.getMessage());
             return;
         }
 
-        System.out.println("MediaServer: Waiting for client connection...");
+        log.info("Waiting for client connection...");
 
         while (threadActive) {
             streaming = true;
             while (connectedSocket == null || !this.isConnectionActive()) {
                 try {
                     connectedSocket = serverSocket.accept();
+                    getMetrics().connectionAccepted();
                     openIOStreams();
-                    System.out.println("MediaServer: Client connection caught and initialized. Client: " + connectedSocket);
-                    System.out.println("MediaServer: Connection with " + connectedSocket + " now listening for incoming packets.");
+                    log.debug("Client connection caught and initialized. Client: {}", connectedSocket);
                     HandShake();
                 } catch (SocketTimeoutException e) {
                 } catch (IOException e) {
-                    System.err.println("MediaServer: Error accepting a client. Connection refused and reset.");
+                    log.warn("Error accepting a client. Connection refused and reset.");
                     connectedSocket = null;
                     try {
                         Thread.sleep(3000);
                     } catch (InterruptedException e1) {
                     }
                 } catch (ConnectionInitializationException e) {
-                    System.err.println("MediaServer: " + e.getMessage() + " Connection refused and reset.");
+                    log.warn("{} Connection refused and reset.", e.getMessage());
                 } catch (HandShakeException e) {
-                    System.err.println("MediaServer: " + e.getMessage());
+                    log.warn(e.getMessage());
                 }
             }
 
@@ -85,7 +93,7 @@ public class MediaServer extends SingleClientServer {
             startStreaming();
             streaming = false;
 
-            System.out.println("MediaServer: Stream complete. Closing down server.");
+            log.info("Stream complete. Closing down server.");
             try {
                 this.closeIOStreams();
             } catch (ConnectionException e) {
@@ -98,33 +106,44 @@ public class MediaServer extends SingleClientServer {
     }
 
     private void startStreaming() {
-        // Assign input and output streams
+        FileChannel file;
         try {
-            in = new FileInputStream(mediaFile);
-            out = this.connectedSocket.getOutputStream();
+            file = new FileInputStream(mediaFile).getChannel();
         } catch (FileNotFoundException e) {
-            System.err.println("MediaServer: Media file not found!");
-            return;
-        } catch (IOException e) {
-            System.err.println("MediaServer: Unable to obtain output stream!");
+            log.warn("Media file not found!");
             return;
         }
 
-        byte buffer[] = new byte[2048];
-        int count;
         try {
-            while ((count = in.read(buffer)) != -1)
-                out.write(buffer, 0, count);
+            ArrayList<MediaRange> ranges = MediaStreamer.readRanges(this, true, file.size());
+            for (MediaRange range : ranges)
+                MediaStreamer.stream(file, range.getOffset(), range.getLength(), connectedSocket);
+        } catch (ReadPacketException e) {
+            log.warn("Unable to read the media range request. {}", e.getMessage());
+        } catch (SendPacketException e) {
+            log.warn("Unable to confirm the media range request. {}", e.getMessage());
         } catch (IOException e) {
-            System.err.println("MediaServer: Error streaming media to Client. Details: ");
-            e.printStackTrace();
+            log.warn("Error streaming media to Client.", e);
         }
 
         try {
-            out.flush();
-            out.close();
+            file.close();
         } catch (IOException e) {
         }
+        try {
+            connectedSocket.shutdownOutput();
+        } catch (IOException e) {
+        }
+    }
+
+    @Override
+    protected ArrayList<String> getCapabilities() {
+        ArrayList<String> capabilities = super.getCapabilities();
+        capabilities.add(MediaRange.CAPABILITY);
+        // The media is streamed straight over the socket after the
+        // HandShake, where a heartbeat packet would corrupt it
+        capabilities.remove(HEARTBEAT_CAPABILITY);
+        return capabilities;
     }
 
     public boolean isStreaming() {
@@ -0,0 +1,175 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import Netta.Connection.Connection;
+import Netta.Connection.MediaRange;
+import Netta.Connection.Packet;
+import Netta.Exceptions.ReadPacketException;
+import Netta.Exceptions.SendPacketException;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Copies media files to client sockets. When the socket has a channel (it was
+ * accepted from a ServerSocketChannel, see ServerTemplate.setUseServerChannel)
+ * the file is sent with FileChannel.transferTo, which lets the kernel move the
+ * file straight from the page cache to the socket. Otherwise the file is
+ * copied through a large pooled direct buffer. Files already in memory, such
+ * as mappings held by MediaCache, are written to the socket directly.
+ */
+public final class MediaStreamer {
+
+    public static final int BUFFER_BYTES = 256 * 1024;
+    private static final int POOLED_BUFFERS = 16;
+
+    private static final ArrayBlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<ByteBuffer>(POOLED_BUFFERS);
+
+    private MediaStreamer() {
+    }
+
+    /**
+     * Stream part of a file to a socket
+     *
+     * @param file     open channel of the media file
+     * @param position first byte of the file to send
+     * @param count    number of bytes to send
+     * @param socket   connected client socket
+     * @return long number of bytes sent. Less than count only if the file is shorter.
+     * @throws IOException thrown if reading the file or writing to the socket fails
+     */
+    public static long stream(FileChannel file, long position, long count, Socket socket) throws IOException {
+        count = Math.max(0, Math.min(count, file.size() - position));
+        SocketChannel channel = socket.getChannel();
+        if (channel != null && channel.isBlocking())
+            return transfer(file, position, count, channel);
+        return copy(file, position, count, Channels.newChannel(socket.getOutputStream()));
+    }
+
+    /**
+     * Stream part of an in-memory media file, such as a mapping from
+     * MediaCache, to a socket. The buffer's position and limit are ignored
+     * and left untouched.
+     *
+     * @param media    whole media file
+     * @param position first byte of the file to send
+     * @param count    number of bytes to send
+     * @param socket   connected client socket
+     * @return long number of bytes sent. Less than count only if the file is shorter.
+     * @throws IOException thrown if writing to the socket fails
+     */
+    public static long stream(ByteBuffer media, long position, long count, Socket socket) throws IOException {
+        position = Math.max(0, Math.min(position, media.capacity()));
+        count = Math.max(0, Math.min(count, media.capacity() - position));
+        ByteBuffer slice = media.duplicate();
+        slice.limit((int) (position + count));
+        slice.position((int) position);
+
+        SocketChannel channel = socket.getChannel();
+        WritableByteChannel target = channel != null && channel.isBlocking() ? channel
+                : Channels.newChannel(socket.getOutputStream());
+        while (slice.hasRemaining())
+            target.write(slice);
+        return count;
+    }
+
+    /**
+     * Work out which ranges of a media file to send a client. Called right
+     * after the HandShake. If the client negotiated the MediaRange capability,
+     * its range request is read and the ranges that will be sent, cut short at
+     * the end of the file, are confirmed back to it. Otherwise the whole file
+     * is sent.
+     *
+     * @param connection server side of the connection
+     * @param encrypted  whether the request and reply are encrypted
+     * @param fileLength size of the media file
+     * @return ArrayList of the ranges to stream, in order
+     * @throws ReadPacketException thrown if the range request cannot be read
+     * @throws SendPacketException thrown if the reply cannot be sent
+     * @throws IOException         thrown if the request is not a valid range request
+     */
+    static ArrayList<MediaRange> readRanges(Connection connection, boolean encrypted, long fileLength)
+            throws ReadPacketException, SendPacketException, IOException {
+        ArrayList<MediaRange> ranges = new ArrayList<MediaRange>();
+        if (!connection.hasCapability(MediaRange.CAPABILITY)) {
+            ranges.add(MediaRange.wholeFile().clamp(fileLength));
+            return ranges;
+        }
+
+        Packet request = connection.receivePacket(encrypted);
+        for (MediaRange range : MediaRange.fromPacket(request))
+            ranges.add(range.clamp(fileLength));
+        connection.sendPacket(MediaRange.toPacket("Server", ranges), encrypted);
+        return ranges;
+    }
+
+    private static long transfer(FileChannel file, long position, long count, SocketChannel channel) throws IOException {
+        long sent = 0;
+        while (sent < count) {
+            long n = file.transferTo(position + sent, count - sent, channel);
+            if (n <= 0 && position + sent >= file.size())
+                break;
+            sent += n;
+        }
+        return sent;
+    }
+
+    private static long copy(FileChannel file, long position, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            long sent = 0;
+            while (sent < count) {
+                buffer.clear();
+                if (count - sent < buffer.capacity())
+                    buffer.limit((int) (count - sent));
+                int n = file.read(buffer, position + sent);
+                if (n < 0)
+                    break;
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    target.write(buffer);
+                sent += n;
+            }
+            return sent;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null)
+            buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        return buffer;
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        bufferPool.offer(buffer);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import Netta.Connection.ConnectionExecutors;
+import Netta.Exceptions.ConnectionInitializationException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.NoSuchAlgorithmException;
+
+public class MultiClientMediaServer extends MultiClientServer {
+
+    private File mediaFile;
+    private MediaCache mediaCache;
+
+    /**
+     * Multiple Client Media Server. Serves any number of clients at once,
+     * each on its own thread, and keeps running after a stream completes. To
+     * start the server, simply create a new thread of this object and start
+     * the thread.
+     * <p>
+     * Media files are memory-mapped into a MediaCache the first time they are
+     * streamed, so clients playing the same file share one copy of it. Files
+     * too large for the cache are streamed from disk with
+     * FileChannel.transferTo.
+     *
+     * @param port      the server must host on
+     * @param mediaFile File the server will be playing
+     * @throws NoSuchAlgorithmException when there is an issue creating the RSA cipher.
+     */
+    public MultiClientMediaServer(int port, File mediaFile) throws NoSuchAlgorithmException {
+        this(port, mediaFile, new MediaCache());
+    }
+
+    /**
+     * Multiple Client Media Server using a specific cache. A cache can be
+     * shared between several servers.
+     *
+     * @param port       the server must host on
+     * @param mediaFile  File the server will be playing
+     * @param mediaCache cache the media files are mapped into
+     * @throws NoSuchAlgorithmException when there is an issue creating the RSA cipher.
+     */
+    public MultiClientMediaServer(int port, File mediaFile, MediaCache mediaCache) throws NoSuchAlgorithmException {
+        super(port);
+        this.mediaFile = mediaFile;
+        this.mediaCache = mediaCache;
+        setUseServerChannel(true);
+        setClientExecutor(ConnectionExecutors.platformThreadPerTask());
+    }
+
+    /**
+     * Get the file to stream to a client. By default, every client is sent
+     * the file given to the constructor. Override to serve different files to
+     * different clients.
+     *
+     * @param client client about to be streamed to
+     * @return File to stream
+     */
+    protected File getMediaFile(MediaConnectedClient client) {
+        return mediaFile;
+    }
+
+    /**
+     * Get the cache media files are mapped into
+     *
+     * @return MediaCache used by this server
+     */
+    public MediaCache getMediaCache() {
+        return mediaCache;
+    }
+
+    @Override
+    protected ConnectedClient newConnectedClient(Socket client) throws ConnectionInitializationException {
+        return new MediaConnectedClient(client, newConnectionKript(), getWireFormat(), this);
+    }
+
+    /**
+     * Stream part of a media file to a socket, from the cache if the file fits
+     * in it, otherwise from disk
+     *
+     * @param file     media file
+     * @param position first byte of the file to send
+     * @param count    number of bytes to send
+     * @param socket   connected client socket
+     * @return long number of bytes sent
+     * @throws IOException thrown if reading the file or writing to the socket fails
+     */
+    protected long streamMedia(File file, long position, long count, Socket socket) throws IOException {
+        ByteBuffer media = mediaCache.get(file);
+        if (media != null)
+            return MediaStreamer.stream(media, position, count, socket);
+
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            return MediaStreamer.stream(channel, position, count, socket);
+        } finally {
+            channel.close();
+        }
+    }
+}
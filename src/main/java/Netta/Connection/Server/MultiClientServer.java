@@ -19,18 +19,49 @@
 
 package Netta.Connection.Server;
 
+import Netta.Connection.ConnectionExecutors;
+import Netta.Connection.ConnectionMetrics;
+import Netta.Connection.EncodedPacket;
+import Netta.Connection.KeyProvider;
+import Netta.Connection.Packet;
+import Netta.Exceptions.ConnectionInitializationException;
 import Netta.Exceptions.ServerInitializeException;
+import Netta.Logging.Log;
 
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 public abstract class MultiClientServer extends ServerTemplate {
 
-    private ArrayList<ConnectedClient> connectedClients;
+    private static final Log log = Log.get(MultiClientServer.class);
+
+    /**
+     * How often the accept loop sweeps clients that died without closing
+     * out of the registry.
+     */
+    public static final long CLEAN_INTERVAL_MILLIS = 10000;
+
+    private final ClientRegistry clients = new ClientRegistry();
+    private long lastClean = System.currentTimeMillis();
+    private volatile TopicRouter topicRouter;
     private boolean threadActive = false;
+    private Executor clientExecutor;
+    private ExecutorService handShakeExecutor;
+    private int handShakeThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private int handShakeQueueSize = 1024;
 
     /**
      * Multiple Client Server. To start the server, simply create a new thread
@@ -48,7 +79,17 @@ public abstract class MultiClientServer extends ServerTemplate {
      */
     public MultiClientServer(int port) throws NoSuchAlgorithmException {
         super(port);
-        connectedClients = new ArrayList<ConnectedClient>();
+    }
+
+    /**
+     * Multiple Client Server using a specific source for its RSA keypair.
+     *
+     * @param port        that you want the server to host on
+     * @param keyProvider source of the server's RSA keypair
+     * @throws NoSuchAlgorithmException when there is an issue creating the RSA cipher.
+     */
+    public MultiClientServer(int port, KeyProvider keyProvider) throws NoSuchAlgorithmException {
+        super(port, keyProvider);
     }
 
     /**
@@ -56,45 +97,82 @@ public abstract class MultiClientServer extends ServerTemplate {
      * objects, and call packetReceived(ConnectedClient) any time there is a new
      * connection, and only if the new connection was able to initialize
      * successfully. If there is an error during the initialization steps, the
-     * System.err stream will be used detailing the error, and then the thread
-     * will be exited. If there is an error during the client accept steps, The
-     * System.err stream will be used to detail the problem, and then it will
-     * wait for the next connection.
+     * error is logged, and then the thread will be exited. If there is an
+     * error during the client accept steps, the problem is logged, and then it
+     * will wait for the next connection.
      * <p>
      * Will not run if the connection is already active.
      */
     public void run() {
         if (isConnectionActive()) {
-            System.err.println("Cannot initialize server. Server is already running: " + serverSocket);
+            log.warn("Cannot initialize server. Server is already running: {}", serverSocket);
             return;
         }
 
-        System.out.println("Initializing multiclient server...");
+        log.info("Initializing multiclient server...");
         try {
             Init();
-            System.out.println("Server Initialized.");
+            log.info("Server Initialized.");
             threadActive = true;
         } catch (ServerInitializeException e) {
-            System.err.println(e.getMessage());
+            log.error(e.getMessage());
             return;
         }
 
-        System.out.println("Waiting for client connections...");
+        if (handShakeExecutor == null)
+            handShakeExecutor = newHandShakeExecutor();
+
+        log.info("Waiting for client connections...");
 
         while (threadActive) {
             try {
                 Socket s = serverSocket.accept();
-                System.out.println("Client connection caught and initialized. Client: " + s);
-                System.out.println("Connection with " + s + " now listening for incoming packets.");
-                clientConnected(s);
-                // GENERATE NEW KRIPT OBJECT? SO AS TO HAVE SEPARATE KEYS PER
-                // CONNECTION //////////
+                getMetrics().connectionAccepted();
+                log.debug("Client connection caught and initialized. Client: {}", s);
+                // HandShakes run on the bounded pool, never on the accept thread.
+                // Each connection gets its own Kript through newConnectionKript()
+                try {
+                    handShakeExecutor.execute(clientTask(s));
+                } catch (RejectedExecutionException e) {
+                    log.warn("HandShake queue is full. Connection refused and reset. Client: {}", s);
+                    s.close();
+                }
                 CleanClientList();
             } catch (SocketTimeoutException e) {
             } catch (IOException e) {
-                System.err.println("Error accepting a client. Connection refused and reset.");
+                log.warn("Error accepting a client. Connection refused and reset.");
             }
         }
+
+        handShakeExecutor.shutdown();
+        handShakeExecutor = null;
+    }
+
+    /**
+     * Set the size of the HandShake worker pool. Accepted sockets are handed
+     * to this pool so that slow HandShakes can never stall accepting. When all
+     * workers are busy and the queue is full, new connections are refused.
+     * Must be called before the server is started.
+     *
+     * @param threads   number of HandShake worker threads
+     * @param queueSize number of accepted sockets allowed to wait for a worker
+     */
+    public void setHandShakePool(int threads, int queueSize) {
+        handShakeThreads = Math.max(1, threads);
+        handShakeQueueSize = Math.max(1, queueSize);
+    }
+
+    private ExecutorService newHandShakeExecutor() {
+        return new ThreadPoolExecutor(handShakeThreads, handShakeThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(handShakeQueueSize), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Netta-HandShake-" + port + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
     }
 
     /**
@@ -112,14 +190,17 @@ public abstract class MultiClientServer extends ServerTemplate {
      * By default, this method does nothing.
      * <p>
      * This method is called every time a new client is connected and
-     * initialized. The parameter is the connected client's socket. Override
+     * initialized, on one of the HandShake worker threads, so constructing a
+     * ConnectedClient here does not hold up other connections. The parameter
+     * is the connected client's socket. Override
      * this function to be able to retrieve the newly connected client. This
      * will also allow you to create a child class of ConnectedClient, and
      * assign it to the newly accepted connections.
      * <p>
-     * NOTE: The MultiClientServer has a built in ArrayList of type
-     * ConnectedClients to organize and store all connected clients. By default
-     * it is not used.
+     * NOTE: The MultiClientServer has a built in ClientRegistry to organize
+     * and store all connected clients. Pass a ConnectedClient created here to
+     * addClient(ConnectedClient) to add it, and give it the server's
+     * settings.
      *
      * @param client socket that was accepted by the server
      */
@@ -128,16 +209,217 @@ public abstract class MultiClientServer extends ServerTemplate {
     }
 
     /**
-     * Retreive the ArrayList of connected clients.
+     * By default, this method does nothing.
+     * <p>
+     * Only used when a client executor is set. Called on a HandShake worker
+     * once the ConnectedClient has been created and its HandShake has
+     * completed, right before its run() loop is handed to the executor.
+     *
+     * @param client ConnectedClient that was accepted by the server
+     */
+    public void clientConnected(ConnectedClient client) {
+
+    }
+
+    /**
+     * Run every accepted client on the given executor instead of handing the
+     * socket to clientConnected(Socket). A HandShake worker creates the client
+     * through newConnectedClient(Socket) and calls
+     * clientConnected(ConnectedClient), then the client's blocking receive
+     * loop is run on the executor. Must be called before the server is
+     * started.
+     *
+     * @param executor Executor to run clients on, or null to go back to
+     *                 clientConnected(Socket)
+     */
+    public void setClientExecutor(Executor executor) {
+        clientExecutor = executor;
+    }
+
+    /**
+     * Run every accepted client on its own virtual thread, or on a small-stack
+     * platform thread on JVMs without virtual threads. Shortcut for
+     * setClientExecutor(ConnectionExecutors.virtualThreadPerTask()).
+     */
+    public void useVirtualThreads() {
+        setClientExecutor(ConnectionExecutors.virtualThreadPerTask());
+    }
+
+    /**
+     * Create the ConnectedClient for an accepted socket when a client
+     * executor is set. Runs on a HandShake worker, and performs the
+     * HandShake. Override to use your own subclass of ConnectedClient.
+     *
+     * @param client socket that was accepted by the server
+     * @return ConnectedClient for the socket
+     * @throws ConnectionInitializationException thrown if the client streams cannot be opened
+     */
+    protected ConnectedClient newConnectedClient(Socket client) throws ConnectionInitializationException {
+        return new ConnectedClient(client, newConnectionKript(), getWireFormat());
+    }
+
+    private Runnable clientTask(final Socket s) {
+        return new Runnable() {
+            public void run() {
+                if (clientExecutor == null) {
+                    clients.handShakeStarted();
+                    try {
+                        clientConnected(s);
+                    } finally {
+                        clients.handShakeFinished();
+                    }
+                    return;
+                }
+
+                ConnectionMetrics metrics = getMetrics();
+                long start = System.nanoTime();
+                ConnectedClient client;
+                clients.handShakeStarted();
+                try {
+                    client = newConnectedClient(s);
+                } catch (ConnectionInitializationException e) {
+                    log.warn("{} Connection refused and reset.", e.getMessage());
+                    try {
+                        s.close();
+                    } catch (IOException e1) {
+                    }
+                    return;
+                } finally {
+                    clients.handShakeFinished();
+                }
+                if (!client.isConnectionActive())
+                    return;
+                // The client was opened before it could be given the server's
+                // metrics, so its HandShake is timed here
+                metrics.handShakeCompleted(System.nanoTime() - start);
+                client.setMetrics(metrics);
+                clientJoined(client);
+                clientConnected(client);
+                clientExecutor.execute(client);
+            }
+        };
+    }
+
+    /**
+     * Add a ConnectedClient created in clientConnected(Socket) to the
+     * registry, once it has been constructed. It is given the server's
+     * metrics, idle timeouts, TopicRouter and PacketDispatcher, as clients
+     * run on a client executor are. A client whose HandShake failed is not
+     * added.
+     *
+     * @param client client created for a socket accepted by this server
+     */
+    public void addClient(ConnectedClient client) {
+        if (!client.isConnectionActive())
+            return;
+        if (client.getMetrics() == ConnectionMetrics.DISABLED)
+            client.setMetrics(getMetrics());
+        clientJoined(client);
+    }
+
+    /**
+     * Hand a client whose HandShake succeeded the server's idle timeouts,
+     * TopicRouter and PacketDispatcher, and add it to the registry. The
+     * dispatcher is shared by every client that did not get its own.
+     *
+     * @param client client accepted by this server
+     */
+    void clientJoined(ConnectedClient client) {
+        if (getReadIdleTimeout() > 0 || getWriteIdleTimeout() > 0)
+            client.setIdleTimeouts(getReadIdleTimeout(), getWriteIdleTimeout());
+        client.setTopicRouter(topicRouter);
+        if (client.getPacketDispatcher() == null)
+            client.setPacketDispatcher(getPacketDispatcher());
+        clients.add(client);
+    }
+
+    /**
+     * Retreive a copy of the list of connected clients. Changing the list
+     * does not change the registry; use getClientRegistry() for that, or to
+     * iterate without copying.
      *
      * @return ArrayList containing all ConnectedClient objects that are
      * connected.
      */
     protected ArrayList<ConnectedClient> GetConnectedClients() {
-        return connectedClients;
+        return clients.snapshot();
     }
 
-    private void CleanClientList() {
+    /**
+     * Get the registry of connected clients. Every ConnectedClient is added
+     * once its HandShake completes, and removed when its connection closes.
+     * Without a client executor, a ConnectedClient created in
+     * clientConnected(Socket) is added by addClient(ConnectedClient).
+     *
+     * @return ClientRegistry of this server
+     */
+    public ClientRegistry getClientRegistry() {
+        return clients;
+    }
+
+    /**
+     * Set the TopicRouter that handles the Subscribe, Unsubscribe and Publish
+     * packets of every client accepted from now on, whether run on a client
+     * executor or passed to addClient(ConnectedClient). Publish/subscribe is
+     * off until a router is set.
+     *
+     * @param topicRouter router for this server's clients, or null to turn
+     *                    publish/subscribe off for new clients
+     */
+    public void setTopicRouter(TopicRouter topicRouter) {
+        this.topicRouter = topicRouter;
+    }
 
+    public TopicRouter getTopicRouter() {
+        return topicRouter;
+    }
+
+    /**
+     * Send a packet to every active client in the registry. See
+     * multicast(Predicate, Packet).
+     *
+     * @param p packet to send. Must not be changed afterwards.
+     * @return int number of clients the packet was queued for
+     */
+    public int broadcast(Packet p) {
+        return multicast(null, p);
+    }
+
+    /**
+     * Send a packet to every active client in the registry that matches a
+     * filter. The packet is encoded once and the bytes are shared by every
+     * client; each client only encrypts them with its own session key, if its
+     * packets are encrypted. Packets are queued on each client's SendQueue
+     * with offerPacketAsync and written by the shared writers, so the caller
+     * never waits on a socket and a slow client never holds up the others. A
+     * client whose queue is full misses the packet, whatever its
+     * BackPressure, and is not counted.
+     *
+     * @param filter clients to send to, or null for every client
+     * @param p      packet to send. Must not be changed afterwards.
+     * @return int number of clients the packet was queued for
+     */
+    public int multicast(Predicate<ConnectedClient> filter, Packet p) {
+        EncodedPacket encoded = new EncodedPacket(p);
+        int queued = 0;
+        for (ConnectedClient client : clients.getClients()) {
+            if (client.getState() != ClientState.ACTIVE || (filter != null && !filter.test(client)))
+                continue;
+            CompletableFuture<Void> future = client.offerPacketAsync(encoded, client.getPacketEncrypted());
+            if (!future.isCompletedExceptionally())
+                queued++;
+        }
+        return queued;
+    }
+
+    // Runs on the accept thread at most once every CLEAN_INTERVAL_MILLIS
+    private void CleanClientList() {
+        long now = System.currentTimeMillis();
+        if (now - lastClean < CLEAN_INTERVAL_MILLIS)
+            return;
+        lastClean = now;
+        int removed = clients.removeInactive();
+        if (removed > 0)
+            log.debug("Removed {} inactive clients from the registry.", removed);
     }
 }
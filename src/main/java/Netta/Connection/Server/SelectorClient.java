@@ -0,0 +1,463 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import Netta.Connection.Connection;
+import Netta.Connection.ConnectionCrypto;
+import Netta.Connection.ConnectionExecutors;
+import Netta.Connection.ConnectionMetrics;
+import Netta.Connection.Packet;
+import Netta.Connection.PacketCodec;
+import Netta.Connection.SessionCipher;
+import Netta.Connection.TimerWheel;
+import Netta.Exceptions.HandShakeException;
+import Netta.Exceptions.SendPacketException;
+import Netta.Logging.Log;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client connected to a SelectorServer. Plays the same role as
+ * ConnectedClient, but instead of owning a thread blocked in receivePacket it
+ * is driven by one of the server's event loops. The HandShake is run as a
+ * small state machine as frames arrive, and packets are dispatched to
+ * packetReceived(Packet) on the event loop thread, so handlers must not block.
+ * <p>
+ * Speaks the BINARY wire format, so clients must call
+ * setWireFormat(WireFormat.BINARY) before connecting.
+ */
+public class SelectorClient {
+
+    private static final Log log = Log.get(SelectorClient.class);
+
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+
+    private final SelectorServer server;
+    private final SocketChannel channel;
+    protected final ConnectionCrypto kript;
+
+    private volatile EventLoop loop;
+    private volatile SelectionKey key;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicBoolean connectionActive = new AtomicBoolean(true);
+    private volatile SessionCipher sessionCipher;
+    private ArrayList<String> negotiatedCapabilities = new ArrayList<String>();
+    private volatile HandShakeState handShakeState = HandShakeState.CLIENT_HELLO;
+    private volatile TimerWheel.Timeout handShakeTimeout;
+    private boolean encryptedPacket = true;
+    private final long acceptedNanos = System.nanoTime();
+
+    /**
+     * Create a client for a channel accepted by a SelectorServer. Override
+     * SelectorServer.newClient(SocketChannel) to use your own subclass.
+     *
+     * @param server  SelectorServer that accepted the channel
+     * @param channel non-blocking channel of the client
+     * @param kript   crypto context used for this client's HandShake
+     */
+    public SelectorClient(SelectorServer server, SocketChannel channel, ConnectionCrypto kript) {
+        this.server = server;
+        this.channel = channel;
+        this.kript = kript;
+    }
+
+    /**
+     * Called on the event loop every time the client sends a packet, once the
+     * HandShake is complete. By default hands the packet to the server's
+     * packetReceived(SelectorClient, Packet). Must not block.
+     *
+     * @param p Packet received from the client
+     */
+    protected void packetReceived(Packet p) {
+        server.packetReceived(this, p);
+    }
+
+    /**
+     * Send a packet to the client. The packet is encoded and encrypted on the
+     * calling thread and written by the client's event loop. Safe to call
+     * from any thread.
+     *
+     * @param p         packet being sent to the client
+     * @param encrypted boolean value, whether the packet will be encrypted or not
+     * @return boolean True if the packet was queued, false if the connection
+     * is not active
+     * @throws SendPacketException thrown when there is an error encrypting the packet
+     */
+    public boolean sendPacket(Packet p, boolean encrypted) throws SendPacketException {
+        if (!connectionActive.get())
+            return false;
+
+        ConnectionMetrics metrics = server.getMetrics();
+        boolean timed = metrics.isEnabled();
+        long start = timed ? System.nanoTime() : 0;
+        byte[] bytes = PacketCodec.encode(p);
+        if (timed) {
+            long encoded = System.nanoTime();
+            metrics.packetEncoded(encoded - start);
+            start = encoded;
+        }
+        if (encrypted) {
+            try {
+                bytes = encrypt(bytes);
+            } catch (Exception e) {
+                throw new SendPacketException(
+                        "Error encrypting data to send. Possible causes: An issue with generating the RSA cipher; Error encoding strings to byte[]'s;");
+            }
+            if (timed)
+                metrics.packetEncrypted(System.nanoTime() - start);
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(4 + bytes.length);
+        frame.putInt(bytes.length).put(bytes).flip();
+        writeQueue.add(frame);
+        if (loop != null)
+            loop.requestWrite(this);
+        return true;
+    }
+
+    /**
+     * Answer a packet the client sent with request(). Safe to call from any
+     * thread.
+     *
+     * @param request   packet received from the client
+     * @param response  packet to answer with. Its requestID is overwritten.
+     * @param encrypted boolean value, whether the packet will be encrypted or not
+     * @return boolean True if the response was queued, false if the connection
+     * is not active
+     * @throws SendPacketException thrown when there is an error encrypting the packet
+     */
+    public boolean respond(Packet request, Packet response, boolean encrypted) throws SendPacketException {
+        response.requestID = -request.requestID;
+        return sendPacket(response, encrypted);
+    }
+
+    /**
+     * Close the connection with the client. Safe to call from any thread, and
+     * more than once.
+     */
+    public void closeConnection() {
+        // Only the caller that flips the flag closes, so clientClosed fires once
+        if (!connectionActive.compareAndSet(true, false))
+            return;
+        TimerWheel.Timeout timeout = handShakeTimeout;
+        if (timeout != null)
+            timeout.cancel();
+        if (key != null)
+            key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+        server.clientClosed(this);
+    }
+
+    /**
+     * Check whether the connection is still active or not
+     *
+     * @return True if the connection is still active, else false;
+     */
+    public boolean isConnectionActive() {
+        return connectionActive.get();
+    }
+
+    /**
+     * Check whether the HandShake with the client has completed
+     *
+     * @return True if the HandShake is complete, else false
+     */
+    public boolean isHandShakeComplete() {
+        return handShakeState == HandShakeState.COMPLETE;
+    }
+
+    /**
+     * Check whether both sides agreed to use a capability during the HandShake
+     *
+     * @param capability name of the capability
+     * @return True if the capability was negotiated, else false
+     */
+    public boolean hasCapability(String capability) {
+        return negotiatedCapabilities.contains(capability);
+    }
+
+    /**
+     * Capabilities this side is able to use. Intersected with the ones the
+     * client offers in its clientHello.
+     *
+     * @return ArrayList of capability names supported locally
+     */
+    protected ArrayList<String> getCapabilities() {
+        ArrayList<String> capabilities = new ArrayList<String>();
+        capabilities.add(Connection.SESSION_KEY_CAPABILITY);
+        return capabilities;
+    }
+
+    /**
+     * Returns the value of EncryptedPacket. This value is what determines
+     * whether received packets will be decrypted.
+     *
+     * @return boolean if true the data is going to be decrypted
+     */
+    public boolean getPacketEncrypted() {
+        return encryptedPacket;
+    }
+
+    /**
+     * Sets the EncryptedPacket variable. Determines whether incoming packets
+     * are going to need to be decrypted.
+     *
+     * @param encrypted boolean. True will have Netta try to decrypt each packet.
+     */
+    public void setPacketEncrypted(boolean encrypted) {
+        encryptedPacket = encrypted;
+    }
+
+    /**
+     * Get the address of the client
+     *
+     * @return SocketAddress of the remote end, or null if it is unknown
+     */
+    public SocketAddress getRemoteAddress() {
+        return channel.socket().getRemoteSocketAddress();
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public String toString() {
+        return "SelectorClient[" + getRemoteAddress() + "]";
+    }
+
+    void attach(EventLoop loop, SelectionKey key) {
+        this.loop = loop;
+        this.key = key;
+        if (!writeQueue.isEmpty())
+            handleWrite();
+    }
+
+    // Closes the connection if the HandShake has not completed in time, so a
+    // client that stops mid-HandShake cannot hold its buffers forever
+    void startHandShakeTimeout(final long millis) {
+        handShakeTimeout = ConnectionExecutors.timer().schedule(new Runnable() {
+            public void run() {
+                if (!isHandShakeComplete() && connectionActive.get()) {
+                    log.debug("HandShake with {} did not complete in {}ms. Closing connection.", SelectorClient.this, millis);
+                    closeConnection();
+                }
+            }
+        }, millis);
+    }
+
+    void handleRead() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            closeConnection();
+            return;
+        }
+        if (read < 0) {
+            closeConnection();
+            return;
+        }
+        server.getMetrics().bytesReceived(read);
+
+        readBuffer.flip();
+        int pending = 0;
+        while (connectionActive.get() && readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            int maxLength = isHandShakeComplete() ? Connection.MAX_FRAME_BYTES : Connection.MAX_HANDSHAKE_FRAME_BYTES;
+            if (length < 0 || length > maxLength) {
+                log.warn("Frame length {} from {} is outside of the allowed range. Closing connection.", length, this);
+                closeConnection();
+                return;
+            }
+            if (readBuffer.remaining() < 4 + length) {
+                pending = 4 + length;
+                break;
+            }
+            readBuffer.position(readBuffer.position() + 4);
+            byte[] frame = new byte[length];
+            readBuffer.get(frame);
+            frameReceived(frame);
+        }
+        readBuffer.compact();
+        resizeReadBuffer(pending);
+    }
+
+    /**
+     * Grows the read buffer in steps while a large frame is arriving, and
+     * shrinks it back to the default once that frame has been handled.
+     *
+     * @param pending size of the partially read frame including its length
+     *                prefix, or 0 if none
+     */
+    private void resizeReadBuffer(int pending) {
+        int capacity = readBuffer.capacity();
+        int size;
+        if (!readBuffer.hasRemaining() && pending > capacity)
+            size = (int) Math.min(capacity * 2L, pending);
+        else if (capacity > INITIAL_READ_BUFFER && pending <= INITIAL_READ_BUFFER
+                && readBuffer.position() <= INITIAL_READ_BUFFER)
+            size = INITIAL_READ_BUFFER;
+        else
+            return;
+        ByteBuffer resized = ByteBuffer.allocate(size);
+        readBuffer.flip();
+        resized.put(readBuffer);
+        readBuffer = resized;
+    }
+
+    void handleWrite() {
+        if (!connectionActive.get() || key == null || !key.isValid())
+            return;
+        try {
+            ConnectionMetrics metrics = server.getMetrics();
+            ByteBuffer frame;
+            while ((frame = writeQueue.peek()) != null) {
+                metrics.bytesSent(channel.write(frame));
+                if (frame.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeQueue.poll();
+                metrics.packetsSent(1);
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            closeConnection();
+        }
+    }
+
+    private void frameReceived(byte[] frame) {
+        try {
+            switch (handShakeState) {
+                case CLIENT_HELLO:
+                    receiveClientHello(PacketCodec.decode(frame));
+                    break;
+                case CLIENT_KEY_EXCHANGE:
+                    kript.setRemotePublicKey(PacketCodec.decode(kript.decrypt(frame)).packetKey);
+                    handShakeState = HandShakeState.CLIENT_DONE;
+                    break;
+                case CLIENT_DONE:
+                    receiveClientDone(PacketCodec.decode(kript.decrypt(frame)));
+                    break;
+                case COMPLETE:
+                    server.getMetrics().packetReceived();
+                    packetReceived(PacketCodec.decode(encryptedPacket ? decrypt(frame) : frame));
+                    break;
+            }
+        } catch (HandShakeException e) {
+            log.warn(e.getMessage());
+            closeConnection();
+        } catch (SendPacketException e) {
+            log.warn("{} Closing connection.", e.getMessage());
+            closeConnection();
+        } catch (IOException e) {
+            log.warn("Error reading the received data from {}. Possible causes: Wrong Object Type; Incomplete Send; Closing connection.", this);
+            closeConnection();
+        } catch (Exception e) {
+            log.warn("Error decrypting packet from {}. Possible causes: An issue creating the RSA cipher; An error decoding byte[]'s to strings; Closing connection.", this);
+            closeConnection();
+        }
+    }
+
+    private void receiveClientHello(Packet clientHello) throws HandShakeException, SendPacketException {
+        if (clientHello.packetType != Packet.PACKET_TYPE.Handshake)
+            throw new HandShakeException("HandShake clientHello from connection is not a HandShake Packet. Terminating.");
+
+        ArrayList<String> accepted = new ArrayList<String>();
+        ArrayList<String> supported = getCapabilities();
+        for (String capability : clientHello.gData)
+            if (supported.contains(capability) && !accepted.contains(capability))
+                accepted.add(capability);
+        negotiatedCapabilities = accepted;
+
+        Packet serverHello = new Packet(Packet.PACKET_TYPE.Handshake, null);
+        serverHello.gData = accepted;
+        sendPacket(serverHello, false);
+
+        Packet serverKeyExchange = new Packet(Packet.PACKET_TYPE.Handshake, null);
+        serverKeyExchange.packetKey = kript.getPublicKey();
+        sendPacket(serverKeyExchange, false);
+
+        handShakeState = HandShakeState.CLIENT_KEY_EXCHANGE;
+    }
+
+    private void receiveClientDone(Packet clientDone) throws Exception {
+        if (!"done".equals(clientDone.packetString))
+            throw new HandShakeException("Unable to decrypt PacketString from connection. HandShake failure. Terminating.");
+
+        byte[] sessionKey = null;
+        Packet serverDone = new Packet(Packet.PACKET_TYPE.Handshake, null);
+        serverDone.packetString = "done";
+        if (hasCapability(Connection.SESSION_KEY_CAPABILITY)) {
+            sessionKey = SessionCipher.generateKey();
+            serverDone.packetByteArray = sessionKey;
+        }
+        sendPacket(serverDone, true);
+        if (sessionKey != null)
+            sessionCipher = new SessionCipher(sessionKey);
+
+        handShakeState = HandShakeState.COMPLETE;
+        TimerWheel.Timeout timeout = handShakeTimeout;
+        if (timeout != null)
+            timeout.cancel();
+        server.getMetrics().handShakeCompleted(System.nanoTime() - acceptedNanos);
+        server.clientHandShakeComplete(this);
+    }
+
+    private byte[] encrypt(byte[] bytes) throws Exception {
+        SessionCipher cipher = sessionCipher;
+        if (cipher != null)
+            return cipher.encrypt(bytes);
+        return kript.encrypt(bytes);
+    }
+
+    private byte[] decrypt(byte[] bytes) throws Exception {
+        ConnectionMetrics metrics = server.getMetrics();
+        if (!metrics.isEnabled())
+            return decryptBytes(bytes);
+        long start = System.nanoTime();
+        byte[] plain = decryptBytes(bytes);
+        metrics.packetDecrypted(System.nanoTime() - start);
+        return plain;
+    }
+
+    private byte[] decryptBytes(byte[] bytes) throws Exception {
+        SessionCipher cipher = sessionCipher;
+        if (cipher != null)
+            return cipher.decrypt(bytes);
+        return kript.decrypt(bytes);
+    }
+
+    private enum HandShakeState {
+        CLIENT_HELLO, CLIENT_KEY_EXCHANGE, CLIENT_DONE, COMPLETE
+    }
+}
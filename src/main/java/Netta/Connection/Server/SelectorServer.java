@@ -0,0 +1,300 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import Netta.Connection.ConnectionCrypto;
+import Netta.Connection.ConnectionKript;
+import Netta.Connection.ConnectionMetrics;
+import Netta.Connection.KeyPairPool;
+import Netta.Connection.KeyProvider;
+import Netta.Connection.Packet;
+import Netta.Exceptions.ServerInitializeException;
+import Netta.Logging.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+
+public abstract class SelectorServer implements Runnable {
+
+    private static final Log log = Log.get(SelectorServer.class);
+
+    protected int port;
+    protected ServerSocketChannel serverChannel;
+    protected ConnectionCrypto kript;
+    private volatile boolean serverActive = false;
+    private int eventLoopCount = Runtime.getRuntime().availableProcessors();
+    private EventLoop[] eventLoops;
+    private int nextEventLoop = 0;
+    private volatile ConnectionMetrics metrics = ConnectionMetrics.DISABLED;
+
+    /**
+     * Non-blocking Multiple Client Server. Serves the same purpose as
+     * MultiClientServer, but instead of a thread per client, every client is
+     * handled by a small pool of selector threads (event loops). To start the
+     * server, simply create a new thread of this object and start the thread.
+     * <p>
+     * Every accepted client is wrapped in a SelectorClient, created by
+     * newClient(SocketChannel). Once its HandShake is complete,
+     * clientConnected(SelectorClient) is called, and every packet it sends
+     * afterwards is passed to packetReceived(SelectorClient, Packet). Both run
+     * on an event loop thread, so they must not block.
+     * A client that has not finished its HandShake within
+     * ConnectedClient.HANDSHAKE_TIMEOUT_MILLIS is closed.
+     * <p>
+     * The server speaks the BINARY wire format. Clients must call
+     * setWireFormat(WireFormat.BINARY) before connecting.
+     *
+     * @param port that you want the server to host on
+     * @throws NoSuchAlgorithmException when there is an issue creating the RSA cipher.
+     */
+    public SelectorServer(int port) throws NoSuchAlgorithmException {
+        this(port, KeyPairPool.getDefault());
+    }
+
+    /**
+     * Non-blocking Multiple Client Server using a specific source for its RSA
+     * keypair.
+     *
+     * @param port        that you want the server to host on
+     * @param keyProvider source of the server's RSA keypair
+     * @throws NoSuchAlgorithmException when there is an issue creating the RSA cipher.
+     */
+    public SelectorServer(int port, KeyProvider keyProvider) throws NoSuchAlgorithmException {
+        this.port = port;
+        this.kript = new ConnectionKript(keyProvider.nextKeyPair());
+    }
+
+    /**
+     * Set how many event loop threads will service clients. Must be called
+     * before the server is started. Defaults to the number of processors.
+     *
+     * @param eventLoopCount number of event loops, at least 1
+     */
+    public void setEventLoopCount(int eventLoopCount) {
+        this.eventLoopCount = Math.max(1, eventLoopCount);
+    }
+
+    /**
+     * Initialize server elements. Opens the server channel and starts the
+     * event loops.
+     *
+     * @throws ServerInitializeException thrown if there is an error creating the server channel
+     *                                   or selectors. Details in the exception object's message()
+     */
+    protected void Init() throws ServerInitializeException {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            throw new ServerInitializeException(
+                    "Unable to create a server on this port. It is likely that the port is already in use.");
+        }
+
+        eventLoops = new EventLoop[eventLoopCount];
+        try {
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop();
+                eventLoops[i].start("Netta-EventLoop-" + port + "-" + i);
+            }
+        } catch (IOException e) {
+            stopEventLoops();
+            throw new ServerInitializeException("Unable to open a selector for the server event loops.");
+        }
+        serverActive = true;
+    }
+
+    /**
+     * Accepts clients and hands them to the event loops round robin. Accepting
+     * is the only thing done on this thread.
+     */
+    public void run() {
+        if (serverActive) {
+            log.warn("Cannot initialize server. Server is already running: {}", serverChannel);
+            return;
+        }
+
+        log.info("Initializing selector server...");
+        try {
+            Init();
+            log.info("Server Initialized. Event loops: {}", eventLoops.length);
+        } catch (ServerInitializeException e) {
+            log.error(e.getMessage());
+            return;
+        }
+
+        log.info("Waiting for client connections...");
+
+        while (serverActive) {
+            SocketChannel channel = null;
+            try {
+                channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                EventLoop loop = eventLoops[nextEventLoop];
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+                SelectorClient client = newClient(channel);
+                metrics.connectionAccepted();
+                metrics.connectionOpened();
+                client.startHandShakeTimeout(ConnectedClient.HANDSHAKE_TIMEOUT_MILLIS);
+                loop.register(client);
+            } catch (AsynchronousCloseException e) {
+                break;
+            } catch (IOException e) {
+                log.warn("Error accepting a client. Connection refused and reset.");
+                close(channel);
+            } catch (NoSuchAlgorithmException e) {
+                log.warn("Unable to create the RSA keys for a client. Connection refused and reset.");
+                close(channel);
+            }
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Check whether the server was successfully initialized
+     *
+     * @return boolean True if successful, else false
+     */
+    public boolean isServerActive() {
+        return serverActive;
+    }
+
+    /**
+     * Close the server channel and every connected client
+     *
+     * @throws IOException thrown if there is an error closing the server channel
+     */
+    public void closeServer() throws IOException {
+        serverActive = false;
+        stopEventLoops();
+        if (serverChannel != null)
+            serverChannel.close();
+    }
+
+    /**
+     * Create the SelectorClient for a newly accepted channel. Override to use
+     * your own subclass of SelectorClient. Runs on the accepting thread.
+     *
+     * @param channel accepted channel, already in non-blocking mode
+     * @return SelectorClient that will handle the channel
+     * @throws NoSuchAlgorithmException when there is an issue creating the RSA keys.
+     */
+    protected SelectorClient newClient(SocketChannel channel) throws NoSuchAlgorithmException {
+        return new SelectorClient(this, channel, newConnectionKript());
+    }
+
+    /**
+     * Create the crypto context for one client. Shares the server's RSA
+     * keypair, but holds its own remote public key.
+     *
+     * @return ConnectionCrypto for a single client
+     */
+    protected ConnectionCrypto newConnectionKript() {
+        if (kript instanceof ConnectionKript)
+            return ((ConnectionKript) kript).derive();
+        return kript;
+    }
+
+    /**
+     * By default, this method does nothing.
+     * <p>
+     * Called on the client's event loop once its HandShake has completed.
+     *
+     * @param client client that finished its HandShake
+     */
+    protected void clientConnected(SelectorClient client) {
+
+    }
+
+    /**
+     * By default, this method does nothing.
+     * <p>
+     * Called on the client's event loop every time a client sends a packet,
+     * unless the SelectorClient subclass overrides packetReceived(Packet).
+     *
+     * @param client client that sent the packet
+     * @param p      Packet received from the client
+     */
+    protected void packetReceived(SelectorClient client, Packet p) {
+
+    }
+
+    /**
+     * By default, this method does nothing.
+     * <p>
+     * Called once when a client's connection is closed, from whichever thread
+     * closed it.
+     *
+     * @param client client whose connection was closed
+     */
+    protected void clientDisconnected(SelectorClient client) {
+
+    }
+
+    void clientHandShakeComplete(SelectorClient client) {
+        log.debug("HandShake with client complete! Client: {}", client);
+        clientConnected(client);
+    }
+
+    /**
+     * Set where the server and its clients report their measurements. Must
+     * be called before the server is started.
+     *
+     * @param metrics ConnectionMetrics to report to, or null to stop reporting
+     */
+    public void setMetrics(ConnectionMetrics metrics) {
+        this.metrics = metrics == null ? ConnectionMetrics.DISABLED : metrics;
+    }
+
+    /**
+     * Get where the server and its clients report their measurements
+     *
+     * @return ConnectionMetrics of the server, ConnectionMetrics.DISABLED
+     * unless setMetrics was called
+     */
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    void clientClosed(SelectorClient client) {
+        metrics.connectionClosed();
+        clientDisconnected(client);
+    }
+
+    private void stopEventLoops() {
+        if (eventLoops == null)
+            return;
+        for (EventLoop loop : eventLoops)
+            if (loop != null)
+                loop.stop();
+    }
+}
@@ -19,8 +19,11 @@
 
 package Netta.Connection.Server;
 
-import Kript.Kript;
 import Netta.Connection.Connection;
+import Netta.Connection.ConnectionCrypto;
+import Netta.Connection.ConnectionKript;
+import Netta.Connection.KeyPairPool;
+import Netta.Connection.KeyProvider;
 import Netta.Connection.Packet;
 import Netta.Exceptions.HandShakeException;
 import Netta.Exceptions.ReadPacketException;
@@ -28,7 +31,9 @@ import Netta.Exceptions.SendPacketException;
 import Netta.Exceptions.ServerInitializeException;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.security.NoSuchAlgorithmException;
 
 public abstract class ServerTemplate extends Connection implements Runnable {
@@ -37,19 +42,47 @@ public abstract class ServerTemplate extends Connection implements Runnable {
     protected ServerSocket serverSocket;
     private boolean serverActive = false;
     private int SoTimeoutMilli = 1000;
+    private boolean useServerChannel = false;
 
     /**
      * Basic Server Template. Doesn't favor either Multi client or Single
-     * client. Abstract, used by Multi/Single Client servers.
+     * client. Abstract, used by Multi/Single Client servers. The server's RSA
+     * keypair is shared by every connection, but each connection gets its own
+     * crypto context through newConnectionKript().
      *
      * @param port to host the server on.
      * @throws NoSuchAlgorithmException when there is an issue creating the RSA keys.
      */
     public ServerTemplate(int port) throws NoSuchAlgorithmException {
-        super(new Kript());
+        this(port, KeyPairPool.getDefault());
+    }
+
+    /**
+     * Basic Server Template using a specific source for its RSA keypair, such
+     * as KeyPairPool.persisted(File) for a long-term key.
+     *
+     * @param port         to host the server on.
+     * @param keyProvider  source of the server's RSA keypair
+     * @throws NoSuchAlgorithmException when there is an issue creating the RSA keys.
+     */
+    public ServerTemplate(int port, KeyProvider keyProvider) throws NoSuchAlgorithmException {
+        super(new ConnectionKript(keyProvider.nextKeyPair()));
         this.port = port;
     }
 
+    /**
+     * Create the crypto context for one connection. Shares the server's RSA
+     * keypair, but holds its own remote public key, so concurrent HandShakes
+     * cannot overwrite each other's keys.
+     *
+     * @return ConnectionCrypto for a single connection
+     */
+    protected ConnectionCrypto newConnectionKript() {
+        if (kript instanceof ConnectionKript)
+            return ((ConnectionKript) kript).derive();
+        return kript;
+    }
+
     /**
      * Initialize server elements. Sets up the serverSocket, socket timeout in
      * milli's
@@ -59,7 +92,12 @@ public abstract class ServerTemplate extends Connection implements Runnable {
      */
     protected void Init() throws ServerInitializeException {
         try {
-            serverSocket = new ServerSocket(port);
+            if (useServerChannel) {
+                serverSocket = ServerSocketChannel.open().socket();
+                serverSocket.bind(new InetSocketAddress(port));
+            } else {
+                serverSocket = new ServerSocket(port);
+            }
             serverSocket.setSoTimeout(SoTimeoutMilli);
             serverActive = true;
         } catch (IOException e) {
@@ -68,6 +106,22 @@ public abstract class ServerTemplate extends Connection implements Runnable {
         }
     }
 
+    /**
+     * Accept clients through a ServerSocketChannel instead of a plain
+     * ServerSocket. Accepted sockets then have a channel, which allows file
+     * transfers straight from the page cache (see MediaStreamer). Must be set
+     * before the server is started.
+     * <p>
+     * Only enable this for servers that do not read and write the same socket
+     * from two threads at once, as older JVMs serialize reads and writes on a
+     * channel-backed socket's streams.
+     *
+     * @param useServerChannel True to accept through a ServerSocketChannel
+     */
+    protected void setUseServerChannel(boolean useServerChannel) {
+        this.useServerChannel = useServerChannel;
+    }
+
     /**
      * Check whether the server was successfully initialized
      *
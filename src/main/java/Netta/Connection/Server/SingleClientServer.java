@@ -19,16 +19,24 @@
 
 package Netta.Connection.Server;
 
+import Netta.Connection.KeyProvider;
 import Netta.Connection.Packet;
+import Netta.Connection.SessionCipher;
 import Netta.Exceptions.*;
+import Netta.Logging.Log;
 
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 public abstract class SingleClientServer extends ServerTemplate {
 
+    private static final Log log = Log.get(SingleClientServer.class);
+
     protected boolean threadActive = false;
     protected boolean encryptedPacket = true;
     protected boolean handshakeComplete = false;
@@ -48,54 +56,67 @@ public abstract class SingleClientServer extends ServerTemplate {
         super(port);
     }
 
+    /**
+     * Single Client Server using a specific source for its RSA keypair.
+     *
+     * @param port        the server must host on
+     * @param keyProvider source of the server's RSA keypair
+     * @throws NoSuchAlgorithmException when there is an issue creating the RSA cipher.
+     */
+    public SingleClientServer(int port, KeyProvider keyProvider) throws NoSuchAlgorithmException {
+        super(port, keyProvider);
+    }
+
     public void run() {
         if (isConnectionActive()) {
-            System.err.println("Cannot initialize server. Server is already running: " + serverSocket);
+            log.warn("Cannot initialize server. Server is already running: {}", serverSocket);
             return;
         }
 
-        System.out.println("Initializing single-client server...");
+        log.info("Initializing single-client server...");
         try {
             Init();
-            System.out.println("Server Initialized.");
+            log.info("Server Initialized.");
             threadActive = true;
         } catch (ServerInitializeException e) {
-            System.err.println(e.getMessage());
+            log.error(e.getMessage());
             return;
         }
 
-        System.out.println("Waiting for client connection...");
+        log.info("Waiting for client connection...");
 
         while (threadActive) {
             try {
                 connectedSocket = serverSocket.accept();
+                getMetrics().connectionAccepted();
                 openIOStreams();
-                System.out.println("Client connection caught and initialized. Client: " + connectedSocket);
-                System.out.println("Connection with " + connectedSocket + " now listening for incoming packets.");
+                log.debug("Client connection caught and initialized. Client: {}", connectedSocket);
                 HandShake();
             } catch (SocketTimeoutException e) {
             } catch (IOException e) {
-                System.err.println("Error accepting a client. Connection refused and reset.");
+                log.warn("Error accepting a client. Connection refused and reset.");
                 connectedSocket = null;
                 try {
                     Thread.sleep(3000);
                 } catch (InterruptedException e1) {
                 }
             } catch (ConnectionInitializationException e) {
-                System.err.println(e.getMessage() + " Connection refused and reset.");
+                log.warn("{} Connection refused and reset.", e.getMessage());
             } catch (HandShakeException e) {
-                System.err.println(e.getMessage());
+                log.warn(e.getMessage());
             }
 
             while (isConnectionActive()) {
                 try {
-                    packetReceived(receivePacket(encryptedPacket));
+                    Packet p = receivePacket(encryptedPacket);
+                    if (!handleInternalPacket(p) && !dispatchPacket(p))
+                        packetReceived(p);
                 } catch (ReadPacketException e) {
-                    System.err.println(e.getMessage() + " Closing connection.");
+                    log.debug("{} Closing connection.", e.getMessage());
                     try {
                         closeIOStreams();
                     } catch (ConnectionException e1) {
-                        System.err.println(e.getMessage());
+                        log.warn(e.getMessage());
                     }
                 }
             }
@@ -131,6 +152,29 @@ public abstract class SingleClientServer extends ServerTemplate {
 
     }
 
+    /**
+     * Send a request using the EncryptedPacket setting, and get a future for
+     * its response. See Connection.request(Packet, boolean).
+     *
+     * @param p request packet. Its requestID is overwritten.
+     * @return CompletableFuture of the response
+     */
+    public CompletableFuture<Packet> request(Packet p) {
+        return request(p, encryptedPacket);
+    }
+
+    /**
+     * Answer a request using the EncryptedPacket setting
+     *
+     * @param request  packet received from the other side
+     * @param response packet to answer with. Its requestID is overwritten.
+     * @return boolean value based on the success of the send
+     * @throws SendPacketException thrown when there is an error sending the response
+     */
+    public boolean respond(Packet request, Packet response) throws SendPacketException {
+        return respond(request, response, encryptedPacket);
+    }
+
     /**
      * Returns the value of EncryptedPacket. This value is what determines
      * whether the ReadPacket method will try to decrypt the data.
@@ -166,15 +210,17 @@ public abstract class SingleClientServer extends ServerTemplate {
         if (handshakeComplete)
             throw new HandShakeException("Unable to HandShake with client. HandShake has already been completed.");
 
+        ArrayList<String> acceptedCapabilities;
         try {
-            @SuppressWarnings("unused")
             Packet clientHello = receivePacket(false);
+            acceptedCapabilities = acceptCapabilities(clientHello.gData);
         } catch (ReadPacketException e) {
             throw new HandShakeException("Unable to receive HandShake clientHello from connection. Terminating.");
         }
 
         try {
             Packet serverHello = new Packet(Packet.PACKET_TYPE.Handshake, null);
+            serverHello.gData = acceptedCapabilities;
             sendPacket(serverHello, false);
         } catch (SendPacketException e) {
             throw new HandShakeException("Unable to send HandShake serverHello to connection. Terminating.");
@@ -205,15 +251,31 @@ public abstract class SingleClientServer extends ServerTemplate {
             throw new HandShakeException("Unable to receive HandShake clientDone from connection. Terminating.");
         }
 
+        byte[] sessionKey = null;
         try {
             Packet serverDone = new Packet(Packet.PACKET_TYPE.Handshake, null);
             serverDone.packetString = "done";
+            if (hasCapability(SESSION_KEY_CAPABILITY)) {
+                sessionKey = SessionCipher.generateKey();
+                serverDone.packetByteArray = sessionKey;
+            }
             sendPacket(serverDone, true);
         } catch (SendPacketException e) {
             throw new HandShakeException("Unable to send HandShake serverDone to connection. Terminating.");
+        } catch (NoSuchAlgorithmException e) {
+            throw new HandShakeException("Unable to generate HandShake session key. Terminating.");
+        }
+
+        if (sessionKey != null) {
+            try {
+                setSessionKey(sessionKey);
+            } catch (GeneralSecurityException e) {
+                throw new HandShakeException("Unable to create HandShake session cipher. Terminating.");
+            }
         }
 
         handshakeComplete = true;
-        System.out.println("HandShake with client complete!");
+        handShakeComplete();
+        log.debug("HandShake with client complete! Client: {}", connectedSocket);
     }
 }
@@ -0,0 +1,325 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import Netta.Connection.EncodedPacket;
+import Netta.Connection.Packet;
+import Netta.Logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Topic based publish/subscribe for a MultiClientServer. Set one on the
+ * server with setTopicRouter before it is started, and every client it
+ * accepts can subscribe to topics and publish to them.
+ * <p>
+ * Topics are levels separated by '/', such as "prices/eu/btc". A topic filter
+ * may use '+' in place of one level, and '#' as its last level to match any
+ * number of levels, including none: "prices/+/btc" and "prices/#" both match
+ * "prices/eu/btc".
+ * <p>
+ * Clients send PACKET_TYPE.Subscribe and Unsubscribe packets with the filter
+ * in Packet.topic, and PACKET_TYPE.Publish packets with the topic in
+ * Packet.topic. If a Subscribe or Unsubscribe was sent with request(), the
+ * response's packetBool tells whether it succeeded. These packets are handled
+ * by the client's receive loop and never reach ThreadAction. The server
+ * publishes with publish(String, Packet).
+ * <p>
+ * A published packet is encoded once and queued on the SendQueue of every
+ * matching subscriber, exactly like MultiClientServer.multicast. Publishing
+ * never waits: a subscriber whose queue is full misses the packet, so a slow
+ * subscriber can never stall the server or a publishing client. Clients are
+ * unsubscribed from everything when their connection closes.
+ */
+public class TopicRouter {
+
+    private static final Log log = Log.get(TopicRouter.class);
+
+    public static final String SEPARATOR = "/";
+    public static final String SINGLE_LEVEL = "+";
+    public static final String MULTI_LEVEL = "#";
+    /**
+     * Most topics whose traffic is tracked at once. Clients choose the topics
+     * they publish to, so the stats must not grow with them unbounded.
+     */
+    public static final int MAX_TRACKED_TOPICS = 10000;
+
+    private final TopicTrie trie = new TopicTrie();
+    private final ConcurrentHashMap<String, TopicStats> stats = new ConcurrentHashMap<String, TopicStats>();
+    private final Collection<TopicStats> statsView = Collections.unmodifiableCollection(stats.values());
+
+    /**
+     * Subscribe a client to a topic filter
+     *
+     * @param client client to subscribe
+     * @param filter topic filter, which may contain wildcards
+     * @return True if the client was subscribed, false if it already was or
+     * the subscription was not allowed
+     * @throws IllegalArgumentException thrown if the filter is not valid
+     */
+    public boolean subscribe(ConnectedClient client, String filter) {
+        if (!isValidFilter(filter))
+            throw new IllegalArgumentException("Invalid topic filter: " + filter);
+        if (!allowSubscribe(client, filter))
+            return false;
+        // Checked after adding, in case the client closed meanwhile and its
+        // own removal ran first
+        boolean added = trie.add(filter, client);
+        if (added && client.getState() == ClientState.CLOSED)
+            trie.removeAll(client);
+        return added;
+    }
+
+    /**
+     * Unsubscribe a client from a topic filter
+     *
+     * @param client subscribed client
+     * @param filter topic filter it subscribed with
+     * @return True if the client was subscribed to the filter
+     */
+    public boolean unsubscribe(ConnectedClient client, String filter) {
+        return trie.remove(filter, client);
+    }
+
+    /**
+     * Unsubscribe a client from every topic filter. Called automatically when
+     * the client's connection closes.
+     *
+     * @param client subscribed client
+     * @return int number of filters the client was subscribed to
+     */
+    public int unsubscribeAll(ConnectedClient client) {
+        return trie.removeAll(client);
+    }
+
+    /**
+     * Publish a packet to every active client subscribed to a matching filter.
+     * The packet's type is set to Publish and its topic to the given topic.
+     *
+     * @param topic topic to publish to, without wildcards
+     * @param p     packet to send. Must not be changed afterwards.
+     * @return int number of clients the packet was queued for
+     * @throws IllegalArgumentException thrown if the topic is not valid
+     */
+    public int publish(String topic, Packet p) {
+        if (!isValidTopic(topic))
+            throw new IllegalArgumentException("Invalid topic: " + topic);
+        p.packetType = Packet.PACKET_TYPE.Publish;
+        p.topic = topic;
+        return route(p);
+    }
+
+    /**
+     * Called by a client's receive loop for every packet. Handles Subscribe,
+     * Unsubscribe and Publish packets.
+     *
+     * @param client client that sent the packet
+     * @param p      packet received
+     * @return True if the packet was consumed, else false
+     */
+    boolean packetReceived(ConnectedClient client, Packet p) {
+        switch (p.packetType) {
+            case Subscribe:
+            case Unsubscribe:
+                boolean done = false;
+                if (!isValidFilter(p.topic))
+                    log.debug("Ignored invalid topic filter from {}: {}", client.getConnectionId(), p.topic);
+                else if (p.packetType == Packet.PACKET_TYPE.Subscribe)
+                    done = subscribe(client, p.topic);
+                else
+                    done = unsubscribe(client, p.topic);
+                if (p.requestID > 0) {
+                    Packet response = new Packet(p.packetType, null);
+                    response.topic = p.topic;
+                    response.packetBool = done;
+                    response.requestID = -p.requestID;
+                    client.sendPacketAsync(response, client.getPacketEncrypted());
+                }
+                return true;
+            case Publish:
+                if (!isValidTopic(p.topic))
+                    log.debug("Ignored publish to invalid topic from {}: {}", client.getConnectionId(), p.topic);
+                else if (allowPublish(client, p.topic)) {
+                    p.requestID = 0;
+                    route(p);
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Decide whether a client may subscribe to a filter. By default every
+     * subscription is allowed. Override to restrict topics.
+     *
+     * @param client client subscribing
+     * @param filter valid topic filter
+     * @return True to allow the subscription
+     */
+    protected boolean allowSubscribe(ConnectedClient client, String filter) {
+        return true;
+    }
+
+    /**
+     * Decide whether a client may publish to a topic. By default every
+     * publish is allowed. Override to restrict topics. Publishes by the
+     * server itself are not checked.
+     *
+     * @param client client publishing
+     * @param topic  valid topic
+     * @return True to allow the publish
+     */
+    protected boolean allowPublish(ConnectedClient client, String topic) {
+        return true;
+    }
+
+    /**
+     * Get the number of clients subscribed to exactly this filter. Clients
+     * reached through other filters are not counted; see
+     * TopicStats.getSubscriberCount for those.
+     *
+     * @param filter topic filter
+     * @return int subscribers of the filter
+     */
+    public int getSubscriberCount(String filter) {
+        return trie.count(filter);
+    }
+
+    /**
+     * Get the number of clients with at least one subscription
+     *
+     * @return int subscribed clients
+     */
+    public int getSubscribedClientCount() {
+        return trie.clients();
+    }
+
+    /**
+     * Get the filters a client is subscribed to
+     *
+     * @param client subscribed client
+     * @return ArrayList of topic filters
+     */
+    public ArrayList<String> getSubscriptions(ConnectedClient client) {
+        return trie.filters(client);
+    }
+
+    /**
+     * Get the traffic of a topic
+     *
+     * @param topic published topic
+     * @return TopicStats, or null if the topic is not tracked
+     */
+    public TopicStats getTopicStats(String topic) {
+        return stats.get(topic);
+    }
+
+    /**
+     * Get a live, read only view of the traffic of every tracked topic. A
+     * topic is tracked from the first publish that matched a subscriber, up to
+     * MAX_TRACKED_TOPICS topics since the last resetStats().
+     *
+     * @return Collection of TopicStats
+     */
+    public Collection<TopicStats> getTopicStats() {
+        return statsView;
+    }
+
+    /**
+     * Forget the traffic of every topic
+     */
+    public void resetStats() {
+        stats.clear();
+    }
+
+    /**
+     * Check a topic to publish to: one or more levels, without wildcards
+     *
+     * @param topic topic to check
+     * @return True if the topic is valid
+     */
+    public static boolean isValidTopic(String topic) {
+        return topic != null && !topic.isEmpty() && topic.indexOf(SINGLE_LEVEL) < 0
+                && topic.indexOf(MULTI_LEVEL) < 0;
+    }
+
+    /**
+     * Check a topic filter: '+' may only stand alone as a level, and '#' only
+     * as the last level
+     *
+     * @param filter filter to check
+     * @return True if the filter is valid
+     */
+    public static boolean isValidFilter(String filter) {
+        if (filter == null || filter.isEmpty())
+            return false;
+        String[] levels = levels(filter);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.equals(SINGLE_LEVEL) || (level.equals(MULTI_LEVEL) && i == levels.length - 1))
+                continue;
+            if (level.contains(SINGLE_LEVEL) || level.contains(MULTI_LEVEL))
+                return false;
+        }
+        return true;
+    }
+
+    static String[] levels(String topic) {
+        // Keep empty levels, "a//b" has three
+        return topic.split(SEPARATOR, -1);
+    }
+
+    private int route(Packet p) {
+        HashSet<ConnectedClient> subscribers = new HashSet<ConnectedClient>();
+        trie.match(p.topic, subscribers);
+
+        int queued = 0;
+        if (!subscribers.isEmpty()) {
+            EncodedPacket encoded = new EncodedPacket(p);
+            for (ConnectedClient client : subscribers) {
+                if (client.getState() != ClientState.ACTIVE)
+                    continue;
+                CompletableFuture<Void> future = client.offerPacketAsync(encoded, client.getPacketEncrypted());
+                if (!future.isCompletedExceptionally())
+                    queued++;
+            }
+        }
+
+        TopicStats topicStats = stats.get(p.topic);
+        if (topicStats == null) {
+            // Publishes nobody hears are not tracked, so publishing to made
+            // up topics cannot grow the stats
+            if (subscribers.isEmpty() || stats.size() >= MAX_TRACKED_TOPICS)
+                return queued;
+            TopicStats created = new TopicStats(p.topic);
+            topicStats = stats.putIfAbsent(p.topic, created);
+            if (topicStats == null)
+                topicStats = created;
+        }
+        topicStats.published(subscribers.size(), queued);
+        return queued;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic of one published topic: how many packets were published to it, how
+ * many copies were delivered to subscribers, the recent publish rate and how
+ * many clients the last publish reached.
+ */
+public class TopicStats {
+
+    // Publishes are counted per second over this many seconds
+    private static final int RATE_WINDOW_SECONDS = 10;
+
+    private final String topic;
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private volatile int subscribers;
+    // Slot i counts the publishes of the second stored in seconds[i]
+    private final AtomicLongArray counts = new AtomicLongArray(RATE_WINDOW_SECONDS);
+    private final AtomicLongArray seconds = new AtomicLongArray(RATE_WINDOW_SECONDS);
+
+    TopicStats(String topic) {
+        this.topic = topic;
+    }
+
+    void published(int subscribers, int delivered) {
+        published.increment();
+        this.delivered.add(delivered);
+        this.subscribers = subscribers;
+
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % RATE_WINDOW_SECONDS);
+        long slotSecond = seconds.get(slot);
+        if (slotSecond != second && seconds.compareAndSet(slot, slotSecond, second))
+            counts.set(slot, 0);
+        counts.incrementAndGet(slot);
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Get the number of packets published to the topic
+     *
+     * @return long packets published
+     */
+    public long getPublishedCount() {
+        return published.sum();
+    }
+
+    /**
+     * Get the number of copies queued to subscribers, over every publish
+     *
+     * @return long packets delivered
+     */
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    /**
+     * Get the number of subscribers the last publish matched
+     *
+     * @return int subscribers of the topic
+     */
+    public int getSubscriberCount() {
+        return subscribers;
+    }
+
+    /**
+     * Get the mean publish rate over the last RATE_WINDOW_SECONDS complete
+     * seconds
+     *
+     * @return double packets published per second
+     */
+    public double getPublishesPerSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long total = 0;
+        for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+            long second = seconds.get(i);
+            if (second < now && second >= now - RATE_WINDOW_SECONDS)
+                total += counts.get(i);
+        }
+        return (double) total / RATE_WINDOW_SECONDS;
+    }
+
+    @Override
+    public String toString() {
+        return "TopicStats[topic=" + topic + ", published=" + getPublishedCount() + ", delivered="
+                + getDeliveredCount() + ", subscribers=" + subscribers + ", publishesPerSecond="
+                + getPublishesPerSecond() + "]";
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection.Server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index from topic filters to their subscribers, stored as a trie with one
+ * level of the topic per node. A publish walks only the branches that can
+ * match its topic, so its cost depends on the depth of the topic rather than
+ * on the number of subscriptions. Publishes share a read lock; subscribing and
+ * unsubscribing take the write lock.
+ */
+final class TopicTrie {
+
+    private final Node root = new Node();
+    // Filters of every subscriber, so a closing client can be removed
+    // without searching the whole trie
+    private final HashMap<ConnectedClient, HashSet<String>> filters = new HashMap<ConnectedClient, HashSet<String>>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Subscribe a client to a filter
+     *
+     * @param filter valid topic filter
+     * @param client subscriber
+     * @return True if the client was not already subscribed to the filter
+     */
+    boolean add(String filter, ConnectedClient client) {
+        lock.writeLock().lock();
+        try {
+            Node node = root;
+            for (String level : TopicRouter.levels(filter)) {
+                Node child = node.children.get(level);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(level, child);
+                }
+                node = child;
+            }
+            if (!node.subscribers.add(client))
+                return false;
+            HashSet<String> clientFilters = filters.get(client);
+            if (clientFilters == null) {
+                clientFilters = new HashSet<String>();
+                filters.put(client, clientFilters);
+            }
+            clientFilters.add(filter);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unsubscribe a client from a filter
+     *
+     * @param filter topic filter
+     * @param client subscriber
+     * @return True if the client was subscribed to the filter
+     */
+    boolean remove(String filter, ConnectedClient client) {
+        lock.writeLock().lock();
+        try {
+            HashSet<String> clientFilters = filters.get(client);
+            if (clientFilters == null || !clientFilters.remove(filter))
+                return false;
+            if (clientFilters.isEmpty())
+                filters.remove(client);
+            remove(root, TopicRouter.levels(filter), 0, client);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unsubscribe a client from every filter
+     *
+     * @param client subscriber
+     * @return int number of filters the client was subscribed to
+     */
+    int removeAll(ConnectedClient client) {
+        lock.writeLock().lock();
+        try {
+            HashSet<String> clientFilters = filters.remove(client);
+            if (clientFilters == null)
+                return 0;
+            for (String filter : clientFilters)
+                remove(root, TopicRouter.levels(filter), 0, client);
+            return clientFilters.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find every client subscribed to a filter that matches a topic. A client
+     * with several matching filters is added once.
+     *
+     * @param topic valid topic, without wildcards
+     * @param out   set the subscribers are added to
+     */
+    void match(String topic, Set<ConnectedClient> out) {
+        String[] levels = TopicRouter.levels(topic);
+        lock.readLock().lock();
+        try {
+            match(root, levels, 0, out);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of clients subscribed to exactly this filter
+     *
+     * @param filter topic filter
+     * @return int subscribers of the filter
+     */
+    int count(String filter) {
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (String level : TopicRouter.levels(filter)) {
+                node = node.children.get(level);
+                if (node == null)
+                    return 0;
+            }
+            return node.subscribers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the filters a client is subscribed to
+     *
+     * @param client subscriber
+     * @return ArrayList of the client's filters
+     */
+    ArrayList<String> filters(ConnectedClient client) {
+        lock.readLock().lock();
+        try {
+            HashSet<String> clientFilters = filters.get(client);
+            return clientFilters == null ? new ArrayList<String>() : new ArrayList<String>(clientFilters);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of clients with at least one subscription
+     *
+     * @return int subscribed clients
+     */
+    int clients() {
+        lock.readLock().lock();
+        try {
+            return filters.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void match(Node node, String[] levels, int i, Set<ConnectedClient> out) {
+        // A multi-level wildcard also matches its parent level
+        Node rest = node.children.get(TopicRouter.MULTI_LEVEL);
+        if (rest != null)
+            out.addAll(rest.subscribers);
+        if (i == levels.length) {
+            out.addAll(node.subscribers);
+            return;
+        }
+        Node exact = node.children.get(levels[i]);
+        if (exact != null)
+            match(exact, levels, i + 1, out);
+        Node any = node.children.get(TopicRouter.SINGLE_LEVEL);
+        if (any != null)
+            match(any, levels, i + 1, out);
+    }
+
+    // Returns true when the node is left empty, so its parent can drop it
+    private static boolean remove(Node node, String[] levels, int i, ConnectedClient client) {
+        if (i == levels.length) {
+            node.subscribers.remove(client);
+        } else {
+            Node child = node.children.get(levels[i]);
+            if (child != null && remove(child, levels, i + 1, client))
+                node.children.remove(levels[i]);
+        }
+        return node.subscribers.isEmpty() && node.children.isEmpty();
+    }
+
+    private static final class Node {
+        final HashMap<String, Node> children = new HashMap<String, Node>();
+        final HashSet<ConnectedClient> subscribers = new HashSet<ConnectedClient>();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Symmetric session cipher used once a HandShake has agreed on a session key.
+ * RSA (through Kript) is only used to move the session key from the server to
+ * the client; every packet after that is sealed with AES-GCM, which costs a
+ * single pass over the payload instead of one RSA operation per 100 bytes.
+ * <p>
+ * Each sealed message is laid out as [12 byte nonce][ciphertext + 16 byte tag].
+ */
+public class SessionCipher {
+
+    public static final String ALGORITHM = "AES";
+    public static final int KEY_BITS = 128;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_BYTES = TAG_BITS / 8;
+
+    private final SecretKey key;
+    private final SecureRandom random = new SecureRandom();
+    private final Cipher encryptCipher;
+    private final Cipher decryptCipher;
+    private final ReentrantLock encryptLock = new ReentrantLock();
+    private final ReentrantLock decryptLock = new ReentrantLock();
+
+    /**
+     * Create a session cipher from an existing key. Used by the side of the
+     * HandShake that receives the session key.
+     *
+     * @param keyBytes raw AES key bytes
+     * @throws GeneralSecurityException if AES-GCM is not available on this JVM
+     */
+    public SessionCipher(byte[] keyBytes) throws GeneralSecurityException {
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.encryptCipher = Cipher.getInstance(TRANSFORMATION);
+        this.decryptCipher = Cipher.getInstance(TRANSFORMATION);
+    }
+
+    /**
+     * Generate a fresh random session key. Used by the server side of the
+     * HandShake.
+     *
+     * @return byte[] raw AES key bytes
+     * @throws NoSuchAlgorithmException if AES is not available on this JVM
+     */
+    public static byte[] generateKey() throws NoSuchAlgorithmException {
+        KeyGenerator generator = KeyGenerator.getInstance(ALGORITHM);
+        generator.init(KEY_BITS);
+        return generator.generateKey().getEncoded();
+    }
+
+    /**
+     * Seal the given bytes with the session key
+     *
+     * @param plain bytes to encrypt
+     * @return byte[] nonce followed by the ciphertext and authentication tag
+     * @throws GeneralSecurityException if the cipher fails
+     */
+    public byte[] encrypt(byte[] plain) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+
+        encryptLock.lock();
+        try {
+            encryptCipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce));
+            byte[] sealed = new byte[NONCE_BYTES + encryptCipher.getOutputSize(plain.length)];
+            System.arraycopy(nonce, 0, sealed, 0, NONCE_BYTES);
+            encryptCipher.doFinal(plain, 0, plain.length, sealed, NONCE_BYTES);
+            return sealed;
+        } finally {
+            encryptLock.unlock();
+        }
+    }
+
+    /**
+     * Seal part of a buffer into another buffer, such as one from BufferPool
+     *
+     * @param plain     buffer holding the bytes to encrypt
+     * @param offset    start of the bytes to encrypt
+     * @param length    number of bytes to encrypt
+     * @param out       buffer receiving the nonce, ciphertext and tag. Needs
+     *                  sealedLength(length) bytes from outOffset.
+     * @param outOffset where the sealed bytes start in out
+     * @return int number of sealed bytes written
+     * @throws GeneralSecurityException if the cipher fails
+     */
+    public int encrypt(byte[] plain, int offset, int length, byte[] out, int outOffset) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+
+        encryptLock.lock();
+        try {
+            encryptCipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce));
+            System.arraycopy(nonce, 0, out, outOffset, NONCE_BYTES);
+            return NONCE_BYTES + encryptCipher.doFinal(plain, offset, length, out, outOffset + NONCE_BYTES);
+        } finally {
+            encryptLock.unlock();
+        }
+    }
+
+    /**
+     * Get the size of a sealed message
+     *
+     * @param plainLength number of bytes being encrypted
+     * @return int number of bytes encrypt will produce
+     */
+    public static int sealedLength(int plainLength) {
+        return NONCE_BYTES + plainLength + TAG_BYTES;
+    }
+
+    /**
+     * Open bytes that were sealed by the remote SessionCipher
+     *
+     * @param sealed nonce followed by the ciphertext and authentication tag
+     * @return byte[] decrypted bytes
+     * @throws GeneralSecurityException if the cipher fails or the message was
+     *                                  tampered with
+     */
+    public byte[] decrypt(byte[] sealed) throws GeneralSecurityException {
+        if (sealed.length < NONCE_BYTES)
+            throw new GeneralSecurityException("Sealed message is shorter than its nonce.");
+
+        decryptLock.lock();
+        try {
+            decryptCipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, NONCE_BYTES));
+            return decryptCipher.doFinal(sealed, NONCE_BYTES, sealed.length - NONCE_BYTES);
+        } finally {
+            decryptLock.unlock();
+        }
+    }
+
+    /**
+     * Open part of a buffer into another buffer, such as one from BufferPool
+     *
+     * @param sealed buffer holding the nonce, ciphertext and tag
+     * @param offset start of the sealed message
+     * @param length length of the sealed message
+     * @param out    buffer receiving the decrypted bytes. Needs at least
+     *               length bytes.
+     * @return int number of decrypted bytes written to the start of out
+     * @throws GeneralSecurityException if the cipher fails or the message was
+     *                                  tampered with
+     */
+    public int decrypt(byte[] sealed, int offset, int length, byte[] out) throws GeneralSecurityException {
+        if (length < NONCE_BYTES)
+            throw new GeneralSecurityException("Sealed message is shorter than its nonce.");
+
+        decryptLock.lock();
+        try {
+            decryptCipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, offset, NONCE_BYTES));
+            return decryptCipher.doFinal(sealed, offset + NONCE_BYTES, length - NONCE_BYTES, out, 0);
+        } finally {
+            decryptLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+/**
+ * Told about logical streams the remote side opens on a StreamMultiplexer.
+ */
+public interface StreamListener {
+
+    /**
+     * Called on the connection's receive thread when the first packet of a
+     * stream opened by the remote side arrives. Must not block; hand the
+     * stream to another thread to read it.
+     *
+     * @param stream the new stream
+     */
+    void streamOpened(MultiplexedStream stream);
+}
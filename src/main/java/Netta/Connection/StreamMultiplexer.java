@@ -0,0 +1,243 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import Netta.Exceptions.SendPacketException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Carries any number of numbered logical streams over one Connection, so bulk
+ * transfers and control traffic can share a single socket and HandShake.
+ * <p>
+ * Stream bytes travel in PACKET_TYPE.Stream packets of at most CHUNK_BYTES.
+ * A single writer takes one chunk from each stream with data in turn, so
+ * every stream gets an equal share of the connection, and ordinary packets
+ * sent with sendPacket slip in between chunks instead of waiting behind a
+ * whole transfer. Each stream has a flow control window: a writer may have at
+ * most windowBytes unread by the remote side, after which it waits until the
+ * remote reader hands credit back.
+ * <p>
+ * Both sides of the connection need a multiplexer with the same window size.
+ * Streams are opened by either side simply by writing to them; the other side
+ * learns about them through its StreamListener. A stream is forgotten once
+ * both sides have closed it. Stream packets are handled by
+ * the connection's receive loop and never reach packetReceived.
+ * SelectorServer clients do not support streams.
+ */
+public class StreamMultiplexer {
+
+    public static final int DEFAULT_WINDOW_BYTES = 256 * 1024;
+    public static final int CHUNK_BYTES = 16 * 1024;
+
+    private final Connection connection;
+    private final boolean encrypted;
+    private final int windowBytes;
+    private final ConcurrentHashMap<Integer, MultiplexedStream> streams = new ConcurrentHashMap<Integer, MultiplexedStream>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<MultiplexedStream> ready = new ArrayDeque<MultiplexedStream>();
+    private final Executor writer = ConnectionExecutors.writers();
+    private boolean draining = false;
+    private volatile StreamListener streamListener;
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Attach a multiplexer to a connection, with the default window
+     *
+     * @param connection connection to carry the streams
+     * @param encrypted  whether stream packets are encrypted
+     */
+    public StreamMultiplexer(Connection connection, boolean encrypted) {
+        this(connection, encrypted, DEFAULT_WINDOW_BYTES);
+    }
+
+    /**
+     * Attach a multiplexer to a connection. A connection has at most one
+     * multiplexer; attaching another replaces it.
+     *
+     * @param connection  connection to carry the streams
+     * @param encrypted   whether stream packets are encrypted
+     * @param windowBytes flow control window of every stream. Must match the
+     *                    remote side.
+     */
+    public StreamMultiplexer(Connection connection, boolean encrypted, int windowBytes) {
+        if (windowBytes < 2)
+            throw new IllegalArgumentException("Stream window must be at least 2 bytes: " + windowBytes);
+        this.connection = connection;
+        this.encrypted = encrypted;
+        this.windowBytes = windowBytes;
+        connection.setStreamMultiplexer(this);
+    }
+
+    /**
+     * Get a stream, opening it if it is not open yet. The remote side learns
+     * about the stream when the first bytes are written to it.
+     *
+     * @param streamID number of the stream, greater than 0
+     * @return MultiplexedStream with that number
+     */
+    public MultiplexedStream openStream(int streamID) {
+        if (streamID <= 0)
+            throw new IllegalArgumentException("Stream ids must be greater than 0: " + streamID);
+        MultiplexedStream stream = streams.get(streamID);
+        if (stream == null) {
+            MultiplexedStream created = new MultiplexedStream(streamID, this, windowBytes);
+            stream = streams.putIfAbsent(streamID, created);
+            if (stream == null)
+                stream = created;
+        }
+        return stream;
+    }
+
+    /**
+     * Get an open stream
+     *
+     * @param streamID number of the stream
+     * @return MultiplexedStream, or null if no stream with that number is open
+     */
+    public MultiplexedStream getStream(int streamID) {
+        return streams.get(streamID);
+    }
+
+    /**
+     * Set the listener told about streams opened by the remote side
+     *
+     * @param streamListener listener, or null to accept streams silently
+     */
+    public void setStreamListener(StreamListener streamListener) {
+        this.streamListener = streamListener;
+    }
+
+    /**
+     * Get the number of open streams
+     *
+     * @return int open streams
+     */
+    public int getStreamCount() {
+        return streams.size();
+    }
+
+    /**
+     * Route a received stream packet. Called by the connection's receive loop.
+     */
+    void packetReceived(Packet p) {
+        MultiplexedStream stream = streams.get(p.streamID);
+
+        if (p.packetByteArray == null) {
+            // Window update
+            if (stream != null && p.packetInt > 0)
+                stream.creditReceived(p.packetInt);
+            return;
+        }
+
+        if (stream == null) {
+            if (p.streamID <= 0)
+                return;
+            stream = openStream(p.streamID);
+            StreamListener listener = streamListener;
+            if (listener != null)
+                listener.streamOpened(stream);
+        }
+        stream.dataReceived(p.packetByteArray, p.packetBool);
+        if (stream.isFinished())
+            streams.remove(p.streamID, stream);
+    }
+
+    /**
+     * Fail every stream. Called when the connection closes.
+     */
+    void close() {
+        IOException closed = new IOException("Connection closed.");
+        for (MultiplexedStream stream : streams.values())
+            stream.fail(closed);
+        streams.clear();
+    }
+
+    void schedule(MultiplexedStream stream) {
+        boolean start = false;
+        lock.lock();
+        try {
+            if (!stream.scheduled) {
+                stream.scheduled = true;
+                ready.add(stream);
+            }
+            if (!draining) {
+                draining = true;
+                start = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (start)
+            writer.execute(drain);
+    }
+
+    void sendWindowUpdate(int streamID, int credit) throws IOException {
+        Packet p = new Packet(Packet.PACKET_TYPE.Stream, "");
+        p.streamID = streamID;
+        p.packetInt = credit;
+        try {
+            connection.sendPacket(p, encrypted);
+        } catch (SendPacketException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    // Round robin over the streams with data: one chunk per stream per turn
+    private void drain() {
+        while (true) {
+            MultiplexedStream stream;
+            lock.lock();
+            try {
+                stream = ready.poll();
+                if (stream == null) {
+                    draining = false;
+                    return;
+                }
+                stream.scheduled = false;
+            } finally {
+                lock.unlock();
+            }
+
+            Packet frame = stream.nextFrame();
+            if (stream.hasOutbound())
+                schedule(stream);
+            if (frame == null)
+                continue;
+
+            try {
+                if (!connection.sendPacket(frame, encrypted))
+                    stream.fail(new IOException("Connection is not active."));
+            } catch (SendPacketException e) {
+                stream.fail(new IOException(e.getMessage()));
+            }
+            if (stream.isFinished())
+                streams.remove(stream.getStreamID(), stream);
+        }
+    }
+}
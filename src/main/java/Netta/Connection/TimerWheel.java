@@ -0,0 +1,127 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hashed timer wheel for the per-connection timers, such as idle checks.
+ * Timeouts are dropped into one of WHEEL_SIZE buckets and a single task on
+ * the shared scheduler advances the wheel one bucket every tick, so
+ * scheduling and cancelling are O(1) however many connections are open.
+ * Timeouts fire up to one tick late.
+ * <p>
+ * Tasks run on the scheduler thread and must not block. Hand anything slow,
+ * such as socket writes, to another executor.
+ */
+public final class TimerWheel {
+
+    static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayList<Timeout>[] buckets = new ArrayList[WHEEL_SIZE];
+    // Guarded by lock. The next tick to be processed.
+    private long tick = 0;
+
+    TimerWheel(ScheduledExecutorService scheduler) {
+        for (int i = 0; i < WHEEL_SIZE; i++)
+            buckets[i] = new ArrayList<Timeout>();
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                advance();
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a task once after a delay
+     *
+     * @param task        task to run on the scheduler thread
+     * @param delayMillis delay, rounded up to a whole number of ticks
+     * @return Timeout that can cancel the task
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long ticks = Math.max(1, (delayMillis + TICK_MILLIS - 1) / TICK_MILLIS);
+        Timeout timeout = new Timeout(task, (ticks - 1) / WHEEL_SIZE);
+        lock.lock();
+        try {
+            buckets[(int) ((tick + ticks - 1) % WHEEL_SIZE)].add(timeout);
+        } finally {
+            lock.unlock();
+        }
+        return timeout;
+    }
+
+    private void advance() {
+        ArrayList<Timeout> expired = new ArrayList<Timeout>();
+        lock.lock();
+        try {
+            ArrayList<Timeout> bucket = buckets[(int) (tick % WHEEL_SIZE)];
+            tick++;
+            int kept = 0;
+            for (int i = 0; i < bucket.size(); i++) {
+                Timeout timeout = bucket.get(i);
+                if (timeout.cancelled)
+                    continue;
+                if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                    bucket.set(kept++, timeout);
+                } else {
+                    expired.add(timeout);
+                }
+            }
+            bucket.subList(kept, bucket.size()).clear();
+        } finally {
+            lock.unlock();
+        }
+
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                // One failing task must not stop the wheel
+            }
+        }
+    }
+
+    public static final class Timeout {
+        private final Runnable task;
+        // Guarded by the wheel's lock
+        private long rounds;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long rounds) {
+            this.task = task;
+            this.rounds = rounds;
+        }
+
+        /**
+         * Stop the task from running, if it has not run yet
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
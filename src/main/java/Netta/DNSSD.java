@@ -11,6 +11,9 @@
 package Netta;
 
 
+import Netta.Logging.Log;
+import Netta.Logging.LogLevel;
+
 import javax.jmdns.JmDNS;
 import javax.jmdns.ServiceEvent;
 import javax.jmdns.ServiceInfo;
@@ -28,6 +31,8 @@ import java.util.ArrayList;
  */
 public class DNSSD {
 
+    private static final Log log = Log.get(DNSSD.class);
+
     private RegisterService registerService;
     private DiscoverService discoverService;
 
@@ -50,8 +55,9 @@ public class DNSSD {
     public void registerService(String serviceType, String serviceName, int port, String serviceDescription, InetAddress address) throws UnknownHostException {
         if (address == null)
             address = InetAddress.getLocalHost();
-        System.out.println("DNSSD: Registering dns_sd service. Details: ServiceType-" + serviceType + "; ServiceName-"
-                + serviceName + "; Port-" + port + "; ServiceDescription-" + serviceDescription + "; Address-" + address);
+        if (log.isEnabled(LogLevel.INFO))
+            log.info("Registering dns_sd service. Details: ServiceType-" + serviceType + "; ServiceName-"
+                    + serviceName + "; Port-" + port + "; ServiceDescription-" + serviceDescription + "; Address-" + address);
         registerService = new RegisterService(serviceType, serviceName, port, serviceDescription, address);
         registerService.start();
     }
@@ -66,7 +72,7 @@ public class DNSSD {
     public void discoverService(String serviceType, InetAddress address) throws UnknownHostException {
         if (address == null)
             address = InetAddress.getLocalHost();
-        System.out.println("DNSSD: Searching for dns_sd service. ServiceType-" + serviceType);
+        log.info("Searching for dns_sd service. ServiceType-{}", serviceType);
         discoverService = new DiscoverService(serviceType, address);
         discoverService.start();
     }
@@ -84,7 +90,7 @@ public class DNSSD {
      * Unregister active DNS_SD service
      */
     public void closeRegisteredService() {
-        System.out.println("DNSSD: Unregistering service.");
+        log.info("Unregistering service.");
         registerService.close();
     }
 
@@ -93,12 +99,14 @@ public class DNSSD {
      */
     public void closeServiceDiscovery() {
         discoverService.closeServiceDiscovery();
-        System.out.println("DNSSD: mdnsService discovery has been closed");
+        log.info("mdnsService discovery has been closed");
     }
 }
 
 class RegisterService extends Thread {
 
+    private static final Log log = Log.get(DNSSD.class);
+
     private String serviceType, serviceName, serviceDescription;
     private int port;
     private JmDNS jmdns = null;
@@ -118,9 +126,9 @@ class RegisterService extends Thread {
             jmdns = JmDNS.create(address);
             ServiceInfo service = ServiceInfo.create(serviceType, serviceName, port, serviceDescription);
             jmdns.registerService(service);
-            System.out.println("DNSSD: Service registered.");
+            log.info("Service registered.");
         } catch (IOException e) {
-            System.err.println("DNSSD: Error setting up dns_sd for service broadcast. Details: " + e.getMessage());
+            log.warn("Error setting up dns_sd for service broadcast. Details: {}", e.getMessage());
         }
     }
 
@@ -129,13 +137,15 @@ class RegisterService extends Thread {
         try {
             jmdns.close();
         } catch (IOException e) {
-            System.err.println("DNSSD: Error deregistering service. Details: " + e.getMessage());
+            log.warn("Error deregistering service. Details: {}", e.getMessage());
         }
     }
 }
 
 class DiscoverService extends Thread {
 
+    private static final Log log = Log.get(DNSSD.class);
+
     private String serviceType;
     private JmDNS mdnsService;
     private ServiceListener mdnsServiceListener;
@@ -190,9 +200,9 @@ class DiscoverService extends Thread {
             } catch (InterruptedException e) {
             }
         } catch (UnknownHostException e) {
-            System.err.println("DNSSD: Error setting up dns_sd service discovery. Details: " + e.getMessage());
+            log.warn("Error setting up dns_sd service discovery. Details: {}", e.getMessage());
         } catch (IOException e) {
-            System.err.println("DNSSD: Error setting up dns_sd service discovery. Details: " + e.getMessage());
+            log.warn("Error setting up dns_sd service discovery. Details: {}", e.getMessage());
         }
     }
 
@@ -205,7 +215,7 @@ class DiscoverService extends Thread {
         try {
             mdnsService.close();
         } catch (IOException e) {
-            System.err.println("DNSSD: Error closing service discovery. Details: " + e.getMessage());
+            log.warn("Error closing service discovery. Details: {}", e.getMessage());
         }
         serviceList.clear();
     }
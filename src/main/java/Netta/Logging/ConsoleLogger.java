@@ -0,0 +1,57 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Logging;
+
+import java.io.PrintStream;
+
+/**
+ * Logger that prints to System.out, or System.err for WARN and ERROR, the way
+ * Netta used to before logging was pluggable. Each message is printed with a
+ * single call, so lines from different threads never interleave.
+ * <p>
+ * Example:
+ * <pre>
+ * Log.setLogger(new ConsoleLogger(LogLevel.INFO));
+ * </pre>
+ */
+public class ConsoleLogger implements Logger {
+
+    private final LogLevel level;
+
+    /**
+     * Create a console logger
+     *
+     * @param level lowest level that is printed
+     */
+    public ConsoleLogger(LogLevel level) {
+        this.level = level;
+    }
+
+    public boolean isEnabled(String name, LogLevel level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    public void log(String name, LogLevel level, String message, Throwable thrown) {
+        PrintStream stream = level.compareTo(LogLevel.WARN) >= 0 ? System.err : System.out;
+        stream.println(name + ": " + message);
+        if (thrown != null)
+            thrown.printStackTrace(stream);
+    }
+}
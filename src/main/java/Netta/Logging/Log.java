@@ -0,0 +1,217 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Logging;
+
+/**
+ * Netta's logging front end. Each class holds one Log, named after it:
+ * <pre>
+ * private static final Log log = Log.get(MultiClientServer.class);
+ * </pre>
+ * Messages go to the Logger installed with setLogger, Logger.NONE by
+ * default. Every call first asks the Logger whether its level is enabled,
+ * and only then builds the message, so a disabled message costs a volatile
+ * read and nothing else. Messages may contain {} placeholders, which are
+ * replaced by the arguments only once the message is known to be logged:
+ * <pre>
+ * log.debug("Client connection caught and initialized. Client: {}", socket);
+ * </pre>
+ * Log methods with a trailing Throwable log it together with the message.
+ */
+public final class Log {
+
+    private static volatile Logger logger = Logger.NONE;
+
+    private final String name;
+
+    private Log(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the Log for a class
+     *
+     * @param type class that logs
+     * @return Log named after the class
+     */
+    public static Log get(Class<?> type) {
+        return new Log(type.getSimpleName());
+    }
+
+    /**
+     * Install the Logger every Log writes to. Takes effect immediately on all
+     * threads.
+     *
+     * @param logger Logger to use, or null for Logger.NONE
+     */
+    public static void setLogger(Logger logger) {
+        Log.logger = logger == null ? Logger.NONE : logger;
+    }
+
+    /**
+     * Get the installed Logger
+     *
+     * @return Logger in use, Logger.NONE unless setLogger was called
+     */
+    public static Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Get the name this Log logs under
+     *
+     * @return String name of the logging class
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Check whether messages at a level would be logged. Use it to guard
+     * message building that placeholders cannot cover.
+     *
+     * @param level level of the message
+     * @return True if the message would be logged, else false
+     */
+    public boolean isEnabled(LogLevel level) {
+        return logger.isEnabled(name, level);
+    }
+
+    public void trace(String message) {
+        log(LogLevel.TRACE, message, null);
+    }
+
+    public void trace(String format, Object arg) {
+        Logger l = logger;
+        if (l.isEnabled(name, LogLevel.TRACE))
+            l.log(name, LogLevel.TRACE, format(format, arg, null), null);
+    }
+
+    public void trace(String format, Object arg1, Object arg2) {
+        Logger l = logger;
+        if (l.isEnabled(name, LogLevel.TRACE))
+            l.log(name, LogLevel.TRACE, format(format, arg1, arg2), null);
+    }
+
+    public void trace(String message, Throwable thrown) {
+        log(LogLevel.TRACE, message, thrown);
+    }
+
+    public void debug(String message) {
+        log(LogLevel.DEBUG, message, null);
+    }
+
+    public void debug(String format, Object arg) {
+        Logger l = logger;
+        if (l.isEnabled(name, LogLevel.DEBUG))
+            l.log(name, LogLevel.DEBUG, format(format, arg, null), null);
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        Logger l = logger;
+        if (l.isEnabled(name, LogLevel.DEBUG))
+            l.log(name, LogLevel.DEBUG, format(format, arg1, arg2), null);
+    }
+
+    public void debug(String message, Throwable thrown) {
+        log(LogLevel.DEBUG, message, thrown);
+    }
+
+    public void info(String message) {
+        log(LogLevel.INFO, message, null);
+    }
+
+    public void info(String format, Object arg) {
+        Logger l = logger;
+        if (l.isEnabled(name, LogLevel.INFO))
+            l.log(name, LogLevel.INFO, format(format, arg, null), null);
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        Logger l = logger;
+        if (l.isEnabled(name, LogLevel.INFO))
+            l.log(name, LogLevel.INFO, format(format, arg1, arg2), null);
+    }
+
+    public void info(String message, Throwable thrown) {
+        log(LogLevel.INFO, message, thrown);
+    }
+
+    public void warn(String message) {
+        log(LogLevel.WARN, message, null);
+    }
+
+    public void warn(String format, Object arg) {
+        Logger l = logger;
+        if (l.isEnabled(name, LogLevel.WARN))
+            l.log(name, LogLevel.WARN, format(format, arg, null), null);
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        Logger l = logger;
+        if (l.isEnabled(name, LogLevel.WARN))
+            l.log(name, LogLevel.WARN, format(format, arg1, arg2), null);
+    }
+
+    public void warn(String message, Throwable thrown) {
+        log(LogLevel.WARN, message, thrown);
+    }
+
+    public void error(String message) {
+        log(LogLevel.ERROR, message, null);
+    }
+
+    public void error(String format, Object arg) {
+        Logger l = logger;
+        if (l.isEnabled(name, LogLevel.ERROR))
+            l.log(name, LogLevel.ERROR, format(format, arg, null), null);
+    }
+
+    public void error(String format, Object arg1, Object arg2) {
+        Logger l = logger;
+        if (l.isEnabled(name, LogLevel.ERROR))
+            l.log(name, LogLevel.ERROR, format(format, arg1, arg2), null);
+    }
+
+    public void error(String message, Throwable thrown) {
+        log(LogLevel.ERROR, message, thrown);
+    }
+
+    private void log(LogLevel level, String message, Throwable thrown) {
+        Logger l = logger;
+        if (l.isEnabled(name, level))
+            l.log(name, level, message, thrown);
+    }
+
+    // Replaces the first two {} with the arguments
+    private static String format(String format, Object arg1, Object arg2) {
+        int first = format.indexOf("{}");
+        if (first < 0)
+            return format;
+        StringBuilder builder = new StringBuilder(format.length() + 32);
+        builder.append(format, 0, first).append(arg1);
+        int rest = first + 2;
+        int second = format.indexOf("{}", rest);
+        if (second >= 0) {
+            builder.append(format, rest, second).append(arg2);
+            rest = second + 2;
+        }
+        return builder.append(format, rest, format.length()).toString();
+    }
+}
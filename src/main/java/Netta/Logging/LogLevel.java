@@ -0,0 +1,46 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Logging;
+
+/**
+ * Severity of a log message, from the most verbose to the most severe
+ */
+public enum LogLevel {
+    /**
+     * Per-packet detail. Never enable in production.
+     */
+    TRACE,
+    /**
+     * Per-connection events, such as accepts, HandShakes and closes
+     */
+    DEBUG,
+    /**
+     * Lifecycle of servers, clients and services
+     */
+    INFO,
+    /**
+     * A connection or request failed, but Netta carries on
+     */
+    WARN,
+    /**
+     * Something Netta cannot recover from on its own
+     */
+    ERROR
+}
@@ -0,0 +1,64 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Logging;
+
+/**
+ * Destination for Netta's log messages. Install one with Log.setLogger to
+ * bridge Netta into your application's logging framework, or use
+ * ConsoleLogger. Netta logs nothing until a Logger is installed.
+ * <p>
+ * Methods are called from any thread, including event loop threads, so
+ * they must be thread safe and should not block.
+ */
+public interface Logger {
+
+    /**
+     * Discards every message, and reports every level as disabled so that no
+     * message is ever built. The default.
+     */
+    Logger NONE = new Logger() {
+        public boolean isEnabled(String name, LogLevel level) {
+            return false;
+        }
+
+        public void log(String name, LogLevel level, String message, Throwable thrown) {
+        }
+    };
+
+    /**
+     * Check whether messages at a level would be logged. Called before every
+     * message is built, so it must be cheap.
+     *
+     * @param name  name of the logging class
+     * @param level level of the message
+     * @return True if the message would be logged, else false
+     */
+    boolean isEnabled(String name, LogLevel level);
+
+    /**
+     * Log a message. Only called after isEnabled returned true.
+     *
+     * @param name    name of the logging class
+     * @param level   level of the message
+     * @param message the message
+     * @param thrown  exception that caused the message, or null
+     */
+    void log(String name, LogLevel level, String message, Throwable thrown);
+}
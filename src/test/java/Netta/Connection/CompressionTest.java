@@ -0,0 +1,146 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package Netta.Connection;
+
+import Kript.Kript;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionTest {
+
+    @Test
+    public void compressesRepetitivePackets() throws Exception {
+        CompressionStats stats = new CompressionStats();
+        byte[] packet = PacketCodec.encode(textPacket(4000));
+        byte[] frame = Compression.compress(packet, Compression.DEFAULT_THRESHOLD_BYTES, stats);
+        assertTrue(frame.length < packet.length / 4);
+        assertEquals(1, stats.getCompressedPackets());
+        assertEquals(packet.length, stats.getBytesBeforeCompression());
+        assertEquals(frame.length, stats.getBytesAfterCompression());
+
+        assertArrayEquals(packet, Compression.decompress(frame, stats));
+        assertEquals(1, stats.getDecompressedPackets());
+    }
+
+    @Test
+    public void sendsSmallPacketsRaw() throws Exception {
+        CompressionStats stats = new CompressionStats();
+        byte[] packet = PacketCodec.encode(textPacket(10));
+        byte[] frame = Compression.compress(packet, Compression.DEFAULT_THRESHOLD_BYTES, stats);
+        assertEquals(packet.length + 1, frame.length);
+        assertEquals(1, stats.getSkippedPackets());
+        assertArrayEquals(packet, Compression.decompress(frame, stats));
+    }
+
+    @Test
+    public void sendsIncompressiblePacketsRaw() throws Exception {
+        CompressionStats stats = new CompressionStats();
+        byte[] random = new byte[4000];
+        new Random(5).nextBytes(random);
+        byte[] frame = Compression.compress(random, 0, stats);
+        assertEquals(random.length + 1, frame.length);
+        assertEquals(1, stats.getIncompressiblePackets());
+        assertArrayEquals(random, Compression.decompress(frame, stats));
+    }
+
+    @Test
+    public void compressesARegionOfABuffer() throws Exception {
+        CompressionStats stats = new CompressionStats();
+        byte[] packet = PacketCodec.encode(textPacket(2000));
+        byte[] buffer = new byte[packet.length + 20];
+        System.arraycopy(packet, 0, buffer, 10, packet.length);
+        byte[] frame = Compression.compress(buffer, 10, packet.length, 0, stats);
+
+        byte[] framed = new byte[frame.length + 8];
+        System.arraycopy(frame, 0, framed, 3, frame.length);
+        assertArrayEquals(packet, Compression.decompress(framed, 3, frame.length, stats));
+    }
+
+    @Test
+    public void ignoresZeroPaddingAfterACompressedPacket() throws Exception {
+        CompressionStats stats = new CompressionStats();
+        Packet p = textPacket(3000);
+        byte[] frame = Compression.compress(PacketCodec.encode(p), 0, stats);
+        byte[] padded = Arrays.copyOf(frame, frame.length + 100 - frame.length % 100);
+        assertEquals(p.packetString, PacketCodec.decode(Compression.decompress(padded, stats)).packetString);
+    }
+
+    @Test
+    public void ignoresZeroPaddingAfterARawPacket() throws Exception {
+        CompressionStats stats = new CompressionStats();
+        Packet p = textPacket(10);
+        byte[] frame = Compression.compress(PacketCodec.encode(p), Compression.DEFAULT_THRESHOLD_BYTES, stats);
+        byte[] padded = Arrays.copyOf(frame, 100);
+        assertEquals(p.packetString, PacketCodec.decode(Compression.decompress(padded, stats)).packetString);
+    }
+
+    @Test
+    public void survivesKriptEncryption() throws Exception {
+        Kript kript = new Kript();
+        kript.setRemotePublicKey(kript.getPublicKey());
+        CompressionStats stats = new CompressionStats();
+        for (int size : new int[]{10, 99, 100, 101, 3000}) {
+            Packet p = textPacket(size);
+            byte[] frame = Compression.compress(PacketCodec.encode(p), 0, stats);
+            byte[] decrypted = kript.decrypt(kript.encrypt(frame));
+            assertEquals(p.packetString, PacketCodec.decode(Compression.decompress(decrypted, stats)).packetString);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAnEmptyFrame() throws Exception {
+        Compression.decompress(new byte[0], new CompressionStats());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownHeaders() throws Exception {
+        Compression.decompress(new byte[]{7, 1, 2, 3, 4, 5}, new CompressionStats());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAWrongLength() throws Exception {
+        byte[] frame = Compression.compress(PacketCodec.encode(textPacket(2000)), 0, new CompressionStats());
+        frame[4]++;
+        Compression.decompress(frame, new CompressionStats());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATruncatedFrame() throws Exception {
+        byte[] frame = Compression.compress(PacketCodec.encode(textPacket(2000)), 0, new CompressionStats());
+        Compression.decompress(Arrays.copyOf(frame, frame.length / 2), new CompressionStats());
+    }
+
+    private static Packet textPacket(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            text.append((char) ('a' + i % 7));
+        Packet p = new Packet(Packet.PACKET_TYPE.Message, "sender");
+        p.packetString = text.toString();
+        return p;
+    }
+}
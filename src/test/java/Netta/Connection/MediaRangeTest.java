@@ -0,0 +1,143 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package Netta.Connection;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MediaRangeTest {
+
+    @Test
+    public void roundTripsThroughAPacket() throws Exception {
+        ArrayList<MediaRange> ranges = new ArrayList<MediaRange>(Arrays.asList(
+                new MediaRange(100, 1000), MediaRange.from(5000), MediaRange.wholeFile()));
+        Packet p = MediaRange.toPacket("client", ranges);
+        assertTrue(MediaRange.isRangePacket(p));
+
+        ArrayList<MediaRange> parsed = MediaRange.fromPacket(p);
+        assertEquals(3, parsed.size());
+        assertRange(100, 1000, parsed.get(0));
+        assertRange(5000, MediaRange.TO_END, parsed.get(1));
+        assertRange(0, MediaRange.TO_END, parsed.get(2));
+    }
+
+    @Test
+    public void roundTripsNoRanges() throws Exception {
+        Packet p = MediaRange.toPacket("client", new ArrayList<MediaRange>());
+        assertTrue(MediaRange.fromPacket(p).isEmpty());
+    }
+
+    @Test
+    public void clampsToTheEndOfTheFile() {
+        assertRange(100, 900, MediaRange.from(100).clamp(1000));
+        assertRange(100, 50, new MediaRange(100, 50).clamp(1000));
+        assertRange(950, 50, new MediaRange(950, 100).clamp(1000));
+        assertRange(1000, 0, new MediaRange(2000, 10).clamp(1000));
+        assertRange(0, 0, MediaRange.wholeFile().clamp(0));
+    }
+
+    @Test
+    public void recognisesOnlyRangeCommands() {
+        Packet message = new Packet(Packet.PACKET_TYPE.Message, "s");
+        message.packetString = MediaRange.COMMAND;
+        message.packetByteArray = new byte[4];
+        assertFalse(MediaRange.isRangePacket(message));
+
+        Packet other = new Packet(Packet.PACKET_TYPE.Command, "s");
+        other.packetString = "Other";
+        other.packetByteArray = new byte[4];
+        assertFalse(MediaRange.isRangePacket(other));
+
+        Packet missing = new Packet(Packet.PACKET_TYPE.Command, "s");
+        missing.packetString = MediaRange.COMMAND;
+        assertFalse(MediaRange.isRangePacket(missing));
+        assertFalse(MediaRange.isRangePacket(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeOffsets() {
+        new MediaRange(-1, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeLengths() {
+        new MediaRange(0, -2);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTooManyRanges() throws Exception {
+        ArrayList<MediaRange> ranges = new ArrayList<MediaRange>();
+        for (int i = 0; i <= MediaRange.MAX_RANGES; i++)
+            ranges.add(new MediaRange(i, 1));
+        MediaRange.toPacket("client", ranges);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsANegativeCount() throws Exception {
+        MediaRange.fromPacket(rangePacket(-1));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsACountOverTheLimit() throws Exception {
+        MediaRange.fromPacket(rangePacket(MediaRange.MAX_RANGES + 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedRanges() throws Exception {
+        MediaRange.fromPacket(rangePacket(2, 0, 10));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidRanges() throws Exception {
+        MediaRange.fromPacket(rangePacket(1, -5, 10));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherPackets() throws Exception {
+        MediaRange.fromPacket(new Packet(Packet.PACKET_TYPE.Message, "s"));
+    }
+
+    private static Packet rangePacket(int count, long... values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(count);
+        for (long value : values)
+            out.writeLong(value);
+        Packet p = new Packet(Packet.PACKET_TYPE.Command, "s");
+        p.packetString = MediaRange.COMMAND;
+        p.packetByteArray = bytes.toByteArray();
+        return p;
+    }
+
+    private static void assertRange(long offset, long length, MediaRange range) {
+        assertEquals(offset, range.getOffset());
+        assertEquals(length, range.getLength());
+    }
+}
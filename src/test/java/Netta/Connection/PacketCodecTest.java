@@ -0,0 +1,179 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package Netta.Connection;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PacketCodecTest {
+
+    @Test
+    public void roundTripsEveryField() throws Exception {
+        KeyPair keyPair = ConnectionKript.generateKeyPairNow();
+        Packet p = new Packet(Packet.PACKET_TYPE.Message, "sender");
+        p.packetString = "h\u00e9llo \u4e16\u754c";
+        p.gData.add("one");
+        p.gData.add("two");
+        p.packetStringArray = new String[]{"a", null, ""};
+        p.packetInt = -12345;
+        p.packetBool = true;
+        p.packetKey = keyPair.getPublic();
+        p.packetByteArray = new byte[]{1, 2, 3, -1};
+        p.requestID = -7;
+        p.streamID = 3;
+        p.topic = "prices/eu/btc";
+        p.messageType = 200;
+
+        Packet d = PacketCodec.decode(PacketCodec.encode(p));
+        assertEquals(p.packetType, d.packetType);
+        assertEquals(p.senderID, d.senderID);
+        assertEquals(p.packetString, d.packetString);
+        assertEquals(p.gData, d.gData);
+        assertArrayEquals(p.packetStringArray, d.packetStringArray);
+        assertEquals(p.packetInt, d.packetInt);
+        assertTrue(d.packetBool);
+        assertEquals(p.packetKey, d.packetKey);
+        assertArrayEquals(p.packetByteArray, d.packetByteArray);
+        assertEquals(p.requestID, d.requestID);
+        assertEquals(p.streamID, d.streamID);
+        assertEquals(p.topic, d.topic);
+        assertEquals(p.messageType, d.messageType);
+    }
+
+    @Test
+    public void roundTripsAnEmptyPacket() throws Exception {
+        Packet d = PacketCodec.decode(PacketCodec.encode(new Packet(Packet.PACKET_TYPE.Message, null)));
+        assertEquals(Packet.PACKET_TYPE.Message, d.packetType);
+        assertNull(d.senderID);
+        assertNull(d.packetString);
+        assertTrue(d.gData.isEmpty());
+        assertNull(d.packetStringArray);
+        assertEquals(0, d.packetInt);
+        assertFalse(d.packetBool);
+        assertNull(d.packetKey);
+        assertNull(d.packetByteArray);
+        assertNull(d.topic);
+    }
+
+    @Test
+    public void extendedMaskIsOnlyWrittenWhenNeeded() throws Exception {
+        Packet p = new Packet(Packet.PACKET_TYPE.Command, "s");
+        byte[] plain = PacketCodec.encode(p);
+        assertEquals(Packet.PACKET_TYPE.Command.ordinal(), plain[0]);
+
+        p.requestID = 5;
+        byte[] extended = PacketCodec.encode(p);
+        assertEquals(Packet.PACKET_TYPE.Command.ordinal() | 0x80, extended[0] & 0xFF);
+        // Type, mask, extended mask, then the fields
+        assertEquals(plain.length + 2, extended.length);
+        assertEquals(5, PacketCodec.decode(extended).requestID);
+        assertEquals(Packet.PACKET_TYPE.Command, PacketCodec.decode(extended).packetType);
+    }
+
+    @Test
+    public void packetIntUsesZigZagVarInts() throws Exception {
+        int[] values = {1, -1, 63, -64, 64, -65, 8191, -8192, 8192, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        int[] varIntBytes = {1, 1, 1, 1, 2, 2, 2, 2, 3, 5, 5};
+        int empty = PacketCodec.encode(new Packet(Packet.PACKET_TYPE.Message, null)).length;
+        for (int i = 0; i < values.length; i++) {
+            Packet p = new Packet(Packet.PACKET_TYPE.Message, null);
+            p.packetInt = values[i];
+            byte[] bytes = PacketCodec.encode(p);
+            assertEquals("encoded size of " + values[i], empty + varIntBytes[i], bytes.length);
+            assertEquals(values[i], PacketCodec.decode(bytes).packetInt);
+        }
+    }
+
+    @Test
+    public void ignoresTrailingPadding() throws Exception {
+        Packet p = new Packet(Packet.PACKET_TYPE.Message, "s");
+        p.packetString = "padded";
+        byte[] bytes = PacketCodec.encode(p);
+        byte[] padded = Arrays.copyOf(bytes, bytes.length + 40);
+        assertEquals("padded", PacketCodec.decode(padded).packetString);
+    }
+
+    @Test
+    public void decodesARegionOfABuffer() throws Exception {
+        Packet p = new Packet(Packet.PACKET_TYPE.Message, "s");
+        p.packetInt = 42;
+        byte[] bytes = PacketCodec.encode(p);
+        byte[] buffer = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, buffer, 7, bytes.length);
+        assertEquals(42, PacketCodec.decode(buffer, 7, bytes.length).packetInt);
+    }
+
+    @Test
+    public void rejectsEveryTruncation() {
+        Packet p = new Packet(Packet.PACKET_TYPE.Message, "sender");
+        p.packetString = "text";
+        p.gData.add("data");
+        p.packetInt = 300;
+        p.packetByteArray = new byte[20];
+        p.requestID = 9;
+        p.topic = "a/b";
+        p.messageType = 1000;
+        byte[] bytes = PacketCodec.encode(p);
+        for (int length = 0; length < bytes.length; length++) {
+            try {
+                PacketCodec.decode(bytes, 0, length);
+                fail("Decoded a packet truncated to " + length + " of " + bytes.length + " bytes");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownTypes() throws Exception {
+        PacketCodec.decode(new byte[]{0x7F, 0});
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsLengthsPastTheEnd() throws Exception {
+        Packet p = new Packet(Packet.PACKET_TYPE.Message, null);
+        p.packetByteArray = new byte[3];
+        byte[] bytes = PacketCodec.encode(p);
+        // The byte array's length varint directly follows type and mask
+        bytes[2] = 100;
+        PacketCodec.decode(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedVarInts() throws Exception {
+        Packet p = new Packet(Packet.PACKET_TYPE.Message, null);
+        p.packetInt = 1;
+        byte[] bytes = PacketCodec.encode(p);
+        byte[] malformed = Arrays.copyOf(bytes, bytes.length + 5);
+        for (int i = 2; i < malformed.length; i++)
+            malformed[i] = (byte) 0x80;
+        PacketCodec.decode(malformed);
+    }
+}
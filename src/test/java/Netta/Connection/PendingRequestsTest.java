@@ -0,0 +1,194 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package Netta.Connection;
+
+import Netta.Exceptions.ConnectionException;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PendingRequestsTest {
+
+    @Test
+    public void completesTheMatchingRequest() throws Exception {
+        PendingRequests pending = new PendingRequests();
+        PendingRequests.Request a = pending.add(0);
+        PendingRequests.Request b = pending.add(0);
+        assertEquals(2, pending.size());
+
+        Packet response = response(b.id);
+        assertTrue(pending.complete(response));
+        assertSame(response, b.future.get(1, TimeUnit.SECONDS));
+        assertFalse(a.future.isDone());
+        assertEquals(1, pending.size());
+
+        // A response only completes its request once
+        assertFalse(pending.complete(response));
+        // Requests are matched by the negated id
+        assertFalse(pending.complete(response(-a.id)));
+        assertEquals(1, pending.size());
+    }
+
+    @Test
+    public void idsWrapAroundWithoutZero() throws Exception {
+        PendingRequests pending = new PendingRequests();
+        Field nextID = PendingRequests.class.getDeclaredField("nextID");
+        nextID.setAccessible(true);
+        ((AtomicInteger) nextID.get(pending)).set(Integer.MAX_VALUE - 1);
+
+        ArrayList<PendingRequests.Request> requests = new ArrayList<PendingRequests.Request>();
+        for (int i = 0; i < 4; i++)
+            requests.add(pending.add(0));
+        assertEquals(Integer.MAX_VALUE, requests.get(0).id);
+        assertEquals(1, requests.get(1).id);
+        assertEquals(2, requests.get(2).id);
+        assertEquals(3, requests.get(3).id);
+
+        for (PendingRequests.Request request : requests)
+            assertTrue(pending.complete(response(request.id)));
+        assertEquals(0, pending.size());
+    }
+
+    @Test
+    public void findsEveryRequestAfterRemovalsInAnyOrder() throws Exception {
+        PendingRequests pending = new PendingRequests();
+        ArrayList<PendingRequests.Request> requests = new ArrayList<PendingRequests.Request>();
+        // Enough to grow the table several times and make long probe runs
+        for (int i = 0; i < 1000; i++)
+            requests.add(pending.add(0));
+        Collections.shuffle(requests, new Random(13));
+
+        HashSet<Integer> removed = new HashSet<Integer>();
+        for (int i = 0; i < requests.size(); i++) {
+            PendingRequests.Request request = requests.get(i);
+            assertTrue("request " + request.id, pending.complete(response(request.id)));
+            assertTrue(request.future.isDone());
+            removed.add(request.id);
+            assertEquals(requests.size() - i - 1, pending.size());
+            // Removing must never hide a later entry of the same probe run
+            if (i % 100 == 0) {
+                for (PendingRequests.Request other : requests) {
+                    if (!removed.contains(other.id))
+                        assertFalse(other.future.isDone());
+                }
+            }
+        }
+        for (PendingRequests.Request request : requests)
+            assertFalse(pending.complete(response(request.id)));
+    }
+
+    @Test
+    public void interleavedAddsAndRemovesKeepEveryRequest() throws Exception {
+        PendingRequests pending = new PendingRequests();
+        ArrayList<PendingRequests.Request> live = new ArrayList<PendingRequests.Request>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            if (live.isEmpty() || random.nextInt(3) != 0) {
+                live.add(pending.add(0));
+            } else {
+                PendingRequests.Request request = live.remove(random.nextInt(live.size()));
+                assertTrue(pending.complete(response(request.id)));
+            }
+            assertEquals(live.size(), pending.size());
+        }
+        for (PendingRequests.Request request : live)
+            assertTrue(pending.complete(response(request.id)));
+        assertEquals(0, pending.size());
+    }
+
+    @Test
+    public void timesOutUnansweredRequests() throws Exception {
+        PendingRequests pending = new PendingRequests();
+        PendingRequests.Request request = pending.add(50);
+        try {
+            request.future.get(5, TimeUnit.SECONDS);
+            fail("Request did not time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, pending.size());
+        // A late response finds nothing to complete
+        assertFalse(pending.complete(response(request.id)));
+    }
+
+    @Test
+    public void answeredRequestsDoNotTimeOut() throws Exception {
+        PendingRequests pending = new PendingRequests();
+        PendingRequests.Request request = pending.add(50);
+        Packet response = response(request.id);
+        assertTrue(pending.complete(response));
+        Thread.sleep(150);
+        assertSame(response, request.future.get());
+        assertTrue(request.timeout.isCancelled());
+    }
+
+    @Test
+    public void failsSingleAndAllRequests() throws Exception {
+        PendingRequests pending = new PendingRequests();
+        PendingRequests.Request a = pending.add(0);
+        PendingRequests.Request b = pending.add(0);
+        PendingRequests.Request c = pending.add(0);
+
+        IllegalStateException cause = new IllegalStateException("send failed");
+        pending.fail(a.id, cause);
+        assertEquals(2, pending.size());
+        assertSame(cause, failure(a));
+
+        pending.failAll();
+        assertEquals(0, pending.size());
+        assertTrue(failure(b) instanceof ConnectionException);
+        assertTrue(failure(c) instanceof ConnectionException);
+
+        // The table still works after being cleared
+        PendingRequests.Request d = pending.add(0);
+        assertTrue(pending.complete(response(d.id)));
+    }
+
+    private static Throwable failure(PendingRequests.Request request) throws Exception {
+        try {
+            request.future.get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("Request " + request.id + " did not fail");
+        return null;
+    }
+
+    private static Packet response(int id) {
+        Packet p = new Packet(Packet.PACKET_TYPE.Message, "server");
+        p.requestID = -id;
+        return p;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Netta.Connection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SerialExecutorTest {
+
+    @Test
+    public void rejectedTaskNeverRuns() {
+        final AtomicInteger calls = new AtomicInteger();
+        SerialExecutor serial = new SerialExecutor(new Executor() {
+            public void execute(Runnable command) {
+                if (calls.incrementAndGet() == 1)
+                    throw new RejectedExecutionException();
+                command.run();
+            }
+        });
+        AtomicInteger ran = new AtomicInteger();
+        try {
+            serial.execute(counter(ran, 10));
+            fail("Expected the task to be rejected");
+        } catch (RejectedExecutionException e) {
+        }
+        serial.execute(counter(ran, 1));
+        assertEquals(1, ran.get());
+    }
+
+    @Test
+    public void backlogIsBounded() {
+        final List<Runnable> drains = new ArrayList<Runnable>();
+        SerialExecutor serial = new SerialExecutor(new Executor() {
+            public void execute(Runnable command) {
+                drains.add(command);
+            }
+        });
+        AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < SerialExecutor.MAX_BACKLOG; i++)
+            serial.execute(counter(ran, 1));
+        try {
+            serial.execute(counter(ran, 1));
+            fail("Expected the task to be rejected");
+        } catch (RejectedExecutionException e) {
+        }
+        assertEquals(1, drains.size());
+        drains.get(0).run();
+        assertEquals(SerialExecutor.MAX_BACKLOG, ran.get());
+
+        // Room again once the backlog has run
+        serial.execute(counter(ran, 1));
+        assertEquals(2, drains.size());
+    }
+
+    private static Runnable counter(final AtomicInteger count, final int amount) {
+        return new Runnable() {
+            public void run() {
+                count.addAndGet(amount);
+            }
+        };
+    }
+}
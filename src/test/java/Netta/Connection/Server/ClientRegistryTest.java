@@ -0,0 +1,194 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package Netta.Connection.Server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ClientRegistryTest {
+
+    private LoopbackClients loopback;
+
+    @Before
+    public void setUp() throws Exception {
+        loopback = new LoopbackClients();
+    }
+
+    @After
+    public void tearDown() {
+        loopback.close();
+    }
+
+    @Test
+    public void removesClientsWhenTheyClose() throws Exception {
+        ClientRegistry registry = new ClientRegistry();
+        ConnectedClient a = loopback.connect();
+        ConnectedClient b = loopback.connect();
+
+        long idA = registry.add(a);
+        long idB = registry.add(b);
+        assertTrue(idA > 0);
+        assertTrue(idB > 0);
+        assertFalse(idA == idB);
+        assertEquals(idA, a.getConnectionId());
+        assertSame(a, registry.get(idA));
+        assertEquals(2, registry.size());
+        assertEquals(2, registry.count(ClientState.ACTIVE));
+
+        a.closeIOStreams();
+        assertEquals(ClientState.CLOSED, a.getState());
+        assertNull(registry.get(idA));
+        assertEquals(1, registry.size());
+        assertSame(b, registry.snapshot().get(0));
+        assertFalse(registry.remove(a));
+    }
+
+    @Test
+    public void doesNotAddClosedClients() throws Exception {
+        ClientRegistry registry = new ClientRegistry();
+        ConnectedClient client = loopback.connect();
+        client.closeIOStreams();
+        assertEquals(0, registry.add(client));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void addsAClientToOneRegistryOnly() throws Exception {
+        ClientRegistry first = new ClientRegistry();
+        ClientRegistry second = new ClientRegistry();
+        ConnectedClient client = loopback.connect();
+        long id = first.add(client);
+        assertTrue(id > 0);
+        assertEquals(0, first.add(client));
+        assertEquals(0, second.add(client));
+        assertEquals(1, first.size());
+        assertEquals(0, second.size());
+        assertEquals(id, client.getConnectionId());
+    }
+
+    @Test
+    public void closesRacingAddsNeverLeaveClientsBehind() throws Exception {
+        final ClientRegistry registry = new ClientRegistry();
+        ArrayList<ConnectedClient> clients = loopback.connect(24);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger errors = new AtomicInteger();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (final ConnectedClient client : clients) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    await(start);
+                    registry.add(client);
+                }
+            }));
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    await(start);
+                    try {
+                        client.closeIOStreams();
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join(10000);
+
+        assertEquals(0, errors.get());
+        assertEquals(0, registry.size());
+        for (ConnectedClient client : clients) {
+            assertEquals(ClientState.CLOSED, client.getState());
+            if (client.getConnectionId() != 0)
+                assertNull(registry.get(client.getConnectionId()));
+        }
+    }
+
+    @Test
+    public void iteratesWhileClientsComeAndGo() throws Exception {
+        final ClientRegistry registry = new ClientRegistry();
+        final ArrayList<ConnectedClient> clients = loopback.connect(16);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicInteger errors = new AtomicInteger();
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                while (!done.get()) {
+                    try {
+                        ConcurrentHashMap<Long, ConnectedClient> seen = new ConcurrentHashMap<Long, ConnectedClient>();
+                        for (ConnectedClient client : registry.getClients())
+                            if (seen.put(client.getConnectionId(), client) != null)
+                                errors.incrementAndGet();
+                        registry.snapshot();
+                        registry.count(ClientState.ACTIVE);
+                    } catch (RuntimeException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (ConnectedClient client : clients)
+            registry.add(client);
+        for (int i = 0; i < clients.size(); i += 2)
+            clients.get(i).closeIOStreams();
+        done.set(true);
+        reader.join(10000);
+
+        assertEquals(0, errors.get());
+        assertEquals(clients.size() / 2, registry.size());
+        for (int i = 1; i < clients.size(); i += 2)
+            assertSame(clients.get(i), registry.get(clients.get(i).getConnectionId()));
+    }
+
+    @Test
+    public void countsHandShakesInProgress() {
+        ClientRegistry registry = new ClientRegistry();
+        registry.handShakeStarted();
+        registry.handShakeStarted();
+        assertEquals(2, registry.getHandShakingCount());
+        registry.handShakeFinished();
+        assertEquals(1, registry.getHandShakingCount());
+        assertEquals(0, registry.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
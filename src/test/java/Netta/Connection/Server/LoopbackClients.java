@@ -0,0 +1,126 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package Netta.Connection.Server;
+
+import Netta.Connection.Client.ClientTemplate;
+import Netta.Connection.ConnectionKript;
+import Netta.Connection.KeyProvider;
+import Netta.Connection.Packet;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+/**
+ * Creates ConnectedClients with a completed HandShake, each connected over
+ * loopback to a ClientTemplate, for tests that need real clients.
+ */
+final class LoopbackClients {
+
+    private static KeyPair keyPair;
+
+    private final ServerSocket serverSocket;
+    private final ConnectionKript kript;
+    private final ArrayList<ClientTemplate> remotes = new ArrayList<ClientTemplate>();
+    private final ArrayList<ConnectedClient> clients = new ArrayList<ConnectedClient>();
+
+    LoopbackClients() throws IOException, NoSuchAlgorithmException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        kript = new ConnectionKript(keyPair());
+    }
+
+    /**
+     * Connect a new client and complete its HandShake
+     *
+     * @return ConnectedClient, the server side of the connection
+     */
+    ConnectedClient connect() throws Exception {
+        ClientTemplate remote = new ClientTemplate(serverSocket.getInetAddress().getHostAddress(),
+                serverSocket.getLocalPort(), new KeyProvider() {
+            public KeyPair nextKeyPair() throws NoSuchAlgorithmException {
+                return keyPair();
+            }
+        }) {
+            protected void packetReceived(Packet p) {
+            }
+        };
+        remotes.add(remote);
+        Thread thread = new Thread(remote, "LoopbackClient");
+        thread.setDaemon(true);
+        thread.start();
+
+        Socket socket = serverSocket.accept();
+        ConnectedClient client = new ConnectedClient(socket, kript) {
+            public void ThreadAction(Packet p) {
+            }
+        };
+        if (!client.isConnectionActive())
+            throw new IOException("HandShake with the loopback client failed.");
+        clients.add(client);
+        return client;
+    }
+
+    /**
+     * Connect several clients
+     *
+     * @param count number of clients
+     * @return ArrayList of the connected clients
+     */
+    ArrayList<ConnectedClient> connect(int count) throws Exception {
+        ArrayList<ConnectedClient> connected = new ArrayList<ConnectedClient>();
+        for (int i = 0; i < count; i++)
+            connected.add(connect());
+        return connected;
+    }
+
+    /**
+     * Close every client, both sides, and stop listening
+     */
+    void close() {
+        for (ConnectedClient client : clients) {
+            try {
+                client.closeIOStreams();
+            } catch (Exception e) {
+            }
+        }
+        for (ClientTemplate remote : remotes) {
+            try {
+                remote.closeIOStreams();
+            } catch (Exception e) {
+            }
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+        }
+    }
+
+    // One keypair for every test, generating one takes a while
+    private static synchronized KeyPair keyPair() throws NoSuchAlgorithmException {
+        if (keyPair == null)
+            keyPair = ConnectionKript.generateKeyPairNow();
+        return keyPair;
+    }
+}
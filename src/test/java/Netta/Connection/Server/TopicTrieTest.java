@@ -0,0 +1,195 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package Netta.Connection.Server;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopicTrieTest {
+
+    private static LoopbackClients loopback;
+    private static ConnectedClient a, b, c;
+
+    private TopicTrie trie;
+
+    @BeforeClass
+    public static void connect() throws Exception {
+        loopback = new LoopbackClients();
+        a = loopback.connect();
+        b = loopback.connect();
+        c = loopback.connect();
+    }
+
+    @AfterClass
+    public static void close() {
+        loopback.close();
+    }
+
+    @Before
+    public void setUp() {
+        trie = new TopicTrie();
+    }
+
+    @Test
+    public void matchesExactTopics() {
+        trie.add("prices/eu/btc", a);
+        trie.add("prices/eu", b);
+        assertMatches("prices/eu/btc", a);
+        assertMatches("prices/eu", b);
+        assertMatches("prices/eu/eth");
+        assertMatches("prices");
+    }
+
+    @Test
+    public void singleLevelWildcardMatchesExactlyOneLevel() {
+        trie.add("prices/+/btc", a);
+        trie.add("+", b);
+        trie.add("+/+", c);
+        assertMatches("prices/eu/btc", a);
+        assertMatches("prices/us/btc", a);
+        assertMatches("prices/eu/eth");
+        assertMatches("prices/btc", c);
+        assertMatches("prices/eu/btc/x");
+        assertMatches("prices", b);
+        assertMatches("prices/eu", c);
+    }
+
+    @Test
+    public void multiLevelWildcardMatchesItsParentAndEveryLevelBelow() {
+        trie.add("prices/#", a);
+        assertMatches("prices", a);
+        assertMatches("prices/eu", a);
+        assertMatches("prices/eu/btc/spot", a);
+        assertMatches("news");
+        assertMatches("news/prices");
+    }
+
+    @Test
+    public void multiLevelWildcardAloneMatchesEverything() {
+        trie.add("#", a);
+        assertMatches("prices", a);
+        assertMatches("prices/eu/btc", a);
+    }
+
+    @Test
+    public void combinesWildcards() {
+        trie.add("prices/+/#", a);
+        trie.add("+/eu/#", b);
+        assertMatches("prices/eu", a, b);
+        assertMatches("prices/eu/btc", a, b);
+        assertMatches("prices/us/btc", a);
+        assertMatches("news/eu", b);
+        assertMatches("prices");
+    }
+
+    @Test
+    public void addsAClientOnceForSeveralMatchingFilters() {
+        trie.add("prices/eu/btc", a);
+        trie.add("prices/+/btc", a);
+        trie.add("prices/#", a);
+        trie.add("#", b);
+        HashSet<ConnectedClient> out = new HashSet<ConnectedClient>();
+        trie.match("prices/eu/btc", out);
+        assertEquals(new HashSet<ConnectedClient>(Arrays.asList(a, b)), out);
+    }
+
+    @Test
+    public void unsubscribesSingleFilters() {
+        assertTrue(trie.add("prices/+/btc", a));
+        assertFalse(trie.add("prices/+/btc", a));
+        trie.add("prices/+/btc", b);
+        assertEquals(2, trie.count("prices/+/btc"));
+
+        assertTrue(trie.remove("prices/+/btc", a));
+        assertFalse(trie.remove("prices/+/btc", a));
+        assertFalse(trie.remove("prices/#", c));
+        assertMatches("prices/eu/btc", b);
+        assertEquals(1, trie.count("prices/+/btc"));
+
+        trie.remove("prices/+/btc", b);
+        assertEquals(0, trie.count("prices/+/btc"));
+        assertEquals(0, trie.clients());
+        assertMatches("prices/eu/btc");
+    }
+
+    @Test
+    public void unsubscribesEveryFilterOfAClient() {
+        trie.add("prices/#", a);
+        trie.add("news/+", a);
+        trie.add("prices/#", b);
+        assertEquals(new HashSet<String>(Arrays.asList("prices/#", "news/+")), new HashSet<String>(trie.filters(a)));
+        assertEquals(2, trie.clients());
+
+        assertEquals(2, trie.removeAll(a));
+        assertEquals(0, trie.removeAll(a));
+        assertTrue(trie.filters(a).isEmpty());
+        assertEquals(1, trie.clients());
+        assertMatches("prices/eu", b);
+        assertMatches("news/today");
+    }
+
+    @Test
+    public void keepsSiblingsWhenPruning() {
+        trie.add("a/b/c", a);
+        trie.add("a/b", b);
+        trie.add("a/x/c", c);
+        trie.remove("a/b/c", a);
+        assertMatches("a/b", b);
+        assertMatches("a/x/c", c);
+        trie.remove("a/b", b);
+        assertMatches("a/x/c", c);
+        assertEquals(1, trie.count("a/x/c"));
+    }
+
+    @Test
+    public void validatesTopicsAndFilters() {
+        assertTrue(TopicRouter.isValidTopic("prices/eu/btc"));
+        assertFalse(TopicRouter.isValidTopic("prices/+/btc"));
+        assertFalse(TopicRouter.isValidTopic("prices/#"));
+        assertFalse(TopicRouter.isValidTopic(""));
+        assertFalse(TopicRouter.isValidTopic(null));
+
+        assertTrue(TopicRouter.isValidFilter("prices/+/btc"));
+        assertTrue(TopicRouter.isValidFilter("prices/#"));
+        assertTrue(TopicRouter.isValidFilter("#"));
+        assertTrue(TopicRouter.isValidFilter("+"));
+        assertFalse(TopicRouter.isValidFilter("prices/#/btc"));
+        assertFalse(TopicRouter.isValidFilter("prices/eu+"));
+        assertFalse(TopicRouter.isValidFilter("prices#"));
+        assertFalse(TopicRouter.isValidFilter(""));
+        assertFalse(TopicRouter.isValidFilter(null));
+    }
+
+    private void assertMatches(String topic, ConnectedClient... expected) {
+        HashSet<ConnectedClient> out = new HashSet<ConnectedClient>();
+        trie.match(topic, out);
+        assertEquals("subscribers of " + topic, new HashSet<ConnectedClient>(Arrays.asList(expected)), out);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  Netta is a Java based network library, to make handling IO between client and server easy and hassle free.
+ *
+ *  Copyright (C) 2016  Austin VanAlstyne
+
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package Netta.Connection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class TimerWheelTest {
+
+    // Wheel size of TimerWheel, in ticks
+    private static final int WHEEL_SIZE = 512;
+
+    private ManualScheduler scheduler;
+    private TimerWheel wheel;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler();
+        wheel = new TimerWheel(scheduler);
+        assertNotNull(scheduler.tick);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void firesAfterItsDelayRoundedUpToTicks() {
+        AtomicInteger fired = new AtomicInteger();
+        wheel.schedule(counter(fired), 1);
+        wheel.schedule(counter(fired), TimerWheel.TICK_MILLIS);
+        wheel.schedule(counter(fired), TimerWheel.TICK_MILLIS + 1);
+
+        scheduler.advance(1);
+        assertEquals(2, fired.get());
+        scheduler.advance(1);
+        assertEquals(3, fired.get());
+    }
+
+    @Test
+    public void waitsWholeRoundsForLongDelays() {
+        long[] ticks = {WHEEL_SIZE - 1, WHEEL_SIZE, WHEEL_SIZE + 1, WHEEL_SIZE * 2 + 3};
+        ArrayList<AtomicInteger> fired = new ArrayList<AtomicInteger>();
+        for (long t : ticks) {
+            AtomicInteger counter = new AtomicInteger();
+            wheel.schedule(counter(counter), t * TimerWheel.TICK_MILLIS);
+            fired.add(counter);
+        }
+        long elapsed = 0;
+        for (int i = 0; i < ticks.length; i++) {
+            scheduler.advance(ticks[i] - 1 - elapsed);
+            assertEquals("fired early for " + ticks[i] + " ticks", 0, fired.get(i).get());
+            scheduler.advance(1);
+            elapsed = ticks[i];
+            assertEquals("not fired after " + ticks[i] + " ticks", 1, fired.get(i).get());
+        }
+        scheduler.advance(WHEEL_SIZE * 3);
+        for (int i = 0; i < ticks.length; i++)
+            assertEquals("fired twice for " + ticks[i] + " ticks", 1, fired.get(i).get());
+    }
+
+    @Test
+    public void countsDelaysFromTheCurrentTick() {
+        scheduler.advance(WHEEL_SIZE - 2);
+        AtomicInteger fired = new AtomicInteger();
+        // Lands in a bucket behind the current one, after wrapping
+        wheel.schedule(counter(fired), 5 * TimerWheel.TICK_MILLIS);
+        scheduler.advance(4);
+        assertEquals(0, fired.get());
+        scheduler.advance(1);
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    public void cancelledTimeoutsNeverFire() {
+        AtomicInteger fired = new AtomicInteger();
+        TimerWheel.Timeout shortTimeout = wheel.schedule(counter(fired), 3 * TimerWheel.TICK_MILLIS);
+        TimerWheel.Timeout longTimeout = wheel.schedule(counter(fired), (WHEEL_SIZE + 3) * TimerWheel.TICK_MILLIS);
+        wheel.schedule(counter(fired), 3 * TimerWheel.TICK_MILLIS);
+
+        shortTimeout.cancel();
+        scheduler.advance(3);
+        assertEquals(1, fired.get());
+
+        // Cancelled while waiting out its rounds
+        longTimeout.cancel();
+        scheduler.advance(WHEEL_SIZE * 2);
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    public void cancellingAfterFiringDoesNothing() {
+        AtomicInteger fired = new AtomicInteger();
+        TimerWheel.Timeout timeout = wheel.schedule(counter(fired), TimerWheel.TICK_MILLIS);
+        scheduler.advance(1);
+        timeout.cancel();
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    public void aFailingTaskDoesNotStopTheOthers() {
+        AtomicInteger fired = new AtomicInteger();
+        wheel.schedule(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("task failed");
+            }
+        }, TimerWheel.TICK_MILLIS);
+        wheel.schedule(counter(fired), TimerWheel.TICK_MILLIS);
+        wheel.schedule(counter(fired), 2 * TimerWheel.TICK_MILLIS);
+        scheduler.advance(2);
+        assertEquals(2, fired.get());
+    }
+
+    @Test
+    public void tasksMayScheduleMoreTasks() {
+        final AtomicInteger fired = new AtomicInteger();
+        wheel.schedule(new Runnable() {
+            public void run() {
+                fired.incrementAndGet();
+                wheel.schedule(counter(fired), TimerWheel.TICK_MILLIS);
+            }
+        }, TimerWheel.TICK_MILLIS);
+        scheduler.advance(1);
+        assertEquals(1, fired.get());
+        scheduler.advance(1);
+        assertEquals(2, fired.get());
+    }
+
+    private static Runnable counter(final AtomicInteger fired) {
+        return new Runnable() {
+            public void run() {
+                fired.incrementAndGet();
+            }
+        };
+    }
+
+    // Holds on to the wheel's tick task instead of running it, so the test
+    // advances the wheel by hand
+    private static final class ManualScheduler extends ScheduledThreadPoolExecutor {
+        private Runnable tick;
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            tick = command;
+            return null;
+        }
+
+        void advance(long ticks) {
+            for (long i = 0; i < ticks; i++)
+                tick.run();
+        }
+    }
+}